@@ -20,49 +20,85 @@ import java.io.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.security.*;
-import org.json.JSONObject;
-import org.json.JSONArray;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 /**
- * An extension of the suffix tree adding an algorithm for finding approximate
- * clones, i.e. substrings which are similar.
+ * An algorithm for finding approximate clones, i.e. substrings which are
+ * similar, by matching the word against its suffix tree. The tree is
+ * traversed as {@link ISuffixIndex}, so it may also be simulated by the
+ * enhanced suffix array of {@link CloneDetectingSuffixArray}, which is much
+ * smaller for large words.
  * 
  * @author $Author: hummelb $
  * @version $Revision: 43151 $
  * @ConQAT.Rating GREEN Hash: BB94CD690760BC239F04D32D5BCAC33E
  *
- * JARs needed:
- *   https://mvnrepository.com/artifact/org.json/json/20140107
- *
  * Compile with
- *   javac -cp .:json-20140107.jar ApproximateCloneDetectingSuffixTree.java
+ *   javac ApproximateCloneDetectingSuffixTree.java
  *
  * Run with
- *   java -cp .:json-20140107.jar ApproximateCloneDetectingSuffixTree
+ *   java ApproximateCloneDetectingSuffixTree
  *
  * (-cp = class path)
  */
-public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
+public abstract class ApproximateCloneDetectingSuffixTree {
+
+	/** The word in which clones are searched. */
+	protected final List<?> word;
 
-	/** The number of leaves reachable from the given node (1 for leaves). */
-	private final int[] leafCount;
+	/** The interned symbols of the {@link #word}. */
+	protected final int[] symbols;
 
-	/** This is the distance between two entries in the {@link #cloneInfos} map. */
-	private static final int INDEX_SPREAD = 10;
+	/** The suffix tree (or a simulation of it) of the {@link #word}. */
+	private final ISuffixIndex index;
 
-	/** This map stores for each position the relevant clone infos. */
-	private final ListMap<Integer, CloneInfo> cloneInfos = new ListMap<Integer, CloneInfo>();
+	/**
+	 * This stores for each position the relevant clone infos. It is created
+	 * by {@link #findClones(int, int, int)}.
+	 */
+	private CloneRegistry cloneRegistry;
 
 	/**
-	 * The maximal length of a clone. This influences the size of the
-	 * (quadratic) {@link #edBuffer}.
+	 * Value used in the {@link CloneMatcher#edBuffer} for cells outside of
+	 * the band of cells which may be within the error budget. This is large
+	 * enough to never be chosen, but may still be incremented without
+	 * overflow.
 	 */
-	private static final int MAX_LENGTH = 1024;
+	private static final int OUTSIDE_BAND = Integer.MAX_VALUE / 2;
 
-	/** Buffer used for calculating edit distance. */
-	private final int[][] edBuffer = new int[MAX_LENGTH][MAX_LENGTH];
+	/**
+	 * Whether the edit distance is calculated using the bit-parallel
+	 * {@link BitParallelEditDistance} instead of the
+	 * {@link CloneMatcher#edBuffer}.
+	 */
+	private boolean bitParallelMatching = false;
+
+	/**
+	 * The minimal length for which the bit-parallel calculation is used. For
+	 * shorter edges (which are the majority in a suffix tree) the setup costs
+	 * more than filling the {@link CloneMatcher#edBuffer}.
+	 */
+	private static final int BIT_PARALLEL_MIN_LENGTH = 32;
+
+	/** The number of threads used for searching clones. */
+	private int parallelism = 1;
+
+	/**
+	 * The number of consecutive positions of the word matched as one task
+	 * when searching clones.
+	 */
+	private static final int POSITIONS_PER_TASK = 256;
+
+	/**
+	 * The maximal number of tasks per thread whose clones have not been
+	 * registered yet.
+	 */
+	private static final int MAX_TASKS_PER_THREAD = 4;
 
 	/** The minimal length of clones to return. */
 	protected int minLength;
@@ -70,6 +106,15 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	/** Number of units that must be equal at the start of a clone */
 	private int headEquality;
 
+	/**
+	 * The positions of all characters which may not be matched (see
+	 * {@link #mayNotMatch(Object)}), such as the sentinels separating files,
+	 * in ascending order. Matches are never extended beyond these, which
+	 * limits the edit distance calculation. This is initialized lazily by
+	 * {@link #findClones(int, int, int)}.
+	 */
+	private int[] unmatchablePositions;
+
 	/**
 	 * Create a new suffix tree from a given word. The word given as parameter
 	 * is used internally and should not be modified anymore, so copy it before
@@ -79,28 +124,97 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	 * character.
 	 */
 	public ApproximateCloneDetectingSuffixTree(List<?> word) {
-		super(word);
-		ensureChildLists();
-		leafCount = new int[numNodes];
-		initLeafCount(0);
+		this(word, null);
 	}
 
 	/**
-	 * Initializes the {@link #leafCount} array which given for each node the
-	 * number of leaves reachable from it (where leaves obtain a value of 1).
+	 * Create a new suffix tree from a word given as interned symbols (see
+	 * {@link SuffixTree#SuffixTree(int[])}). The characters passed to
+	 * {@link #mayNotMatch(Object)} are the symbols in this case.
 	 */
-	private void initLeafCount(int node) {
-		leafCount[node] = 0;
-		for (int e = nodeChildFirst[node]; e >= 0; e = nodeChildNext[e]) {
-			initLeafCount(nodeChildNode[e]);
-			leafCount[node] += leafCount[nodeChildNode[e]];
-		}
-		if (leafCount[node] == 0) {
-			leafCount[node] = 1;
-		}
+	public ApproximateCloneDetectingSuffixTree(int[] symbols) {
+		this(new SymbolList(symbols), symbols);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols are already known (see
+	 * {@link SuffixTree#SuffixTree(List, int[])}).
+	 */
+	public ApproximateCloneDetectingSuffixTree(List<?> word, int[] symbols) {
+		this(new CloneDetectingSuffixTree(word, symbols));
+	}
+
+	/** Create a new instance matching against the given suffix tree. */
+	private ApproximateCloneDetectingSuffixTree(CloneDetectingSuffixTree tree) {
+		this(tree.word, tree.symbols, tree);
+	}
+
+	/**
+	 * Create a new instance matching against the given index of the word,
+	 * such as a {@link CloneDetectingSuffixArray}. The word and symbols are
+	 * used internally and should not be modified anymore.
+	 */
+	public ApproximateCloneDetectingSuffixTree(List<?> word, int[] symbols,
+			ISuffixIndex index) {
+		this.word = word;
+		this.symbols = symbols;
+		this.index = index;
 	}
 
     /**
+     * Usage:
+     *   ApproximateCloneDetectingSuffixTree [token file...] [--write-binary file]
+     *       [--bit-parallel] [--threads n] [--exact] [--suffix-array]
+     *       [--off-heap] [--write-tree file | --read-tree file]
+     *       [--clones file [--changed source file...]] [--index file]
+     *       [--shards n [--shard-heap size]]
+     *
+     * The token file is either the JSON written by totokens.php or a binary
+     * token file (see PhpTokenBinaryFile) and defaults to tokens.json. With
+     * --write-binary the tokens read from JSON are also stored as binary
+     * token file, which loads much faster in later runs.
+     *
+     * If multiple JSON token files (usually one per source file) or a
+     * directory containing them are given, they are read in parallel (see
+     * PhpTokenIngester).
+     *
+     * With --bit-parallel the edit distance is calculated using
+     * BitParallelEditDistance, which yields the same clones.
+     *
+     * With --threads the clones are searched using the given number of
+     * threads (default is the number of processors).
+     *
+     * With --exact only exact clones are searched (see ICloneDetector). With
+     * --suffix-array clones are found using the more compact
+     * CloneDetectingSuffixArray instead of a CloneDetectingSuffixTree.
+     *
+     * With --off-heap the arrays of the CloneDetectingSuffixTree are stored
+     * in direct memory (see IntArray), so the Java heap can stay small for
+     * large inputs.
+     *
+     * With --write-tree the built CloneDetectingSuffixTree is stored (see
+     * SuffixTreeFile). With --read-tree a tree stored before for the same
+     * tokens is memory mapped instead of building it, which makes repeated
+     * runs (e.g. with other thresholds) much faster.
+     *
+     * With --clones the found clones are stored in the given file (see
+     * CloneInfoFile). If the file exists and --changed (which may be given
+     * multiple times) names the source files (as named in the tokens) which
+     * changed since, the stored clones not involving these files are taken
+     * over and only the changed files and the instances of the other stored
+     * clones are searched again, which is much faster if few files changed.
+     *
+     * With --index the files of the tokens are added to the given
+     * CloneIndex (replacing files of the same name, the index is created if
+     * it does not exist) and the exact clones are found from the index
+     * instead of a suffix tree. Thus a later run only needs the tokens of
+     * changed files.
+     *
+     * With --shards the exact clones are found by the given number of worker
+     * processes, each with a heap of at most the given --shard-heap (e.g.
+     * 512m), see ShardedCloneDetection.
+     *
      * TODO: Add options:
      *   --min-tokens
      *   --min-lines
@@ -118,45 +232,296 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
         //System.out.println(10 ^ 0);
         //System.exit(0);
 
-        List<PhpToken> word = new ArrayList<PhpToken>();
-
-        String filename = "tokens.json";
-        String content = new Scanner(new File(filename)).useDelimiter("\\Z").next();
-        JSONArray json = new JSONArray(content);
-        for(int n = 0; n < json.length(); n++)
-        {
-            JSONObject object = (JSONObject) json.get(n);
-            PhpToken t = new PhpToken(
-                (int) object.get("token_code"),
-                (String) object.get("token_name"),
-                (int) object.get("line"),
-                (String) object.get("file"),
-                (String) object.get("content")
-            );
-            word.add(t);
+        List<Path> paths = new ArrayList<Path>();
+        String binaryFilename = null;
+        boolean bitParallel = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean exact = false;
+        boolean suffixArray = false;
+        boolean offHeap = false;
+        String writeTreeFilename = null;
+        String readTreeFilename = null;
+        Set<String> changedFiles = null;
+        String clonesFilename = null;
+        String indexFilename = null;
+        int shards = 0;
+        String shardHeap = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--write-binary".equals(args[i]) && i + 1 < args.length) {
+                binaryFilename = args[++i];
+            } else if ("--bit-parallel".equals(args[i])) {
+                bitParallel = true;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--exact".equals(args[i])) {
+                exact = true;
+            } else if ("--suffix-array".equals(args[i])) {
+                suffixArray = true;
+            } else if ("--off-heap".equals(args[i])) {
+                offHeap = true;
+            } else if ("--write-tree".equals(args[i]) && i + 1 < args.length) {
+                writeTreeFilename = args[++i];
+            } else if ("--read-tree".equals(args[i]) && i + 1 < args.length) {
+                readTreeFilename = args[++i];
+            } else if ("--changed".equals(args[i]) && i + 1 < args.length) {
+                if (changedFiles == null) {
+                    changedFiles = new HashSet<String>();
+                }
+                changedFiles.add(args[++i]);
+            } else if ("--clones".equals(args[i]) && i + 1 < args.length) {
+                clonesFilename = args[++i];
+            } else if ("--index".equals(args[i]) && i + 1 < args.length) {
+                indexFilename = args[++i];
+            } else if ("--shards".equals(args[i]) && i + 1 < args.length) {
+                shards = Integer.parseInt(args[++i]);
+            } else if ("--shard-heap".equals(args[i]) && i + 1 < args.length) {
+                shardHeap = args[++i];
+            } else {
+                paths.add(Paths.get(args[i]));
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(Paths.get("tokens.json"));
+        }
+        if (shards > 0) {
+            new ShardedCloneDetection(shards, shardHeap).run(paths);
+            return;
+        }
+
+        List<PhpToken> tokens;
+        int[] symbols;
+        Path path = paths.get(0);
+        if (paths.size() == 1 && !Files.isDirectory(path)
+                && PhpTokenBinaryFile.isBinaryTokenFile(path)) {
+            PhpTokenBinaryFile file = PhpTokenBinaryFile.open(path);
+            tokens = file.getTokens();
+            symbols = file.getSymbols();
+        } else {
+            PhpTokenWord word;
+            if (paths.size() == 1 && !Files.isDirectory(path)) {
+                word = new PhpTokenWord();
+                try (PhpTokenJsonReader reader = new PhpTokenJsonReader(path)) {
+                    reader.readAll(word);
+                }
+                word.addSentinel();
+            } else {
+                word = new PhpTokenIngester().ingest(listTokenFiles(paths));
+            }
+            if (binaryFilename != null) {
+                PhpTokenBinaryFile.write(word, Paths.get(binaryFilename));
+            }
+            tokens = word.getTokens();
+            symbols = word.getSymbols();
+        }
+
+        //System.out.println("Word size = " + tokens.size());
+
+        if (indexFilename != null) {
+            printIndexClones(Paths.get(indexFilename), tokens);
+            return;
         }
-        word.add(new Sentinel(0, "_", 0, "_", "_"));
 
-        //System.out.println("Word size = " + word.size());
+        ICloneDetector detector;
+        if (suffixArray) {
+            detector = new CloneDetectingSuffixArray(symbols);
+        } else if (readTreeFilename != null) {
+            detector = SuffixTreeFile.load(Paths.get(readTreeFilename),
+                    tokens, symbols);
+        } else {
+            CloneDetectingSuffixTree tree = new CloneDetectingSuffixTree(
+                    tokens, symbols, offHeap);
+            if (writeTreeFilename != null) {
+                SuffixTreeFile.write(tree, Paths.get(writeTreeFilename));
+            }
+            detector = tree;
+        }
+        if (exact) {
+            printExactClones(detector, tokens);
+            return;
+        }
 
 		ApproximateCloneDetectingSuffixTree stree = new ApproximateCloneDetectingSuffixTree(
-                word) {
+                tokens, symbols, (ISuffixIndex) detector) {
             @Override
             protected boolean mayNotMatch(Object character) {
                 return character instanceof Sentinel;
             }
+        };
+        stree.setBitParallelMatching(bitParallel);
+        stree.setParallelism(threads);
+        //List<List<String>> cloneClasses = stree.findClones(1, 1, 3);
+
+        Path clonesFile = null;
+        if (clonesFilename != null) {
+            clonesFile = Paths.get(clonesFilename);
+        }
+        if (changedFiles != null && clonesFile != null
+                && Files.exists(clonesFile)) {
+            stree.findClones(10, 10, 10, getFileRegions(tokens, changedFiles),
+                    CloneInfoFile.read(clonesFile, tokens));
+        } else {
+            stree.findClones(10, 10, 10);
+        }
+        if (clonesFile != null) {
+            CloneInfoFile.write(stree.getRegisteredClones(), tokens,
+                    clonesFile);
+        }
+    }
+
+    /**
+     * Returns the regions of positions of the tokens belonging to the given
+     * source files.
+     */
+    private static List<SimpleRegion> getFileRegions(List<PhpToken> tokens,
+            Set<String> files) {
+        List<SimpleRegion> regions = new ArrayList<SimpleRegion>();
+        int start = -1;
+        for (int i = 0; i <= tokens.size(); ++i) {
+            boolean inFile = i < tokens.size()
+                    && files.contains(tokens.get(i).file);
+            if (inFile && start < 0) {
+                start = i;
+            } else if (!inFile && start >= 0) {
+                regions.add(new SimpleRegion(start, i - 1));
+                start = -1;
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Prints the exact clones found by the given detector which are longer
+     * than 25 tokens, one clone class after the other.
+     */
+    private static void printExactClones(ICloneDetector detector,
+            final List<PhpToken> tokens) throws ConQATException {
+        detector.findClones(26, new ICloneReporter() {
+            private boolean first;
 
             @Override
-            protected void reportBufferShortage(int leafStart, int leafLength) {
-                System.out.println("Encountered buffer shortage: " + leafStart
-                        + " " + leafLength);
+            public void startCloneClass(int length) {
+                System.out.printf("\nClone class with %d tokens:\n", length);
+                first = true;
             }
-        };
-        //List<List<String>> cloneClasses = stree.findClones(1, 1, 3);
 
-        stree.findClones(10, 10, 10);
+            @Override
+            public Clone addClone(int position, int length) {
+                PhpToken firstToken = tokens.get(position);
+                PhpToken lastToken = tokens.get(position + length - 1);
+                System.out.printf(
+                    "%s%s:%d-%d (%d lines)\n",
+                    first ? "  - " : "    ",
+                    firstToken.file,
+                    firstToken.line,
+                    lastToken.line,
+                    lastToken.line - firstToken.line + 1
+                );
+                first = false;
+                return null;
+            }
+
+            @Override
+            public boolean completeCloneClass() {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Adds the files of the given tokens to the clone index stored in the
+     * given file and prints the exact clones found in the index which are
+     * longer than 25 tokens (like {@link #printExactClones}).
+     */
+    private static void printIndexClones(Path indexFile, List<PhpToken> tokens)
+            throws ConQATException, IOException {
+        CloneIndex index;
+        if (Files.exists(indexFile)) {
+            index = CloneIndex.open(indexFile);
+        } else {
+            index = new CloneIndex(26);
+        }
+        index.addFiles(tokens);
+        index.write(indexFile);
+        printIndexClones(index, 0, 1);
+    }
+
+    /**
+     * Prints the given part of the exact clones found in the given index
+     * which are longer than 25 tokens (see
+     * {@link CloneIndex#findClones(int, IFileCloneReporter, int, int)}).
+     */
+    /* package */static void printIndexClones(CloneIndex index, int part,
+            int numParts) throws ConQATException {
+        index.findClones(26, new IFileCloneReporter() {
+            private boolean first;
+
+            @Override
+            public void startCloneClass(int length) {
+                System.out.printf("\nClone class with %d tokens:\n", length);
+                first = true;
+            }
+
+            @Override
+            public void addClone(String file, int position, int startLine,
+                    int endLine) {
+                System.out.printf("%s%s:%d-%d (%d lines)\n",
+                    first ? "  - " : "    ", file, startLine, endLine,
+                    endLine - startLine + 1);
+                first = false;
+            }
+
+            @Override
+            public void completeCloneClass() {
+                // nothing to do
+            }
+        }, part, numParts);
+    }
+
+    /**
+     * Returns the given token files, replacing directories by the JSON files
+     * contained in them (recursively, in lexical order).
+     */
+    /* package */static List<Path> listTokenFiles(List<Path> paths) throws IOException {
+        List<Path> result = new ArrayList<Path>();
+        for (Path path : paths) {
+            if (!Files.isDirectory(path)) {
+                result.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(file -> Files.isRegularFile(file)
+                        && file.toString().endsWith(".json"))
+                    .sorted()
+                    .forEach(result::add);
+            }
+        }
+        return result;
     }
 
+	/**
+	 * Sets whether the edit distance is calculated bit-parallel (see
+	 * {@link BitParallelEditDistance}), which processes 64 cells per
+	 * operation and is faster for larger error budgets. Both variants find
+	 * the same clones. The default is to use the dynamic programming over the
+	 * {@link CloneMatcher#edBuffer}.
+	 */
+	public void setBitParallelMatching(boolean bitParallelMatching) {
+		this.bitParallelMatching = bitParallelMatching;
+	}
+
+	/**
+	 * Sets the number of threads used by {@link #findClones(int, int, int)}.
+	 * The positions of the word are then matched in parallel, which yields
+	 * the same clones as the sequential search. The default is 1.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"Parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
 	/**
 	 * Finds all clones in the string (List) used in the constructor.
 	 * 
@@ -165,30 +530,63 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	 * @param headEquality the number of elements which have to be the same at the beginning of a clone
 	 */
 	public void findClones(int minLength, int maxErrors, int headEquality) throws ConQATException {
+		findClones(minLength, maxErrors, headEquality, null, null);
+	}
+
+	/**
+	 * Finds the clones incrementally, i.e. only matches the words starting in
+	 * the given changed regions instead of all positions. As the edit
+	 * distance is symmetric, this also finds most clones whose other
+	 * instances lie outside of the changed regions. The clones of an earlier
+	 * search (see {@link #getRegisteredClones()}) which do not touch a
+	 * changed region are taken over without matching them again, while the
+	 * words starting at the instances of the others are matched again.
+	 * 
+	 * @param changedRegions
+	 *            the regions of positions (inclusive) which changed since the
+	 *            previous clones were found, or null to search all positions.
+	 * @param previousClones
+	 *            the clones of an earlier search, given as positions in the
+	 *            current word, or null if there are none. Clones touching a
+	 *            changed region or crossing a character which may not match
+	 *            are discarded, as they are found again if still present.
+	 */
+	public void findClones(int minLength, int maxErrors, int headEquality,
+			List<SimpleRegion> changedRegions, List<CloneInfo> previousClones)
+			throws ConQATException {
 		this.minLength = minLength;
 		this.headEquality = headEquality;
-		cloneInfos.clear();
-
-		for (int i = 0; i < word.size(); ++i) {
-			// Do quick start, as first character has to match anyway.
-			int node = nextNode.get(0, word.get(i));
-			if (node < 0 || leafCount[node] <= 1) {
-				continue;
+		cloneRegistry = new CloneRegistry(word.size());
+		initUnmatchablePositions();
+
+		int[] changed = getChangedPositions(changedRegions);
+		int[] searched = changed;
+		if (previousClones != null) {
+			List<SimpleRegion> revalidated = new ArrayList<SimpleRegion>();
+			for (CloneInfo clone : previousClones) {
+				if (isStillValid(clone, changed)) {
+					cloneRegistry.register(clone);
+				} else {
+					addInstanceStarts(clone, revalidated);
+				}
+			}
+			if (changed != null) {
+				revalidated.addAll(changedRegions);
+				searched = getChangedPositions(revalidated);
 			}
+		}
 
-			// we know that we have an exact match of at least 'length'
-			// characters, as the word itself is part of the suffix tree.
-			int length = nodeWordEnd[node] - nodeWordBegin[node];
-			int numReported = 0;
-			for (int e = nodeChildFirst[node]; e >= 0; e = nodeChildNext[e]) {
-				if (matchWord(i, i + length, nodeChildNode[e], length,
-						maxErrors)) {
-					++numReported;
+		int[] tasks = getTasks(searched);
+		if (parallelism > 1) {
+			matchPositionsParallel(tasks, maxErrors);
+		} else {
+			CloneMatcher matcher = new CloneMatcher();
+			for (int task = 0; task < tasks.length; task += 2) {
+				for (CloneInfo clone : matcher.matchPositions(tasks[task],
+						tasks[task + 1], maxErrors)) {
+					cloneRegistry.register(clone);
 				}
 			}
-			if (length >= minLength && numReported != 1) {
-				reportClone(i, i + length, node, length, length);
-			}
 		}
 
         List<Integer> lengths = new ArrayList<Integer>();
@@ -202,34 +600,28 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
         };
         TreeSet<CloneInfo> tree = new TreeSet<CloneInfo>(comp);
 
-        List<CloneInfo> allClones = new ArrayList<CloneInfo>();
-		for (int index = 0; index <= word.size(); ++index) {
-			List<CloneInfo> existingClones = cloneInfos.getCollection(index);
-			if (existingClones != null) {
-				for (CloneInfo ci : existingClones) {
-                    // length = number of tokens
-                    // TODO: min token length
-                    if (ci.length > 25) {
-                        //allClones.add(ci);
-                        //lengths.add(ci.length);
-                        //tree.add(ci);
-                        CloneInfo previousCi = map.get(ci.token.line);
-                        if (previousCi == null) {
-                            map.put(ci.token.line, ci);
-                        } else if (ci.length > previousCi.length) {
-                            map.put(ci.token.line, ci);
-                        }
-                        //System.out.println("length = " + ci.length + ", occurrences = " + ci.occurrences);
-                        //System.out.println("line = " + ci.token.line);
-                        List<Integer> others = ci.otherClones.extractFirstList();
-                        for (int j = 0; j < others.size(); j++) {
-                            int otherStart = others.get(j);
-                            PhpToken t = (PhpToken) word.get(otherStart);
-                            //System.out.println("\tother clone start = " + t.line);
-                        }
-                    }
-				}
-			}
+        // only the clones as registered, as each instance has its own start
+        // and length
+        List<CloneInfo> allClones = new ArrayList<CloneInfo>(
+                cloneRegistry.getClones());
+        Collections.sort(allClones, (a, b) -> a.position != b.position
+                ? a.position - b.position : b.length - a.length);
+		for (CloneInfo ci : allClones) {
+            // length = number of tokens
+            // TODO: min token length
+            if (ci.length > 25) {
+                //allClones.add(ci);
+                //lengths.add(ci.length);
+                //tree.add(ci);
+                CloneInfo previousCi = map.get(ci.token.line);
+                if (previousCi == null) {
+                    map.put(ci.token.line, ci);
+                } else if (ci.length > previousCi.length) {
+                    map.put(ci.token.line, ci);
+                }
+                //System.out.println("length = " + ci.length + ", occurrences = " + ci.occurrences);
+                //System.out.println("line = " + ci.token.line);
+            }
 		}
 
         //if (allClones == null) {
@@ -267,30 +659,26 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
             //CloneInfo ci = (CloneInfo) entry.getValue();
             //CloneInfo ci = (CloneInfo) map.get(keys.get(i));
             CloneInfo ci = (CloneInfo) itr.next();
-            try {
-                PhpToken lastToken = (PhpToken) word.get(ci.position + ci.length);
-                int lines = lastToken.line - ci.token.line;
-                System.out.printf(
-                    "  - %s:%d-%d (%d lines)\n",
-                    ci.token.file,
-                    ci.token.line,
-                    ci.token.line + lines - 1,
-                    lines
-                );
-            } catch(IndexOutOfBoundsException e) {
-                System.out.printf("index out of bounds, ci.position = %d, ci.length = %d", ci.position, ci.length);
-            }
-            List<Integer> others = ci.otherClones.extractFirstList();
-            for (int j = 0; j < others.size(); j++) {
-                int otherStart = others.get(j);
+            PhpToken lastToken = (PhpToken) word.get(ci.position + ci.length - 1);
+            int lines = lastToken.line - ci.token.line + 1;
+            System.out.printf(
+                "  - %s:%d-%d (%d lines)\n",
+                ci.token.file,
+                ci.token.line,
+                ci.token.line + lines - 1,
+                lines
+            );
+            for (int j = 0; j < ci.otherClones.size(); j++) {
+                int otherStart = ci.otherClones.getFirst(j);
+                int otherLength = ci.otherClones.getSecond(j);
                 PhpToken t = (PhpToken) word.get(otherStart);
-                PhpToken lastToken = (PhpToken) word.get(ci.position + ci.length);
-                int lines = lastToken.line - ci.token.line;
+                PhpToken otherLastToken = (PhpToken) word.get(otherStart
+                        + otherLength - 1);
                 System.out.printf(
                         "    %s:%d-%d\n",
                         t.file,
                         t.line,
-                        t.line + lines - 1
+                        otherLastToken.line
                 );
             }
             System.out.println("");
@@ -298,293 +686,227 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	}
 
 	/**
-	 * Performs the approximative matching between the input word and the tree.
-	 * 
-	 * @param wordStart
-	 *            the start position of the currently matched word (position in
-	 *            the input word).
-	 * @param wordPosition
-	 *            the current position along the input word.
-	 * @param node
-	 *            the node we are currently at (i.e. the edge leading to this
-	 *            node is relevant to us).
-	 * @param nodeWordLength
-	 *            the length of the word found along the nodes (this may be
-	 *            different from the length along the input word due to gaps).
-	 * @param maxErrors
-	 *            the number of errors still allowed.
-	 * @return whether some clone was reported
+	 * Returns the clones registered by the last search (see
+	 * {@link #findClones(int, int, int)}) in order of registration. These can
+	 * be passed to a later incremental search.
 	 */
-	private boolean matchWord(int wordStart, int wordPosition, int node,
-			int nodeWordLength, int maxErrors) throws ConQATException {
-
-		// We are aware that this method is longer than desirable for code
-		// reading. However, we currently do not see a refactoring that has a
-		// sensible cost-benefit ratio. Suggestions are welcome!
+	public List<CloneInfo> getRegisteredClones() {
+		return cloneRegistry.getClones();
+	}
 
-		// self match?
-		if (leafCount[node] == 1 && nodeWordBegin[node] == wordPosition) {
-			return false;
+	/**
+	 * Returns the changed regions as sorted and merged ranges of positions
+	 * (start inclusive, end exclusive) within the word, or null if all
+	 * positions have to be searched.
+	 */
+	private int[] getChangedPositions(List<SimpleRegion> changedRegions) {
+		if (changedRegions == null) {
+			return null;
 		}
-
-		int currentNodeWordLength = Math.min(nodeWordEnd[node]
-				- nodeWordBegin[node], MAX_LENGTH - 1);
-		// do min edit distance
-		int currentLength = calculateMaxLength(wordStart, wordPosition, node,
-				maxErrors, currentNodeWordLength);
-
-		if (currentLength == 0) {
-			return false;
+		List<SimpleRegion> regions = new ArrayList<SimpleRegion>(
+				changedRegions);
+		Collections.sort(regions);
+		int[] result = new int[2 * regions.size()];
+		int size = 0;
+		for (SimpleRegion region : regions) {
+			int start = Math.max(0, region.getStart());
+			int end = Math.min(word.size(), region.getEnd() + 1);
+			if (start >= end) {
+				continue;
+			}
+			if (size > 0 && start <= result[size - 1]) {
+				result[size - 1] = Math.max(result[size - 1], end);
+			} else {
+				result[size++] = start;
+				result[size++] = end;
+			}
 		}
+		return Arrays.copyOf(result, size);
+	}
 
-		if (currentLength >= MAX_LENGTH - 1) {
-			reportBufferShortage(nodeWordBegin[node], currentNodeWordLength);
+	/**
+	 * Adds the start positions of all instances of the given clone as regions
+	 * to be searched again, so clones are still found if only their other
+	 * instances changed.
+	 */
+	private static void addInstanceStarts(CloneInfo clone,
+			List<SimpleRegion> regions) {
+		regions.add(new SimpleRegion(clone.position, clone.position));
+		for (int i = 0; i < clone.otherClones.size(); ++i) {
+			int start = clone.otherClones.getFirst(i);
+			regions.add(new SimpleRegion(start, start));
 		}
+	}
 
-		// calculate cheapest match
-		int best = maxErrors + 42;
-		int iBest = 0;
-		int jBest = 0;
-		for (int k = 0; k <= currentLength; ++k) {
-			int i = currentLength - k;
-			int j = currentLength;
-			if (edBuffer[i][j] < best) {
-				best = edBuffer[i][j];
-				iBest = i;
-				jBest = j;
-			}
-
-			i = currentLength;
-			j = currentLength - k;
-			if (edBuffer[i][j] < best) {
-				best = edBuffer[i][j];
-				iBest = i;
-				jBest = j;
+	/**
+	 * Splits the given ranges of positions (or the whole word, if these are
+	 * null) into tasks of at most {@link #POSITIONS_PER_TASK} positions. The
+	 * result holds the start and end of each task.
+	 */
+	private int[] getTasks(int[] positions) {
+		if (positions == null) {
+			positions = new int[] { 0, word.size() };
+		}
+		int numTasks = 0;
+		for (int i = 0; i < positions.length; i += 2) {
+			numTasks += (positions[i + 1] - positions[i]
+					+ POSITIONS_PER_TASK - 1) / POSITIONS_PER_TASK;
+		}
+		int[] tasks = new int[2 * numTasks];
+		int size = 0;
+		for (int i = 0; i < positions.length; i += 2) {
+			int end = positions[i + 1];
+			for (int start = positions[i]; start < end; start += POSITIONS_PER_TASK) {
+				tasks[size++] = start;
+				tasks[size++] = Math.min(end, start + POSITIONS_PER_TASK);
 			}
 		}
+		return tasks;
+	}
 
-		while (wordPosition + iBest < word.size()
-				&& jBest < currentNodeWordLength
-				&& word.get(wordPosition + iBest) != word
-						.get(nodeWordBegin[node] + jBest)
-				&& word.get(wordPosition + iBest).equals(
-						word.get(nodeWordBegin[node] + jBest))) {
-			++iBest;
-			++jBest;
+	/**
+	 * Returns whether a clone of an earlier search can be taken over, i.e.
+	 * none of its instances leaves the word, touches one of the changed
+	 * ranges (see {@link #getChangedPositions(List)}) or crosses a character
+	 * which may not match.
+	 */
+	private boolean isStillValid(CloneInfo clone, int[] changed) {
+		if (!isStillValid(clone.position, clone.length, changed)) {
+			return false;
 		}
-
-		int numReported = 0;
-		if (currentLength == currentNodeWordLength) {
-			// we may proceed
-			for (int e = nodeChildFirst[node]; e >= 0; e = nodeChildNext[e]) {
-				if (matchWord(wordStart, wordPosition + iBest,
-						nodeChildNode[e], nodeWordLength + jBest, maxErrors
-								- best)) {
-					++numReported;
-				}
+		for (int i = 0; i < clone.otherClones.size(); ++i) {
+			if (!isStillValid(clone.otherClones.getFirst(i),
+					clone.otherClones.getSecond(i), changed)) {
+				return false;
 			}
 		}
+		return true;
+	}
 
-		// do not report locally if had reports in exactly one subtree (would be
-		// pure subclone)
-		if (numReported == 1) {
-			return true;
+	/**
+	 * Returns whether the instance of a clone at the given position can be
+	 * taken over (see {@link #isStillValid(CloneInfo, int[])}).
+	 */
+	private boolean isStillValid(int position, int length, int[] changed) {
+		if (position < 0 || position + length > word.size()
+				|| distanceToUnmatchable(position) < length) {
+			return false;
 		}
-
-		// disallow tail changes
-		while (iBest > 0
-				&& jBest > 0
-				&& !word.get(wordPosition + iBest - 1).equals(
-						word.get(nodeWordBegin[node] + jBest - 1))) {
-
-			if (iBest > 1
-					&& word.get(wordPosition + iBest - 2).equals(
-							word.get(nodeWordBegin[node] + jBest - 1))) {
-				--iBest;
-			} else if (jBest > 1
-					&& word.get(wordPosition + iBest - 1).equals(
-							word.get(nodeWordBegin[node] + jBest - 2))) {
-				--jBest;
+		if (changed == null) {
+			// everything is searched again
+			return false;
+		}
+		// find the first range ending after the position
+		int low = 0;
+		int high = changed.length / 2;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (changed[2 * mid + 1] <= position) {
+				low = mid + 1;
 			} else {
-				--iBest;
-				--jBest;
+				high = mid;
 			}
 		}
-
-		// report if real clone
-		if (iBest > 0 && jBest > 0) {
-			numReported += 1;
-			reportClone(wordStart, wordPosition + iBest, node, jBest,
-					nodeWordLength + jBest);
-		}
-
-		return numReported > 0;
+		return low == changed.length / 2
+				|| changed[2 * low] >= position + length;
 	}
 
 	/**
-	 * Calculates the maximum length we may take along the word to the current
-	 * node (respecting the number of errors to make). *
-	 * 
-	 * @param wordStart
-	 *            the start position of the currently matched word (position in
-	 *            the input word).
-	 * @param wordPosition
-	 *            the current position along the input word.
-	 * @param node
-	 *            the node we are currently at (i.e. the edge leading to this
-	 *            node is relevant to us).
-	 * @param maxErrors
-	 *            the number of errors still allowed.
-	 * @param currentNodeWordLength
-	 *            the length of the word found along the nodes (this may be
-	 *            different from the actual length due to buffer limits).
-	 * @return the maximal length that can be taken.
+	 * Matches the positions of the given tasks (see {@link #getTasks(int[])})
+	 * using a {@link ForkJoinPool} with {@link #parallelism} threads, each
+	 * using its own {@link CloneMatcher}. The clones found are registered in
+	 * order of the tasks, so the result is the same as for the sequential
+	 * search.
 	 */
-	private int calculateMaxLength(int wordStart, int wordPosition, int node,
-			int maxErrors, int currentNodeWordLength) {
-		edBuffer[0][0] = 0;
-		int currentLength = 1;
-		for (; currentLength <= currentNodeWordLength; ++currentLength) {
-			int best = currentLength;
-			edBuffer[0][currentLength] = currentLength;
-			edBuffer[currentLength][0] = currentLength;
-
-			if (wordPosition + currentLength >= word.size()) {
-				break;
-			}
-
-			// deal with case that character may not be matched (sentinel!)
-			Object iChar = word.get(wordPosition + currentLength - 1);
-			Object jChar = word.get(nodeWordBegin[node] + currentLength - 1);
-			if (mayNotMatch(iChar) || mayNotMatch(jChar)) {
-				break;
+	private void matchPositionsParallel(final int[] tasks, final int maxErrors)
+			throws ConQATException {
+		final ThreadLocal<CloneMatcher> matchers = new ThreadLocal<CloneMatcher>() {
+			@Override
+			protected CloneMatcher initialValue() {
+				return new CloneMatcher();
 			}
+		};
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			// limit the number of ranges in flight, as the clones found
+			// are kept until registered
+			Deque<Future<List<CloneInfo>>> futures = new ArrayDeque<Future<List<CloneInfo>>>();
+			int task = 0;
+			while (task < tasks.length || !futures.isEmpty()) {
+				while (task < tasks.length
+						&& futures.size() < MAX_TASKS_PER_THREAD * parallelism) {
+					final int rangeStart = tasks[task];
+					final int rangeEnd = tasks[task + 1];
+					futures.add(pool.submit(new Callable<List<CloneInfo>>() {
+						@Override
+						public List<CloneInfo> call() throws ConQATException {
+							return matchers.get().matchPositions(rangeStart,
+									rangeEnd, maxErrors);
+						}
+					}));
+					task += 2;
+				}
 
-			// usual matrix completion for edit distance
-			for (int k = 1; k < currentLength; ++k) {
-				best = Math.min(
-						best,
-						fillEDBuffer(k, currentLength, wordPosition,
-								nodeWordBegin[node]));
+				for (CloneInfo clone : futures.removeFirst().get()) {
+					cloneRegistry.register(clone);
+				}
 			}
-			for (int k = 1; k < currentLength; ++k) {
-				best = Math.min(
-						best,
-						fillEDBuffer(currentLength, k, wordPosition,
-								nodeWordBegin[node]));
-			}
-			best = Math.min(
-					best,
-					fillEDBuffer(currentLength, currentLength, wordPosition,
-							nodeWordBegin[node]));
-
-			if (best > maxErrors
-					|| wordPosition - wordStart + currentLength <= headEquality
-					&& best > 0) {
-				break;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConQATException("Interrupted while searching clones.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ConQATException) {
+				throw (ConQATException) e.getCause();
 			}
+			throw new ConQATException(e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
-		--currentLength;
-		return currentLength;
 	}
 
-	private void reportClone(int wordBegin, int wordEnd, int currentNode,
-			int nodeWordPos, int nodeWordLength) throws ConQATException {
-		int length = wordEnd - wordBegin;
-		if (length < minLength || nodeWordLength < minLength) {
+	/**
+	 * Initializes {@link #unmatchablePositions} if this did not happen yet.
+	 */
+	private void initUnmatchablePositions() {
+		if (unmatchablePositions != null) {
 			return;
 		}
 
-		PairList<Integer, Integer> otherClones = new PairList<Integer, Integer>();
-		findRemainingClones(otherClones, nodeWordLength, currentNode,
-				nodeWordEnd[currentNode] - nodeWordBegin[currentNode]
-				- nodeWordPos, wordBegin);
-
-		int occurrences = 1 + otherClones.size();
-
-		// check whether we may start from here
-        PhpToken t = (PhpToken) word.get(wordBegin);
-		CloneInfo newInfo = new CloneInfo(length, wordBegin, occurrences, t, otherClones);
-		for (int index = Math.max(0, wordBegin - INDEX_SPREAD + 1); index <= wordBegin; ++index) {
-			List<CloneInfo> existingClones = cloneInfos.getCollection(index);
-			if (existingClones != null) {
-				for (CloneInfo cloneInfo : existingClones) {
-					if (cloneInfo.dominates(newInfo, wordBegin - index)) {
-						// we already have a dominating clone, so ignore
-						return;
-					}
+		int count = 0;
+		int[] positions = new int[16];
+		for (int i = 0; i < word.size(); ++i) {
+			if (mayNotMatch(word.get(i))) {
+				if (count == positions.length) {
+					positions = Arrays.copyOf(positions, 2 * count);
 				}
+				positions[count++] = i;
 			}
 		}
-
-		// report clone
-		//consumer.startCloneClass(length);
-		//consumer.addClone(wordBegin, length);
-		//for (int i = wordBegin; i < length; i++) {
-			//System.out.print(word.get(i) + " ");
-		//}
-        //PhpToken t = (PhpToken) word.get(wordBegin);
-        //System.out.println("line = " + t.line + ", length = " + length);
-
-		for (int clone = 0; clone < otherClones.size(); ++clone) {
-			int start = otherClones.getFirst(clone);
-			int otherLength = otherClones.getSecond(clone);
-			//consumer.addClone(start, otherLength);
-		}
-
-		// is this clone actually relevant?
-		//if (!consumer.completeCloneClass()) {
-			//return;
-		//}
-
-		// add clone to otherClones to avoid getting more duplicates
-		for (int i = wordBegin; i < wordEnd; i += INDEX_SPREAD) {
-			cloneInfos.add(i, new CloneInfo(length - (i - wordBegin), wordBegin, occurrences, t, otherClones));
-		}
-        //PhpToken t = (PhpToken) word.get(wordBegin);
-        //System.out.print("line = " + t.line + ", length = " + length + "; ");
-		for (int clone = 0; clone < otherClones.size(); ++clone) {
-			int start = otherClones.getFirst(clone);
-			int otherLength = otherClones.getSecond(clone);
-            //PhpToken s = (PhpToken) word.get(start);
-            //System.out.print("start t.line = " + s.line + ", otherlength =  " + otherLength + " ");
-            for (int j = 0; j < otherLength; j++) {
-                PhpToken r = (PhpToken) word.get(j + start);
-                //System.out.print(r.content + " " );
-            }
-			for (int i = 0; i < otherLength; i += INDEX_SPREAD) {
-				cloneInfos.add(start + i, new CloneInfo(otherLength - i, wordBegin, occurrences, t, otherClones));
-			}
-		}
-        //System.out.println("");
+		unmatchablePositions = Arrays.copyOf(positions, count);
 	}
 
-
 	/**
-	 * Fills the edit distance buffer at position (i,j).
-	 * 
-	 * @param i
-	 *            the first index of the buffer.
-	 * @param j
-	 *            the second index of the buffer.
-	 * @param iOffset
-	 *            the offset where the word described by i starts.
-	 * @param jOffset
-	 *            the offset where the word described by j starts.
-	 * @return the value inserted into the buffer.
+	 * Returns the distance from the given position to the next character
+	 * which may not be matched (or the end of the word). Note that this
+	 * requires {@link #initUnmatchablePositions()} to be called before.
 	 */
-	private int fillEDBuffer(int i, int j, int iOffset, int jOffset) {
-		Object iChar = word.get(iOffset + i - 1);
-		Object jChar = word.get(jOffset + j - 1);
-
-		int insertDelete = 1 + Math.min(edBuffer[i - 1][j], edBuffer[i][j - 1]);
-		int change = edBuffer[i - 1][j - 1] + (iChar.equals(jChar) ? 0 : 1);
-		return edBuffer[i][j] = Math.min(insertDelete, change);
+	private int distanceToUnmatchable(int position) {
+		int index = Arrays.binarySearch(unmatchablePositions, position);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		if (index >= unmatchablePositions.length) {
+			return word.size() - position;
+		}
+		return unmatchablePositions[index] - position;
 	}
 
 	/**
 	 * Fills a list of pairs giving the start positions and lengths of the
-	 * remaining clones.
+	 * remaining clones. These are read from the range of leaves below the
+	 * current node (see {@link ISuffixIndex#getLeafFirst(long)}), so no
+	 * traversal is required.
 	 * 
 	 * @param clonePositions the clone positions being filled (start position and length)
 	 * @param nodeWordLength the length of the word along the nodes.
@@ -593,21 +915,28 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	 * @param wordStart the start of the currently searched word.
 	 */
 	private void findRemainingClones(PairList<Integer, Integer> clonePositions,
-			int nodeWordLength, int currentNode, int distance, int wordStart) {
-		for (int nextNode = nodeChildFirst[currentNode]; nextNode >= 0; nextNode = nodeChildNext[nextNode]) {
-			int node = nodeChildNode[nextNode];
-			findRemainingClones(clonePositions, nodeWordLength, node, distance
-					+ nodeWordEnd[node] - nodeWordBegin[node], wordStart);
-		}
-
-		if (nodeChildFirst[currentNode] < 0) {
-			int start = word.size() - distance - nodeWordLength;
+			int nodeWordLength, long currentNode, int distance, int wordStart) {
+		// The distance to a leaf is distance + depth(leaf) -
+		// depth(currentNode), which leads to the following offset relative
+		// to the start of the suffix of the leaf.
+		int offset = index.getDepth(currentNode) - distance - nodeWordLength;
+		int leafEnd = index.getLeafEnd(currentNode);
+		for (int leaf = index.getLeafFirst(currentNode); leaf < leafEnd; ++leaf) {
+			int start = index.getLeafSuffix(leaf) + offset;
 			if (start != wordStart) {
 				clonePositions.add(start, nodeWordLength);
 			}
 		}
 	}
 
+	/**
+	 * Returns the number of leaves reachable from the given node (1 for
+	 * leaves).
+	 */
+	private int getLeafCount(long node) {
+		return index.getLeafEnd(node) - index.getLeafFirst(node);
+	}
+
 	/**
 	 * This should return true, if the provided character is not allowed to
 	 * match with anything else (e.g. is a sentinel).
@@ -615,53 +944,568 @@ public abstract class ApproximateCloneDetectingSuffixTree extends SuffixTree {
 	protected abstract boolean mayNotMatch(Object character);
 
 	/**
-	 * This method is called whenever the {@link #MAX_LENGTH} is to small and
-	 * hence the {@link #edBuffer} was not large enough. This may cause that a
-	 * really large clone is reported in multiple chunks of size
-	 * {@link #MAX_LENGTH} and potentially minor parts of such a clone might be
-	 * lost.
+	 * Returns the length matched by the edit distance calculation of the
+	 * {@link CloneMatcher} for the words starting at the given positions,
+	 * using either the banded or the bit-parallel calculation (regardless of
+	 * the length). This is package visible for testing.
 	 */
-	@SuppressWarnings("unused")
-	protected void reportBufferShortage(int leafStart, int leafLength) {
-		// empty base implementation
+	/* package */int calculateMaxLength(int wordPosition, int nodePosition,
+			int maxErrors, int headEquality, int length, boolean bitParallel) {
+		this.headEquality = headEquality;
+		initUnmatchablePositions();
+		CloneMatcher matcher = new CloneMatcher();
+		if (bitParallel) {
+			return matcher.calculateMaxLengthBitParallel(wordPosition,
+					wordPosition, nodePosition, maxErrors, length);
+		}
+		return matcher.calculateMaxLengthBanded(wordPosition, wordPosition,
+				nodePosition, maxErrors, length);
 	}
 
-	/** Stores information on a clone. */
-	private static class CloneInfo {
+	/**
+	 * Matches words against the tree. This holds the buffers used for
+	 * calculating the edit distance, so each thread searching clones uses its
+	 * own matcher. The tree is only read while matching and the clones found
+	 * are returned to be registered by the caller.
+	 */
+	private class CloneMatcher {
+
+		/** The number of ints used per frame of the {@link #frames} stack. */
+		private static final int FRAME_SIZE = 6;
+
+		/** Offset of the position along the input word in a frame. */
+		private static final int FRAME_WORD_POSITION = 0;
+
+		/** Offset of the length of the word along the nodes in a frame. */
+		private static final int FRAME_NODE_WORD_LENGTH = 1;
+
+		/** Offset of the number of errors allowed for the children. */
+		private static final int FRAME_ERRORS = 2;
+
+		/** Offset of the length matched along the input word. */
+		private static final int FRAME_I_BEST = 3;
+
+		/** Offset of the length matched along the edge of the node. */
+		private static final int FRAME_J_BEST = 4;
+
+		/** Offset of the number of children that reported clones. */
+		private static final int FRAME_NUM_REPORTED = 5;
+
+		/**
+		 * Buffer used for calculating edit distance. Only the diagonal band of
+		 * the edit distance matrix is stored (see {@link #edIndex(int, int)}),
+		 * so the size is linear in the length of a clone. The buffer is grown as
+		 * needed, so there is no limit on the length of clones.
+		 */
+		private int[] edBuffer = new int[0];
+
+		/**
+		 * The number of cells stored per row of the {@link #edBuffer}. This
+		 * depends on the number of errors allowed in the last call to
+		 * {@link #calculateMaxLength(int, int, int, int, int)}.
+		 */
+		private int edBandWidth;
+
+		/**
+		 * The number of errors allowed in the last call to
+		 * {@link #calculateMaxLength(int, int, int, int, int)}, which determines
+		 * the band stored in the {@link #edBuffer}.
+		 */
+		private int edMaxErrors;
+
+		/**
+		 * Whether the last call to
+		 * {@link #calculateMaxLength(int, int, int, int, int)} used the
+		 * bit-parallel calculation.
+		 */
+		private boolean edBitParallel;
+
+		/**
+		 * Bit-parallel calculation of the edit distance, where the rows
+		 * correspond to the input word and the columns to the node word. This is
+		 * used for the cells (i,j) with i &lt;= j.
+		 */
+		private BitParallelEditDistance wordDistance;
+
+		/**
+		 * Bit-parallel calculation of the transposed edit distance matrix (the
+		 * rows correspond to the node word). This is used for the cells (i,j)
+		 * with i &gt; j.
+		 */
+		private BitParallelEditDistance nodeDistance;
+
+		/** The clones found, in the order in which they were reported. */
+		private List<CloneInfo> clones;
+
+		/**
+		 * The stack of frames used by
+		 * {@link #matchWord(int, int, long, int, int)}, each consisting of
+		 * {@link #FRAME_SIZE} ints. The node and the next child edge to descend
+		 * into (or -1) of each frame are stored in {@link #frameNodes} and
+		 * {@link #frameEdges}, as their handles are longs.
+		 */
+		private int[] frames = new int[16 * FRAME_SIZE];
+
+		/** The node of each frame on the {@link #frames} stack. */
+		private long[] frameNodes = new long[16];
+
+		/** The next child edge of each frame on the {@link #frames} stack. */
+		private long[] frameEdges = new long[16];
+
+		/** The number of frames on the stack. */
+		private int numFrames;
+
+		/**
+		 * Matches the words starting at the given range of positions against
+		 * the tree and returns the clones found.
+		 */
+		public List<CloneInfo> matchPositions(int start, int end, int maxErrors)
+				throws ConQATException {
+			clones = new ArrayList<CloneInfo>();
+			for (int i = start; i < end; ++i) {
+				// Do quick start, as first character has to match anyway.
+				long node = index.getRootChild(symbols[i]);
+				if (node < 0 || getLeafCount(node) <= 1) {
+					continue;
+				}
+
+				// we know that we have an exact match of at least 'length'
+				// characters, as the word itself is part of the suffix tree.
+				int length = index.getEdgeLength(node);
+				int numReported = 0;
+				for (long e = index.getFirstEdge(node); e >= 0; e = index
+						.getNextEdge(node, e)) {
+					if (matchWord(i, i + length, index.getEdgeTarget(e), length,
+							maxErrors)) {
+						++numReported;
+					}
+				}
+				if (length >= minLength && numReported != 1) {
+					reportClone(i, i + length, node, length, length);
+				}
+			}
+			return clones;
+		}
+
+		/**
+		 * Performs the approximative matching between the input word and the tree.
+		 * This descends the tree using an explicit stack of frames (see
+		 * {@link #frames}) instead of recursion, as the depth of the tree may
+		 * come close to the length of the word for repetitive input.
+		 * 
+		 * @param wordStart
+		 *            the start position of the currently matched word (position in
+		 *            the input word).
+		 * @param wordPosition
+		 *            the current position along the input word.
+		 * @param node
+		 *            the node we are currently at (i.e. the edge leading to this
+		 *            node is relevant to us).
+		 * @param nodeWordLength
+		 *            the length of the word found along the nodes (this may be
+		 *            different from the length along the input word due to gaps).
+		 * @param maxErrors
+		 *            the number of errors still allowed.
+		 * @return whether some clone was reported
+		 */
+		private boolean matchWord(int wordStart, int wordPosition, long node,
+				int nodeWordLength, int maxErrors) throws ConQATException {
+			numFrames = 0;
+			if (!pushFrame(wordStart, wordPosition, node, nodeWordLength,
+					maxErrors)) {
+				return false;
+			}
+
+			while (true) {
+				int top = numFrames - 1;
+				int frame = top * FRAME_SIZE;
+				long edge = frameEdges[top];
+				if (edge >= 0) {
+					// descend into the next child
+					frameEdges[top] = index.getNextEdge(frameNodes[top], edge);
+					pushFrame(wordStart, frames[frame + FRAME_WORD_POSITION]
+							+ frames[frame + FRAME_I_BEST],
+							index.getEdgeTarget(edge),
+							frames[frame + FRAME_NODE_WORD_LENGTH]
+									+ frames[frame + FRAME_J_BEST],
+							frames[frame + FRAME_ERRORS]);
+					continue;
+				}
+
+				boolean reported = finishFrame(wordStart, top);
+				if (--numFrames == 0) {
+					return reported;
+				}
+				if (reported) {
+					++frames[(numFrames - 1) * FRAME_SIZE + FRAME_NUM_REPORTED];
+				}
+			}
+		}
+
+		/**
+		 * Starts matching the given node, which corresponds to the part of
+		 * {@link #matchWord(int, int, long, int, int)} before descending into
+		 * the children.
+		 * 
+		 * @return whether a frame was pushed. Otherwise nothing was matched
+		 *         and no clone was reported.
+		 */
+		private boolean pushFrame(int wordStart, int wordPosition, long node,
+				int nodeWordLength, int maxErrors) {
+
+			// We are aware that this method is longer than desirable for code
+			// reading. However, we currently do not see a refactoring that has a
+			// sensible cost-benefit ratio. Suggestions are welcome!
+
+			// self match?
+			int nodePosition = index.getEdgeBegin(node);
+			if (getLeafCount(node) == 1 && nodePosition == wordPosition) {
+				return false;
+			}
+
+			int currentNodeWordLength = index.getEdgeLength(node);
+			// do min edit distance
+			int currentLength = calculateMaxLength(wordStart, wordPosition,
+					nodePosition, maxErrors, currentNodeWordLength);
+
+			if (currentLength == 0) {
+				return false;
+			}
+
+			// calculate cheapest match
+			int best = maxErrors + 42;
+			int iBest = 0;
+			int jBest = 0;
+			// only cells within the band used by calculateMaxLength are valid
+			for (int k = 0; k <= Math.min(currentLength, maxErrors); ++k) {
+				int i = currentLength - k;
+				int j = currentLength;
+				if (getEditDistance(i, j) < best) {
+					best = getEditDistance(i, j);
+					iBest = i;
+					jBest = j;
+				}
+
+				i = currentLength;
+				j = currentLength - k;
+				if (getEditDistance(i, j) < best) {
+					best = getEditDistance(i, j);
+					iBest = i;
+					jBest = j;
+				}
+			}
+
+			while (wordPosition + iBest < word.size()
+					&& jBest < currentNodeWordLength
+					&& wordPosition + iBest != nodePosition + jBest
+					&& symbols[wordPosition + iBest] == symbols[nodePosition
+							+ jBest]) {
+				++iBest;
+				++jBest;
+			}
+
+			if ((numFrames + 1) * FRAME_SIZE > frames.length) {
+				frames = Arrays.copyOf(frames, 2 * frames.length);
+				frameNodes = Arrays.copyOf(frameNodes, 2 * frameNodes.length);
+				frameEdges = Arrays.copyOf(frameEdges, 2 * frameEdges.length);
+			}
+			frameNodes[numFrames] = node;
+			int frame = numFrames++ * FRAME_SIZE;
+			frames[frame + FRAME_WORD_POSITION] = wordPosition;
+			frames[frame + FRAME_NODE_WORD_LENGTH] = nodeWordLength;
+			frames[frame + FRAME_ERRORS] = maxErrors - best;
+			frames[frame + FRAME_I_BEST] = iBest;
+			frames[frame + FRAME_J_BEST] = jBest;
+			frames[frame + FRAME_NUM_REPORTED] = 0;
+
+			// we may only proceed to the children if the edge was matched
+			// completely
+			frameEdges[numFrames - 1] = -1;
+			if (currentLength == currentNodeWordLength) {
+				frameEdges[numFrames - 1] = index.getFirstEdge(node);
+			}
+			return true;
+		}
+
+		/**
+		 * Completes matching of the node of the given frame after all
+		 * children have been matched, which corresponds to the part of
+		 * {@link #matchWord(int, int, long, int, int)} after descending into
+		 * the children.
+		 * 
+		 * @return whether some clone was reported
+		 */
+		private boolean finishFrame(int wordStart, int top)
+				throws ConQATException {
+			int frame = top * FRAME_SIZE;
+			long node = frameNodes[top];
+			int nodePosition = index.getEdgeBegin(node);
+			int wordPosition = frames[frame + FRAME_WORD_POSITION];
+			int nodeWordLength = frames[frame + FRAME_NODE_WORD_LENGTH];
+			int iBest = frames[frame + FRAME_I_BEST];
+			int jBest = frames[frame + FRAME_J_BEST];
+			int numReported = frames[frame + FRAME_NUM_REPORTED];
+
+			// do not report locally if had reports in exactly one subtree (would be
+			// pure subclone)
+			if (numReported == 1) {
+				return true;
+			}
+
+			// disallow tail changes
+			while (iBest > 0
+					&& jBest > 0
+					&& symbols[wordPosition + iBest - 1] != symbols[nodePosition
+							+ jBest - 1]) {
+
+				if (iBest > 1
+						&& symbols[wordPosition + iBest - 2] == symbols[nodePosition
+								+ jBest - 1]) {
+					--iBest;
+				} else if (jBest > 1
+						&& symbols[wordPosition + iBest - 1] == symbols[nodePosition
+								+ jBest - 2]) {
+					--jBest;
+				} else {
+					--iBest;
+					--jBest;
+				}
+			}
+
+			// report if real clone
+			if (iBest > 0 && jBest > 0) {
+				numReported += 1;
+				reportClone(wordStart, wordPosition + iBest, node, jBest,
+						nodeWordLength + jBest);
+			}
+
+			return numReported > 0;
+		}
+
+		/**
+		 * Calculates the maximum length we may take along the word to the current
+		 * node (respecting the number of errors to make). *
+		 * 
+		 * @param wordStart
+		 *            the start position of the currently matched word (position in
+		 *            the input word).
+		 * @param wordPosition
+		 *            the current position along the input word.
+		 * @param nodePosition
+		 *            the start of the word along the edge leading to the node
+		 *            we are currently at.
+		 * @param maxErrors
+		 *            the number of errors still allowed.
+		 * @param currentNodeWordLength
+		 *            the length of the word found along the nodes.
+		 * @return the maximal length that can be taken.
+		 */
+		private int calculateMaxLength(int wordStart, int wordPosition,
+				int nodePosition, int maxErrors, int currentNodeWordLength) {
+			// we may neither pass the end of the word nor characters which may
+			// not be matched (sentinel!), so limit the length up front
+			int maxLength = Math.min(currentNodeWordLength, word.size()
+					- wordPosition - 1);
+			maxLength = Math.min(maxLength, distanceToUnmatchable(wordPosition));
+			maxLength = Math.min(maxLength,
+					distanceToUnmatchable(nodePosition));
+
+			if (bitParallelMatching && maxLength >= BIT_PARALLEL_MIN_LENGTH) {
+				return calculateMaxLengthBitParallel(wordStart, wordPosition,
+						nodePosition, maxErrors, maxLength);
+			}
+			return calculateMaxLengthBanded(wordStart, wordPosition,
+					nodePosition, maxErrors, maxLength);
+		}
+
+		/**
+		 * Variant of {@link #calculateMaxLength(int, int, int, int, int)},
+		 * which fills the diagonal band of the {@link #edBuffer}.
+		 * 
+		 * @param maxLength
+		 *            the maximal length that may be taken.
+		 */
+		private int calculateMaxLengthBanded(int wordStart, int wordPosition,
+				int nodePosition, int maxErrors, int maxLength) {
+			edBitParallel = false;
+
+			// The edit distance of cell (i,j) is at least |i-j|, so only the
+			// diagonal band of cells with |i-j| <= maxErrors has to be filled.
+			// The cells just outside of the band are read by the band cells and
+			// get a value exceeding any error budget.
+			edMaxErrors = maxErrors;
+			edBandWidth = 2 * maxErrors + 3;
+
+			ensureEDBufferRows(1);
+			edBuffer[edIndex(0, 0)] = 0;
+			int currentLength = 1;
+			for (; currentLength <= maxLength; ++currentLength) {
+				ensureEDBufferRows(currentLength + 1);
+				int best = currentLength;
+				if (currentLength <= maxErrors + 1) {
+					edBuffer[edIndex(0, currentLength)] = currentLength;
+					edBuffer[edIndex(currentLength, 0)] = currentLength;
+				}
 
-		/** Length of the clone in tokens. */
-		private final int length;
+				int bandStart = Math.max(1, currentLength - maxErrors);
+				if (bandStart > 1) {
+					edBuffer[edIndex(bandStart - 1, currentLength)] = OUTSIDE_BAND;
+					edBuffer[edIndex(currentLength, bandStart - 1)] = OUTSIDE_BAND;
+				}
 
-        /** Position in word list */
-        public final int position;
+				// usual matrix completion for edit distance
+				for (int k = bandStart; k < currentLength; ++k) {
+					best = Math.min(
+							best,
+							fillEDBuffer(k, currentLength, wordPosition,
+									nodePosition));
+				}
+				for (int k = bandStart; k < currentLength; ++k) {
+					best = Math.min(
+							best,
+							fillEDBuffer(currentLength, k, wordPosition,
+									nodePosition));
+				}
+				best = Math.min(
+						best,
+						fillEDBuffer(currentLength, currentLength, wordPosition,
+								nodePosition));
+
+				if (best > maxErrors
+						|| wordPosition - wordStart + currentLength <= headEquality
+						&& best > 0) {
+					break;
+				}
+			}
+			--currentLength;
+			return currentLength;
+		}
+
+		/**
+		 * Bit-parallel variant of
+		 * {@link #calculateMaxLength(int, int, int, int, int)}, which calculates
+		 * the edit distance matrix column by column. As the cells (i,j) with
+		 * <code>max(i,j) = currentLength</code> are one column in each of the
+		 * {@link #wordDistance} and the {@link #nodeDistance}, both are advanced
+		 * in parallel.
+		 * 
+		 * @param nodePosition
+		 *            the start of the node word.
+		 * @param maxLength
+		 *            the maximal length that may be taken.
+		 */
+		private int calculateMaxLengthBitParallel(int wordStart,
+				int wordPosition, int nodePosition, int maxErrors, int maxLength) {
+			edBitParallel = true;
+			if (wordDistance == null) {
+				wordDistance = new BitParallelEditDistance(symbols);
+				nodeDistance = new BitParallelEditDistance(symbols);
+			}
+			wordDistance.init(wordPosition, nodePosition, maxLength, maxErrors);
+			nodeDistance.init(nodePosition, wordPosition, maxLength, maxErrors);
+
+			int currentLength = 1;
+			for (; currentLength <= maxLength; ++currentLength) {
+				wordDistance.advance();
+				nodeDistance.advance();
+
+				// Only the diagonal may have a value of 0. As it usually is
+				// within the error budget, the minimum of the other cells is
+				// only required if it is not.
+				int diagonal = wordDistance.get(currentLength, currentLength);
+				if (wordPosition - wordStart + currentLength <= headEquality) {
+					if (diagonal > 0) {
+						break;
+					}
+				} else if (diagonal > maxErrors
+						&& wordDistance.getColumnMinimum(currentLength) > maxErrors
+						&& nodeDistance.getColumnMinimum(currentLength) > maxErrors) {
+					break;
+				}
+			}
+			--currentLength;
+			return currentLength;
+		}
 
-		/** Number of occurrences of the clone. */
-		private final int occurrences;
+		/**
+		 * Returns the edit distance of cell (i,j) as calculated by the last call
+		 * to {@link #calculateMaxLength(int, int, int, int, int)}. This is only
+		 * valid for cells within the band with <code>max(i,j)</code> being the
+		 * length returned.
+		 */
+		private int getEditDistance(int i, int j) {
+			if (!edBitParallel) {
+				return edBuffer[edIndex(i, j)];
+			}
+			if (i <= j) {
+				return wordDistance.get(i, j);
+			}
+			return nodeDistance.get(j, i);
+		}
 
-        public final PhpToken token;
+		/**
+		 * Collects the clone found in {@link #clones}, including the other
+		 * instances found in the subtree of the node.
+		 */
+		private void reportClone(int wordBegin, int wordEnd, long currentNode,
+				int nodeWordPos, int nodeWordLength) throws ConQATException {
+			int length = wordEnd - wordBegin;
+			if (length < minLength || nodeWordLength < minLength) {
+				return;
+			}
 
-        /** Related clones */
-        public final PairList<Integer, Integer> otherClones;
+			PairList<Integer, Integer> otherClones = new PairList<Integer, Integer>();
+			findRemainingClones(otherClones, nodeWordLength, currentNode,
+					index.getEdgeLength(currentNode) - nodeWordPos, wordBegin);
 
-		/** Constructor. */
-		public CloneInfo(int length, int position, int occurrences, PhpToken token, PairList<Integer, Integer> otherClones) {
-			this.length = length;
-			this.position = position;
-			this.occurrences = occurrences;
-            this.token = token;
-            this.otherClones = otherClones;
+			int occurrences = 1 + otherClones.size();
+			PhpToken t = (PhpToken) word.get(wordBegin);
+			clones.add(new CloneInfo(length, wordBegin, occurrences, t, otherClones));
 		}
 
 		/**
-		 * Returns whether this clone info dominates the given one, i.e. whether
-		 * both {@link #length} and {@link #occurrences} s not smaller.
+		 * Fills the edit distance buffer at position (i,j).
 		 * 
-		 * @param later
-		 *            The amount the given clone starts later than the "this"
-		 *            clone.
+		 * @param i
+		 *            the first index of the buffer.
+		 * @param j
+		 *            the second index of the buffer.
+		 * @param iOffset
+		 *            the offset where the word described by i starts.
+		 * @param jOffset
+		 *            the offset where the word described by j starts.
+		 * @return the value inserted into the buffer.
+		 */
+		private int fillEDBuffer(int i, int j, int iOffset, int jOffset) {
+			int index = edIndex(i, j);
+			// the cells (i-1,j), (i,j-1) and (i-1,j-1) relative to index
+			int insertDelete = 1 + Math.min(edBuffer[index - edBandWidth + 1],
+					edBuffer[index - 1]);
+			int change = edBuffer[index - edBandWidth]
+					+ (symbols[iOffset + i - 1] == symbols[jOffset + j - 1] ? 0 : 1);
+			return edBuffer[index] = Math.min(insertDelete, change);
+		}
+
+		/**
+		 * Returns the index of cell (i,j) of the edit distance matrix in the
+		 * {@link #edBuffer}. Each row i stores the cells with
+		 * <code>|i-j| &lt;= edMaxErrors + 1</code>, i.e. the band plus the cells
+		 * adjacent to it.
 		 */
-		public boolean dominates(CloneInfo ci, int later) {
-			return length - later >= ci.length && occurrences >= ci.occurrences;
+		private int edIndex(int i, int j) {
+			return i * edBandWidth + j - i + edMaxErrors + 1;
+		}
+
+		/**
+		 * Makes sure the {@link #edBuffer} can hold the given number of rows for
+		 * the current band width.
+		 */
+		private void ensureEDBufferRows(int rows) {
+			int size = rows * edBandWidth;
+			if (size > edBuffer.length) {
+				edBuffer = Arrays.copyOf(edBuffer, Math.max(size,
+						2 * edBuffer.length));
+			}
 		}
 	}
 
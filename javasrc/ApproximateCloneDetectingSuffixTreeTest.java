@@ -0,0 +1,169 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for the {@link ApproximateCloneDetectingSuffixTree}. Run the main
+ * method; a failed check throws an {@link AssertionError}.
+ */
+class ApproximateCloneDetectingSuffixTreeTest {
+
+	/** Pattern of a printed clone instance (file, first and last line). */
+	private static final Pattern INSTANCE = Pattern
+			.compile("^ +(?:- )?(\\S+):(\\d+)-(\\d+)");
+
+	public static void main(String[] args) throws ConQATException {
+		for (int seed = 0; seed < 50; ++seed) {
+			List<List<PhpToken>> files = createFiles(new Random(seed));
+			checkReportedRanges(files);
+			Collections.shuffle(files, new Random(-seed));
+			checkReportedRanges(files);
+		}
+		for (int seed = 0; seed < 3; ++seed) {
+			checkParallelSearch(new Random(seed));
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Creates random files (with 1 to 3 tokens per line), which share longer
+	 * stretches of tokens with small changes, so they contain approximate
+	 * clones of different lengths.
+	 */
+	private static List<List<PhpToken>> createFiles(Random random) {
+		int[] template = new int[400];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(30);
+		}
+		List<List<PhpToken>> files = new ArrayList<List<PhpToken>>();
+		int numFiles = 2 + random.nextInt(10);
+		for (int f = 0; f < numFiles; ++f) {
+			List<PhpToken> tokens = new ArrayList<PhpToken>();
+			int offset = random.nextInt(template.length);
+			int length = 20 + random.nextInt(150);
+			int line = 1;
+			for (int i = 0; i < length; ++i) {
+				int content = template[(offset + i) % template.length];
+				if (random.nextInt(20) == 0) {
+					content = random.nextInt(30);
+				}
+				tokens.add(new PhpToken(0, "T", line, "f" + f + ".php", "t"
+						+ content));
+				if (random.nextInt(3) == 0) {
+					++line;
+				}
+			}
+			files.add(tokens);
+		}
+		return files;
+	}
+
+	/**
+	 * Searches the clones of the given files and checks that each printed
+	 * instance lies within its file and does not end before it starts.
+	 */
+	private static void checkReportedRanges(List<List<PhpToken>> files)
+			throws ConQATException {
+		PhpTokenWord word = new PhpTokenWord();
+		Map<String, Integer> lastLines = new HashMap<String, Integer>();
+		for (List<PhpToken> file : files) {
+			for (PhpToken token : file) {
+				word.add(token);
+			}
+			word.addSentinel();
+			PhpToken last = file.get(file.size() - 1);
+			lastLines.put(last.file, last.line);
+		}
+		List<PhpToken> tokens = word.getTokens();
+		int[] symbols = word.getSymbols();
+		ApproximateCloneDetectingSuffixTree tree = new ApproximateCloneDetectingSuffixTree(
+				tokens, symbols, new CloneDetectingSuffixTree(tokens, symbols)) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return character instanceof Sentinel;
+			}
+		};
+		tree.setParallelism(1);
+
+		PrintStream out = System.out;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(buffer));
+		try {
+			tree.findClones(10, 10, 10);
+		} finally {
+			System.setOut(out);
+		}
+
+		for (String line : buffer.toString().split("\n")) {
+			Matcher matcher = INSTANCE.matcher(line);
+			if (!matcher.find()) {
+				continue;
+			}
+			Integer lastLine = lastLines.get(matcher.group(1));
+			int start = Integer.parseInt(matcher.group(2));
+			int end = Integer.parseInt(matcher.group(3));
+			if (lastLine == null || start < 1 || end < start
+					|| end > lastLine) {
+				throw new AssertionError("Invalid clone instance: " + line);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the search with several threads registers the same clones
+	 * as the sequential search, both on the suffix tree and the suffix array.
+	 * The word is long enough for more tasks than are kept in flight.
+	 */
+	private static void checkParallelSearch(Random random)
+			throws ConQATException {
+		int[] symbols = CloneDetectingSuffixArrayTest.createApproximateWord(
+				random, 6000);
+		List<PhpToken> tokens = CloneDetectingSuffixArrayTest
+				.createTokens(symbols);
+		ISuffixIndex[] indexes = { new CloneDetectingSuffixTree(tokens, symbols),
+				new CloneDetectingSuffixArray(symbols) };
+		String expected = null;
+		for (ISuffixIndex index : indexes) {
+			for (int parallelism : new int[] { 1, 4 }) {
+				String clones = CloneDetectingSuffixArrayTest
+						.findApproximateClones(tokens, symbols, index,
+								parallelism);
+				if (expected == null) {
+					expected = clones;
+				} else if (!expected.equals(clones)) {
+					throw new AssertionError("Different clones using "
+							+ index.getClass().getSimpleName() + " and "
+							+ parallelism + " threads");
+				}
+			}
+		}
+		if (expected.isEmpty()) {
+			throw new AssertionError("Expected approximate clones");
+		}
+	}
+}
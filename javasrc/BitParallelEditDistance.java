@@ -0,0 +1,390 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+/**
+ * Bit-parallel calculation of the edit distance matrix between two
+ * substrings of a word of interned symbols, based on Myers' algorithm (G.
+ * Myers: "A fast bit-vector algorithm for approximate string matching based on
+ * dynamic programming") in the block-based formulation for global alignment.
+ * <p>
+ * The rows of the matrix correspond to the pattern (starting at the pattern
+ * offset) and the columns to the text. The matrix is calculated column by
+ * column, where each column is stored as vertical deltas in blocks of 64 rows,
+ * so a single word operation processes 64 cells. The match masks of the
+ * pattern symbols are precomputed per block.
+ * <p>
+ * As for the band used by {@link ApproximateCloneDetectingSuffixTree}, only
+ * cells (i,j) with <code>|i-j| &lt;= maxErrors</code> are of interest. Blocks
+ * are only calculated while they intersect this band. Cells outside of the
+ * band may hold wrong values, but these are always larger than
+ * <code>maxErrors</code>, while all cells of the band with a value up to
+ * <code>maxErrors</code> are exact.
+ */
+/* package */class BitParallelEditDistance {
+
+	/** The value returned for cells outside of the band. */
+	public static final int OUTSIDE_BAND = Integer.MAX_VALUE / 2;
+
+	/** The number of rows stored in a block. */
+	private static final int BLOCK_SIZE = 64;
+
+	/** The size of the hash table holding the match masks of each block. */
+	private static final int EQ_TABLE_SIZE = 2 * BLOCK_SIZE;
+
+	/** The number of columns kept for {@link #get(int, int)}. */
+	private static final int HISTORY_SIZE = 2;
+
+	/** The symbols of the word. */
+	private final int[] symbols;
+
+	/** Start of the pattern in {@link #symbols}. */
+	private int patternOffset;
+
+	/** Start of the text in {@link #symbols}. */
+	private int textOffset;
+
+	/** The length of the pattern (and the maximal number of columns). */
+	private int patternLength;
+
+	/** The number of errors allowed, which determines the band. */
+	private int maxErrors;
+
+	/** The maximal number of blocks intersecting the band in any column. */
+	private int windowSize;
+
+	/** The number of columns calculated so far. */
+	private int column;
+
+	/** The first block calculated in the current column. */
+	private int firstBlock;
+
+	/** The last block calculated in the current column. */
+	private int lastBlock;
+
+	/**
+	 * The value of the row above the {@link #firstBlock} in the current
+	 * column. For row 0 this is the column index; for rows above the band this
+	 * is continued by incrementing it (which is larger than the actual value
+	 * but still exceeds <code>maxErrors</code>).
+	 */
+	private int topScore;
+
+	/**
+	 * The positive vertical deltas of each block (bit r of block b
+	 * corresponds to row 64b+r+1). Blocks are stored at index b modulo
+	 * {@link #windowSize}.
+	 */
+	private long[] positiveDeltas = new long[0];
+
+	/** The negative vertical deltas of each block. */
+	private long[] negativeDeltas = new long[0];
+
+	/** The value of the last row of each block. */
+	private int[] bottomScores = new int[0];
+
+	/**
+	 * The keys of the match mask hash tables, each block using
+	 * {@link #EQ_TABLE_SIZE} entries.
+	 */
+	private int[] eqSymbols = new int[0];
+
+	/** The match masks, i.e. the rows of the block holding the symbol. */
+	private long[] eqMasks = new long[0];
+
+	/**
+	 * The activation of the block an entry of the match mask hash tables
+	 * belongs to. Entries of earlier activations are unused, so the tables
+	 * never have to be cleared.
+	 */
+	private int[] eqActivations = new int[0];
+
+	/** The number of rows added to the match masks. */
+	private int numMatchMaskRows;
+
+	/** The number of the current activation of each block. */
+	private int[] activations = new int[0];
+
+	/** The number of blocks activated so far. */
+	private int numActivations = 0;
+
+	/** The first block stored for each column of the history. */
+	private final int[] historyFirstBlock = new int[HISTORY_SIZE];
+
+	/** The number of blocks stored for each column of the history. */
+	private final int[] historyNumBlocks = new int[HISTORY_SIZE];
+
+	/** The positive vertical deltas stored in the history. */
+	private long[] historyPositiveDeltas = new long[0];
+
+	/** The negative vertical deltas stored in the history. */
+	private long[] historyNegativeDeltas = new long[0];
+
+	/** The value of the row above each block stored in the history. */
+	private int[] historyTopScores = new int[0];
+
+	/** Constructor. */
+	public BitParallelEditDistance(int[] symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Starts a new calculation, where only column 0 is known.
+	 * 
+	 * @param patternOffset
+	 *            the start of the pattern (rows).
+	 * @param textOffset
+	 *            the start of the text (columns).
+	 * @param length
+	 *            the length of the pattern. This is also the maximal number of
+	 *            columns that may be calculated.
+	 * @param maxErrors
+	 *            the number of errors allowed, which determines the band.
+	 */
+	public void init(int patternOffset, int textOffset, int length,
+			int maxErrors) {
+		this.patternOffset = patternOffset;
+		this.textOffset = textOffset;
+		this.patternLength = length;
+		this.maxErrors = maxErrors;
+
+		windowSize = 2 * maxErrors / BLOCK_SIZE + 2;
+		if (positiveDeltas.length < windowSize) {
+			positiveDeltas = new long[windowSize];
+			negativeDeltas = new long[windowSize];
+			bottomScores = new int[windowSize];
+			eqSymbols = new int[windowSize * EQ_TABLE_SIZE];
+			eqMasks = new long[windowSize * EQ_TABLE_SIZE];
+			eqActivations = new int[windowSize * EQ_TABLE_SIZE];
+			activations = new int[windowSize];
+			numActivations = 0;
+			historyPositiveDeltas = new long[HISTORY_SIZE * windowSize];
+			historyNegativeDeltas = new long[HISTORY_SIZE * windowSize];
+			historyTopScores = new int[HISTORY_SIZE * windowSize];
+		}
+
+		column = 0;
+		numMatchMaskRows = 0;
+		firstBlock = 0;
+		lastBlock = -1;
+		topScore = 0;
+	}
+
+	/** Calculates the next column. */
+	public void advance() {
+		int j = ++column;
+		int firstRow = Math.max(1, j - maxErrors);
+		int lastRow = Math.min(patternLength, j + maxErrors);
+
+		// blocks above the band are no longer calculated
+		while (firstBlock < (firstRow - 1) / BLOCK_SIZE) {
+			topScore = bottomScores[slot(firstBlock)];
+			++firstBlock;
+		}
+
+		// blocks entering the band start with all rows incremented by one
+		while (lastBlock < (lastRow - 1) / BLOCK_SIZE) {
+			activateBlock(++lastBlock);
+		}
+		while (numMatchMaskRows < lastRow) {
+			addMatchMask(++numMatchMaskRows);
+		}
+
+		int symbol = symbols[textOffset + j - 1];
+		int hIn = 1;
+		for (int block = firstBlock; block <= lastBlock; ++block) {
+			hIn = advanceBlock(slot(block), symbol, hIn);
+		}
+		++topScore;
+
+		storeHistory();
+	}
+
+	/**
+	 * Initializes the given block for the previous column, assuming each row
+	 * to be one larger than the one before.
+	 */
+	private void activateBlock(int block) {
+		int slot = slot(block);
+		int baseScore = topScore;
+		if (block > firstBlock) {
+			baseScore = bottomScores[slot(block - 1)];
+		}
+		positiveDeltas[slot] = -1L;
+		negativeDeltas[slot] = 0;
+		bottomScores[slot] = baseScore + BLOCK_SIZE;
+
+		if (++numActivations == Integer.MAX_VALUE) {
+			// start over before the activation numbers become ambiguous
+			Arrays.fill(eqActivations, 0);
+			numActivations = 1;
+		}
+		activations[slot] = numActivations;
+	}
+
+	/**
+	 * Adds the given row to the match masks of its block. Rows are only added
+	 * when entering the band, as rows below the band may be treated as not
+	 * matching without affecting the cells of the band. So the effort does
+	 * not depend on the size of the blocks if the calculation stops early.
+	 */
+	private void addMatchMask(int row) {
+		int slot = slot((row - 1) / BLOCK_SIZE);
+		int symbol = symbols[patternOffset + row - 1];
+		int pos = eqPosition(slot, symbol);
+		if (eqActivations[pos] != activations[slot]) {
+			eqActivations[pos] = activations[slot];
+			eqSymbols[pos] = symbol;
+			eqMasks[pos] = 0;
+		}
+		eqMasks[pos] |= 1L << ((row - 1) % BLOCK_SIZE);
+	}
+
+	/**
+	 * Calculates a block for the next column (see Myers' paper, adapted for
+	 * blocks as done in edlib).
+	 * 
+	 * @param hIn
+	 *            the horizontal delta of the row above the block.
+	 * @return the horizontal delta of the last row of the block.
+	 */
+	private int advanceBlock(int slot, int symbol, int hIn) {
+		long pv = positiveDeltas[slot];
+		long mv = negativeDeltas[slot];
+		int pos = eqPosition(slot, symbol);
+		long eq = 0;
+		if (eqActivations[pos] == activations[slot]) {
+			eq = eqMasks[pos];
+		}
+		long hInNegative = hIn < 0 ? 1 : 0;
+
+		long xv = eq | mv;
+		eq |= hInNegative;
+		long xh = (((eq & pv) + pv) ^ pv) | eq;
+		long ph = mv | ~(xh | pv);
+		long mh = pv & xh;
+
+		int hOut = (int) (ph >>> (BLOCK_SIZE - 1))
+				- (int) (mh >>> (BLOCK_SIZE - 1));
+
+		ph = (ph << 1) | (hIn > 0 ? 1 : 0);
+		mh = (mh << 1) | hInNegative;
+
+		positiveDeltas[slot] = mh | ~(xv | ph);
+		negativeDeltas[slot] = ph & xv;
+		bottomScores[slot] += hOut;
+		return hOut;
+	}
+
+	/**
+	 * Returns the position of the given symbol in the match mask table of
+	 * the block stored in the given slot, or the free position for inserting
+	 * it.
+	 */
+	private int eqPosition(int slot, int symbol) {
+		int tableStart = slot * EQ_TABLE_SIZE;
+		int activation = activations[slot];
+		int pos = (symbol * 0x9E3779B9) >>> 25;
+		while (eqActivations[tableStart + pos] == activation
+				&& eqSymbols[tableStart + pos] != symbol) {
+			pos = (pos + 1) & (EQ_TABLE_SIZE - 1);
+		}
+		return tableStart + pos;
+	}
+
+	/** Returns the storage slot of the given block. */
+	private int slot(int block) {
+		return block % windowSize;
+	}
+
+	/** Stores the current column in the history. */
+	private void storeHistory() {
+		int entry = column % HISTORY_SIZE;
+		historyFirstBlock[entry] = firstBlock;
+		historyNumBlocks[entry] = lastBlock - firstBlock + 1;
+
+		int score = topScore;
+		for (int block = firstBlock; block <= lastBlock; ++block) {
+			int index = entry * windowSize + block - firstBlock;
+			int slot = slot(block);
+			historyPositiveDeltas[index] = positiveDeltas[slot];
+			historyNegativeDeltas[index] = negativeDeltas[slot];
+			historyTopScores[index] = score;
+			score = bottomScores[slot];
+		}
+	}
+
+	/**
+	 * Returns the edit distance of cell (i,j). This is supported for the last
+	 * two columns calculated and returns {@link #OUTSIDE_BAND} for cells
+	 * outside of the band.
+	 */
+	public int get(int i, int j) {
+		if (Math.abs(i - j) > maxErrors) {
+			return OUTSIDE_BAND;
+		}
+		if (i == 0) {
+			return j;
+		}
+		if (j == 0) {
+			return i;
+		}
+
+		int entry = j % HISTORY_SIZE;
+		int block = (i - 1) / BLOCK_SIZE;
+		int offset = block - historyFirstBlock[entry];
+		if (offset < 0 || offset >= historyNumBlocks[entry]) {
+			return OUTSIDE_BAND;
+		}
+
+		int index = entry * windowSize + offset;
+		long mask = -1L >>> (BLOCK_SIZE - 1 - (i - 1) % BLOCK_SIZE);
+		return historyTopScores[index]
+				+ Long.bitCount(historyPositiveDeltas[index] & mask)
+				- Long.bitCount(historyNegativeDeltas[index] & mask);
+	}
+
+	/**
+	 * Returns the minimal edit distance of the cells (i,j) of the given
+	 * column with <code>j-maxErrors &lt;= i &lt;= j</code>. The same
+	 * restrictions as for {@link #get(int, int)} apply.
+	 */
+	public int getColumnMinimum(int j) {
+		int row = Math.max(0, j - maxErrors);
+		int value = get(row, j);
+		int min = value;
+		while (row < j) {
+			++row;
+			if (row % BLOCK_SIZE == 1) {
+				// start of a new block, so get value directly
+				value = get(row, j);
+			} else {
+				int index = (j % HISTORY_SIZE) * windowSize + (row - 1)
+						/ BLOCK_SIZE - historyFirstBlock[j % HISTORY_SIZE];
+				long bit = 1L << ((row - 1) % BLOCK_SIZE);
+				if ((historyPositiveDeltas[index] & bit) != 0) {
+					++value;
+				} else if ((historyNegativeDeltas[index] & bit) != 0) {
+					--value;
+				}
+			}
+			min = Math.min(min, value);
+		}
+		return min;
+	}
+}
@@ -0,0 +1,182 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the {@link BitParallelEditDistance} yields the same matches as
+ * the banded dynamic programming of the
+ * {@link ApproximateCloneDetectingSuffixTree}. Run the main method; a failed
+ * check throws an {@link AssertionError}.
+ */
+class BitParallelEditDistanceTest {
+
+	public static void main(String[] args) throws ConQATException {
+		Random random = new Random(42);
+		for (int run = 0; run < 3000; ++run) {
+			checkMaxLength(random);
+		}
+		for (int seed = 0; seed < 30; ++seed) {
+			checkClones(new Random(seed));
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Compares the lengths matched for a random word and a copy of it with
+	 * random edits. The number of edits is often exactly the error budget or
+	 * one more, and the words are often longer than the 64 rows of a block.
+	 */
+	private static void checkMaxLength(Random random) {
+		int maxErrors = random.nextInt(9);
+		int alphabetSize = 1 + random.nextInt(random.nextBoolean() ? 3 : 40);
+		int length = 1 + random.nextInt(random.nextBoolean() ? 64 : 300);
+		int numEdits;
+		switch (random.nextInt(3)) {
+		case 0:
+			numEdits = maxErrors;
+			break;
+		case 1:
+			numEdits = maxErrors + 1;
+			break;
+		default:
+			numEdits = random.nextInt(2 * maxErrors + 2);
+		}
+
+		List<Integer> original = new ArrayList<Integer>();
+		for (int i = 0; i < length; ++i) {
+			original.add(random.nextInt(alphabetSize));
+		}
+		List<Integer> edited = new ArrayList<Integer>(original);
+		for (int i = 0; i < numEdits; ++i) {
+			int position = random.nextInt(edited.size() + 1);
+			int operation = random.nextInt(3);
+			if (operation == 0 || edited.isEmpty()) {
+				edited.add(position, random.nextInt(alphabetSize));
+			} else if (operation == 1 && position < edited.size()) {
+				edited.remove(position);
+			} else if (position < edited.size()) {
+				edited.set(position, random.nextInt(alphabetSize));
+			}
+		}
+
+		int[] symbols = new int[original.size() + edited.size() + 1];
+		for (int i = 0; i < original.size(); ++i) {
+			symbols[i] = original.get(i);
+		}
+		for (int i = 0; i < edited.size(); ++i) {
+			symbols[original.size() + i] = edited.get(i);
+		}
+		symbols[symbols.length - 1] = -1;
+
+		ApproximateCloneDetectingSuffixTree tree = new ApproximateCloneDetectingSuffixTree(
+				symbols) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return (Integer) character < 0;
+			}
+		};
+		int maxLength = Math.min(original.size(), edited.size());
+		int headEquality = random.nextInt(4);
+		int banded = tree.calculateMaxLength(0, original.size(), maxErrors,
+				headEquality, maxLength, false);
+		int bitParallel = tree.calculateMaxLength(0, original.size(),
+				maxErrors, headEquality, maxLength, true);
+		if (banded != bitParallel) {
+			throw new AssertionError("Banded length " + banded
+					+ " differs from bit-parallel length " + bitParallel
+					+ " for " + Arrays.toString(symbols) + " with "
+					+ maxErrors + " errors");
+		}
+		if (numEdits == 0 && banded != maxLength) {
+			throw new AssertionError("Equal words not matched completely: "
+					+ Arrays.toString(symbols));
+		}
+	}
+
+	/**
+	 * Checks that the same clones are found with and without the bit-parallel
+	 * calculation for a random word with long approximate repetitions.
+	 */
+	private static void checkClones(Random random) throws ConQATException {
+		int[] template = new int[300];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(20);
+		}
+		int[] symbols = new int[2000];
+		int numSentinels = 0;
+		for (int i = 0; i < symbols.length; ++i) {
+			if (i == symbols.length - 1 || random.nextInt(300) == 0) {
+				symbols[i] = -1 - numSentinels++;
+			} else if (random.nextInt(15) == 0) {
+				symbols[i] = random.nextInt(20);
+			} else {
+				symbols[i] = template[(i * 7 / 8) % template.length];
+			}
+		}
+
+		String banded = findClones(symbols, false);
+		String bitParallel = findClones(symbols, true);
+		if (!banded.equals(bitParallel)) {
+			throw new AssertionError("Different clones found:\n" + banded
+					+ "\n" + bitParallel);
+		}
+	}
+
+	/** Returns a description of the clones registered for the word. */
+	private static String findClones(int[] symbols, boolean bitParallel)
+			throws ConQATException {
+		List<PhpToken> tokens = new ArrayList<PhpToken>();
+		for (int i = 0; i < symbols.length; ++i) {
+			if (symbols[i] < 0) {
+				tokens.add(new Sentinel(0, "_", i, "_", "_"));
+			} else {
+				tokens.add(new PhpToken(0, "T", i, "f", "t" + symbols[i]));
+			}
+		}
+		ApproximateCloneDetectingSuffixTree tree = new ApproximateCloneDetectingSuffixTree(
+				tokens, symbols, new CloneDetectingSuffixTree(tokens, symbols)) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return character instanceof Sentinel;
+			}
+		};
+		tree.setParallelism(1);
+		tree.setBitParallelMatching(bitParallel);
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			tree.findClones(20, 5, 3);
+		} finally {
+			System.setOut(out);
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (CloneInfo clone : tree.getRegisteredClones()) {
+			result.append(clone.position).append(':').append(clone.length)
+					.append(' ').append(clone.otherClones).append('\n');
+		}
+		return result.toString();
+	}
+}
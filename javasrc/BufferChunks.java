@@ -0,0 +1,78 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Allocation and memory mapping of the off-heap chunks shared by
+ * {@link IntArray} and {@link LongArray}. An array of a given number of
+ * elements is split into chunks of 2^chunkShift elements (only the last one
+ * may be shorter), as a single buffer is limited to 2 GB. The arrays view the
+ * returned byte buffers as buffers of their element type.
+ */
+/* package */final class BufferChunks {
+
+	/** Not instantiated. */
+	private BufferChunks() {
+	}
+
+	/**
+	 * Allocates direct buffers in native byte order for the given number of
+	 * elements of the given size in bytes. The buffers are filled with zeros.
+	 */
+	public static ByteBuffer[] allocate(int length, int elementSize,
+			int chunkShift) {
+		ByteBuffer[] chunks = new ByteBuffer[getNumChunks(length, chunkShift)];
+		for (int i = 0; i < chunks.length; ++i) {
+			chunks[i] = ByteBuffer.allocateDirect(
+					elementSize * getChunkLength(length, i, chunkShift)).order(
+					ByteOrder.nativeOrder());
+		}
+		return chunks;
+	}
+
+	/**
+	 * Memory maps the given number of elements of the given size in bytes,
+	 * which are stored in big-endian order at the given position of a file.
+	 * The returned buffers are read-only and stay valid after the channel is
+	 * closed.
+	 */
+	public static ByteBuffer[] map(FileChannel channel, long position,
+			int length, int elementSize, int chunkShift) throws IOException {
+		ByteBuffer[] chunks = new ByteBuffer[getNumChunks(length, chunkShift)];
+		for (int i = 0; i < chunks.length; ++i) {
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position
+					+ (long) elementSize * ((long) i << chunkShift),
+					(long) elementSize * getChunkLength(length, i, chunkShift));
+		}
+		return chunks;
+	}
+
+	/** Returns the number of chunks for the given number of elements. */
+	public static int getNumChunks(int length, int chunkShift) {
+		return (int) (((long) length + (1 << chunkShift) - 1) >>> chunkShift);
+	}
+
+	/** Returns the number of elements of the chunk with the given index. */
+	private static int getChunkLength(int length, int chunk, int chunkShift) {
+		return (int) Math.min(1 << chunkShift, length
+				- ((long) chunk << chunkShift));
+	}
+}
@@ -0,0 +1,621 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+/**
+ * An enhanced suffix array, i.e. a suffix array with longest common prefix
+ * (LCP) array and child table, for finding clones. This is a more compact
+ * alternative to the {@link CloneDetectingSuffixTree}. Besides the interned
+ * symbols it only stores four integers per character of the word, while the
+ * suffix tree requires several arrays indexed by node plus its hash table.
+ * <p>
+ * The suffix array is constructed by induced sorting (SA-IS) in linear time,
+ * the LCP array by the algorithm of Kasai et al. The clone classes are the
+ * LCP intervals, which correspond to the inner nodes of the suffix tree and
+ * are enumerated bottom-up using a stack.
+ * <p>
+ * The child table of Abouelhoda et al. allows to simulate a top-down
+ * traversal of the suffix tree as {@link ISuffixIndex}, so approximate
+ * clones can be searched as well. The handles of nodes are the LCP intervals
+ * (or single suffixes for the leaves) given by the index of their first and
+ * last suffix (see {@link #getNode(int, int)}). The handle of an edge is the
+ * handle of the node it leads to. The leaves are numbered by their index in
+ * the suffix array.
+ */
+public class CloneDetectingSuffixArray implements ICloneDetector,
+		ISuffixIndex {
+
+	/**
+	 * The interned symbols of the word (see
+	 * {@link SuffixTree#SuffixTree(int[])}).
+	 */
+	private final int[] symbols;
+
+	/** The start positions of the suffixes of the word in lexical order. */
+	private final int[] suffixArray;
+
+	/**
+	 * The length of the longest common prefix of the suffix at each index of
+	 * the {@link #suffixArray} and the suffix before it. The first entry is 0.
+	 */
+	private final int[] lcp;
+
+	/**
+	 * The child table, which stores the up, down and next l-index values (see
+	 * {@link #buildChildTable()}) in one array with an entry per index of the
+	 * {@link #suffixArray} plus one. An l-index of an LCP interval is an index
+	 * within the interval whose LCP is the LCP of the interval, so the
+	 * l-indices are the boundaries between the child intervals.
+	 */
+	private final int[] childTable;
+
+	/**
+	 * The smallest start position of the suffixes of each LCP interval,
+	 * indexed by the first l-index of the interval (see
+	 * {@link #getFirstLIndex(int, int)}). As in the suffix tree, the label of
+	 * the edge leading to an interval refers to this occurrence.
+	 */
+	private final int[] leftmostSuffix;
+
+	/**
+	 * Create a new suffix array from a word given as interned symbols (see
+	 * {@link SuffixTree#SuffixTree(int[])}). The array is used internally and
+	 * should not be modified anymore.
+	 */
+	public CloneDetectingSuffixArray(int[] symbols) {
+		this.symbols = symbols;
+		suffixArray = buildSuffixArray(symbols);
+		lcp = buildLcp(symbols, suffixArray);
+		childTable = buildChildTable();
+		leftmostSuffix = buildLeftmostSuffixes();
+	}
+
+	/** Returns the number of characters of the word. */
+	public int size() {
+		return symbols.length;
+	}
+
+	/**
+	 * Returns the start position of the suffix at the given index of the
+	 * suffix array.
+	 */
+	public int getSuffix(int index) {
+		return suffixArray[index];
+	}
+
+	/**
+	 * Returns the length of the longest common prefix of the suffixes at the
+	 * given index and the index before it.
+	 */
+	public int getLcp(int index) {
+		return lcp[index];
+	}
+
+	/**
+	 * Builds the suffix array for the given symbols. These are mapped to the
+	 * alphabet 1..k, followed by the character 0 as terminator which is
+	 * dropped from the result again.
+	 */
+	private static int[] buildSuffixArray(int[] symbols) {
+		int n = symbols.length;
+		if (n == 0) {
+			return new int[0];
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int symbol : symbols) {
+			min = Math.min(min, symbol);
+			max = Math.max(max, symbol);
+		}
+
+		int[] s = new int[n + 1];
+		for (int i = 0; i < n; ++i) {
+			s[i] = symbols[i] - min + 1;
+		}
+		int[] sa = new int[n + 1];
+		induceSort(s, sa, n + 1, max - min + 2);
+		return Arrays.copyOfRange(sa, 1, n + 1);
+	}
+
+	/**
+	 * Sorts the suffixes of s by the SA-IS algorithm of Nong, Zhang and Chan.
+	 * The last character of s must be 0, which occurs nowhere else, and all
+	 * characters must be less than k.
+	 * 
+	 * @param n
+	 *            the length of s, which may be less than its array length.
+	 */
+	private static void induceSort(int[] s, int[] sa, int n, int k) {
+		// type of each suffix: true for S-type (smaller than the next)
+		boolean[] sType = new boolean[n];
+		sType[n - 1] = true;
+		for (int i = n - 2; i >= 0; --i) {
+			sType[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && sType[i + 1]);
+		}
+
+		// stage 1: sort the LMS substrings
+		int[] buckets = new int[k];
+		getBucketBounds(s, n, buckets, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = 1; i < n; ++i) {
+			if (isLeftmostS(sType, i)) {
+				sa[--buckets[s[i]]] = i;
+			}
+		}
+		induceLType(s, sa, n, sType, buckets);
+		induceSType(s, sa, n, sType, buckets);
+
+		// name the sorted LMS substrings, storing the names at n1 + pos/2
+		int n1 = 0;
+		for (int i = 0; i < n; ++i) {
+			if (isLeftmostS(sType, sa[i])) {
+				sa[n1++] = sa[i];
+			}
+		}
+		Arrays.fill(sa, n1, n, -1);
+		int names = 0;
+		int previous = -1;
+		for (int i = 0; i < n1; ++i) {
+			int position = sa[i];
+			if (previous < 0
+					|| !equalLmsSubstrings(s, sType, position, previous)) {
+				++names;
+				previous = position;
+			}
+			sa[n1 + position / 2] = names - 1;
+		}
+
+		// stage 2: sort the reduced string (recursively if names repeat)
+		int[] reduced = new int[n1];
+		for (int i = n - 1, j = n1 - 1; i >= n1; --i) {
+			if (sa[i] >= 0) {
+				reduced[j--] = sa[i];
+			}
+		}
+		int[] reducedSa = new int[n1];
+		if (names < n1) {
+			induceSort(reduced, reducedSa, n1, names);
+		} else {
+			for (int i = 0; i < n1; ++i) {
+				reducedSa[reduced[i]] = i;
+			}
+		}
+
+		// stage 3: induce the order of all suffixes from the sorted LMS
+		// suffixes
+		for (int i = 1, j = 0; i < n; ++i) {
+			if (isLeftmostS(sType, i)) {
+				reduced[j++] = i;
+			}
+		}
+		getBucketBounds(s, n, buckets, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = n1 - 1; i >= 0; --i) {
+			int position = reduced[reducedSa[i]];
+			sa[--buckets[s[position]]] = position;
+		}
+		induceLType(s, sa, n, sType, buckets);
+		induceSType(s, sa, n, sType, buckets);
+	}
+
+	/**
+	 * Returns whether the suffix at the given position is a leftmost S-type
+	 * suffix (LMS), i.e. of S-type and preceded by an L-type suffix.
+	 */
+	private static boolean isLeftmostS(boolean[] sType, int i) {
+		return i > 0 && sType[i] && !sType[i - 1];
+	}
+
+	/**
+	 * Returns whether the LMS substrings (which reach up to the next LMS
+	 * position) at the given positions are equal.
+	 */
+	private static boolean equalLmsSubstrings(int[] s, boolean[] sType,
+			int a, int b) {
+		for (int d = 0;; ++d) {
+			if (s[a + d] != s[b + d] || sType[a + d] != sType[b + d]) {
+				return false;
+			}
+			if (d > 0 && (isLeftmostS(sType, a + d) || isLeftmostS(sType, b + d))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Fills the buckets array with the start (or the end, exclusive) of the
+	 * bucket of each character in the suffix array.
+	 */
+	private static void getBucketBounds(int[] s, int n, int[] buckets,
+			boolean end) {
+		Arrays.fill(buckets, 0);
+		for (int i = 0; i < n; ++i) {
+			++buckets[s[i]];
+		}
+		int sum = 0;
+		for (int c = 0; c < buckets.length; ++c) {
+			sum += buckets[c];
+			buckets[c] = end ? sum : sum - buckets[c];
+		}
+	}
+
+	/**
+	 * Inserts the L-type suffixes at the start of their buckets in the order
+	 * induced by the suffixes already in the suffix array.
+	 */
+	private static void induceLType(int[] s, int[] sa, int n,
+			boolean[] sType, int[] buckets) {
+		getBucketBounds(s, n, buckets, false);
+		for (int i = 0; i < n; ++i) {
+			int j = sa[i] - 1;
+			if (j >= 0 && !sType[j]) {
+				sa[buckets[s[j]]++] = j;
+			}
+		}
+	}
+
+	/**
+	 * Inserts the S-type suffixes at the end of their buckets in the order
+	 * induced by the suffixes already in the suffix array.
+	 */
+	private static void induceSType(int[] s, int[] sa, int n,
+			boolean[] sType, int[] buckets) {
+		getBucketBounds(s, n, buckets, true);
+		for (int i = n - 1; i >= 0; --i) {
+			int j = sa[i] - 1;
+			if (j >= 0 && sType[j]) {
+				sa[--buckets[s[j]]] = j;
+			}
+		}
+	}
+
+	/**
+	 * Builds the LCP array by the algorithm of Kasai et al., which uses that
+	 * the LCP drops by at most one from a suffix to the next in the word.
+	 */
+	private static int[] buildLcp(int[] symbols, int[] suffixArray) {
+		int n = symbols.length;
+		int[] rank = new int[n];
+		for (int i = 0; i < n; ++i) {
+			rank[suffixArray[i]] = i;
+		}
+
+		int[] lcp = new int[n];
+		int h = 0;
+		for (int i = 0; i < n; ++i) {
+			if (rank[i] == 0) {
+				h = 0;
+				continue;
+			}
+			int j = suffixArray[rank[i] - 1];
+			while (i + h < n && j + h < n && symbols[i + h] == symbols[j + h]) {
+				++h;
+			}
+			lcp[rank[i]] = h;
+			if (h > 0) {
+				--h;
+			}
+		}
+		return lcp;
+	}
+
+	/**
+	 * Builds the child table as described by Abouelhoda, Kurtz and Ohlebusch
+	 * ("Replacing suffix trees with enhanced suffix arrays"). For each index
+	 * i, up[i] is the first l-index of the last child interval ending before
+	 * i and down[i] is the first l-index of the child interval starting at i,
+	 * while the next l-index is the next boundary between children of the same
+	 * interval. These are never required at the same time, so up[i] is stored
+	 * at i-1 and the next l-index replaces down[i].
+	 */
+	private int[] buildChildTable() {
+		int n = suffixArray.length;
+		int[] table = new int[n + 1];
+		int[] stack = new int[16];
+		int size = 0;
+
+		// up and down values
+		stack[size++] = 0;
+		int lastIndex = -1;
+		for (int i = 1; i <= n; ++i) {
+			while (getExtendedLcp(i) < getExtendedLcp(stack[size - 1])) {
+				lastIndex = stack[--size];
+				int top = stack[size - 1];
+				if (getExtendedLcp(i) <= getExtendedLcp(top)
+						&& getExtendedLcp(top) != getExtendedLcp(lastIndex)) {
+					table[top] = lastIndex;
+				}
+			}
+			if (lastIndex >= 0) {
+				table[i - 1] = lastIndex;
+				lastIndex = -1;
+			}
+			if (size == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * size);
+			}
+			stack[size++] = i;
+		}
+
+		// next l-index values
+		size = 0;
+		stack[size++] = 0;
+		for (int i = 1; i <= n; ++i) {
+			while (getExtendedLcp(i) < getExtendedLcp(stack[size - 1])) {
+				--size;
+			}
+			if (getExtendedLcp(i) == getExtendedLcp(stack[size - 1])) {
+				table[stack[--size]] = i;
+			}
+			stack[size++] = i;
+		}
+		return table;
+	}
+
+	/**
+	 * Builds the {@link #leftmostSuffix} array by enumerating the LCP
+	 * intervals bottom-up (as in {@link #findClones(int, ICloneReporter)}),
+	 * passing the minimum of each interval on to its parent.
+	 */
+	private int[] buildLeftmostSuffixes() {
+		int n = suffixArray.length;
+		int[] result = new int[n];
+
+		// stack of the open intervals as triples of LCP, left bound and
+		// smallest suffix so far
+		int[] stack = new int[48];
+		int size = 0;
+		stack[size++] = -1;
+		stack[size++] = 0;
+		stack[size++] = n;
+		for (int i = 1; i <= n; ++i) {
+			int currentLcp = getExtendedLcp(i);
+			int leftBound = i - 1;
+			int minimum = suffixArray[i - 1];
+			stack[size - 1] = Math.min(stack[size - 1], minimum);
+			while (currentLcp < stack[size - 3]) {
+				size -= 3;
+				leftBound = stack[size + 1];
+				minimum = stack[size + 2];
+				result[getFirstLIndex(leftBound, i - 1)] = minimum;
+				stack[size - 1] = Math.min(stack[size - 1], minimum);
+			}
+			if (currentLcp > stack[size - 3]) {
+				if (size + 3 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[size++] = currentLcp;
+				stack[size++] = leftBound;
+				stack[size++] = minimum;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the LCP at the given index, where the index may also be the
+	 * size of the suffix array. The LCP is -1 at the start and end, so the
+	 * whole suffix array is an LCP interval.
+	 */
+	private int getExtendedLcp(int index) {
+		if (index == 0 || index == suffixArray.length) {
+			return -1;
+		}
+		return lcp[index];
+	}
+
+	/**
+	 * Returns the first l-index of the LCP interval from lb to rb (both
+	 * inclusive), which is up[rb+1] if it lies within the interval and
+	 * down[lb] otherwise.
+	 */
+	private int getFirstLIndex(int lb, int rb) {
+		if (getExtendedLcp(rb) > getExtendedLcp(rb + 1)) {
+			int up = childTable[rb];
+			if (lb < up && up <= rb) {
+				return up;
+			}
+		}
+		return childTable[lb];
+	}
+
+	/**
+	 * Returns the handle of the node for the range of the suffix array from
+	 * lb to rb (both inclusive).
+	 */
+	private static long getNode(int lb, int rb) {
+		return (long) lb << 32 | rb;
+	}
+
+	/** Returns the index of the first suffix of the node. */
+	private static int getLeftBound(long node) {
+		return (int) (node >>> 32);
+	}
+
+	/** Returns the index of the last suffix of the node. */
+	private static int getRightBound(long node) {
+		return (int) node;
+	}
+
+	/**
+	 * Returns the depth of the parent of the node, which is the larger of the
+	 * LCPs at the boundaries of its interval. This is 0 for the whole suffix
+	 * array, which may have a larger depth if all suffixes start with the same
+	 * character.
+	 */
+	private int getParentDepth(int lb, int rb) {
+		return Math.max(0, Math.max(getExtendedLcp(lb),
+				getExtendedLcp(rb + 1)));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRootChild(int symbol) {
+		// the suffixes are ordered by their first symbol
+		int lb = findFirstSuffix(symbol);
+		int end = findFirstSuffix(symbol + 1);
+		if (lb == end) {
+			return -1;
+		}
+		return getNode(lb, end - 1);
+	}
+
+	/**
+	 * Returns the index of the first suffix which starts with a symbol not
+	 * smaller than the given one.
+	 */
+	private int findFirstSuffix(int symbol) {
+		int low = 0;
+		int high = suffixArray.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (symbols[suffixArray[middle]] < symbol) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFirstEdge(long node) {
+		int lb = getLeftBound(node);
+		int rb = getRightBound(node);
+		if (lb == rb) {
+			return -1;
+		}
+		return getNode(lb, getFirstLIndex(lb, rb) - 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getNextEdge(long node, long edge) {
+		int rb = getRightBound(node);
+		int lIndex = getRightBound(edge) + 1;
+		if (lIndex > rb) {
+			return -1;
+		}
+		int next = childTable[lIndex];
+		if (next > lIndex && getExtendedLcp(next) == getExtendedLcp(lIndex)) {
+			return getNode(lIndex, next - 1);
+		}
+		return getNode(lIndex, rb);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getEdgeTarget(long edge) {
+		return edge;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getEdgeBegin(long node) {
+		int lb = getLeftBound(node);
+		int rb = getRightBound(node);
+		int position = suffixArray[lb];
+		if (lb < rb) {
+			position = leftmostSuffix[getFirstLIndex(lb, rb)];
+		}
+		return position + getParentDepth(lb, rb);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getEdgeLength(long node) {
+		return getDepth(node)
+				- getParentDepth(getLeftBound(node), getRightBound(node));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDepth(long node) {
+		int lb = getLeftBound(node);
+		int rb = getRightBound(node);
+		if (lb == rb) {
+			return suffixArray.length - suffixArray[lb];
+		}
+		return lcp[getFirstLIndex(lb, rb)];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafFirst(long node) {
+		return getLeftBound(node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafEnd(long node) {
+		return getRightBound(node) + 1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafSuffix(int leaf) {
+		return suffixArray[leaf];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The clone classes are the LCP intervals, i.e. the maximal ranges of the
+	 * suffix array whose suffixes share a prefix longer than the LCP with the
+	 * suffixes around the range. Of these, only the intervals whose suffixes
+	 * are not all preceded by the same character are reported.
+	 */
+	@Override
+	public void findClones(int minLength, ICloneReporter reporter)
+			throws ConQATException {
+		int n = suffixArray.length;
+		int[] changes = MaximalRepeats.countLeftChanges(symbols, suffixArray,
+				n);
+
+		// stack of the open intervals as pairs of LCP and left bound
+		int[] stack = new int[32];
+		int size = 0;
+		stack[size++] = 0;
+		stack[size++] = 0;
+		for (int i = 1; i <= n; ++i) {
+			int currentLcp = 0;
+			if (i < n) {
+				currentLcp = lcp[i];
+			}
+			int leftBound = i - 1;
+			while (currentLcp < stack[size - 2]) {
+				size -= 2;
+				int intervalLcp = stack[size];
+				leftBound = stack[size + 1];
+				if (intervalLcp >= minLength
+						&& MaximalRepeats.isLeftMaximal(changes, leftBound, i)) {
+					MaximalRepeats.reportCloneClass(reporter, suffixArray,
+							leftBound, i, intervalLcp);
+				}
+			}
+			if (currentLcp > stack[size - 2]) {
+				if (size + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[size++] = currentLcp;
+				stack[size++] = leftBound;
+			}
+		}
+	}
+}
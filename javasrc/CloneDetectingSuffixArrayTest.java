@@ -0,0 +1,363 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests for the {@link CloneDetectingSuffixArray}, which is compared to the
+ * {@link CloneDetectingSuffixTree}. As the children of the tree are ordered
+ * lexicographically, both have to yield the same nodes (as
+ * {@link ISuffixIndex}) and the same exact and approximate clones. Run the
+ * main method; a failed check throws an {@link AssertionError}.
+ */
+class CloneDetectingSuffixArrayTest {
+
+	public static void main(String[] args) throws ConQATException {
+		for (int[] symbols : createWords()) {
+			checkExactClones(symbols);
+			checkStructure(symbols);
+		}
+		for (int seed = 0; seed < 20; ++seed) {
+			checkApproximateClones(new Random(seed));
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Returns the words to test, each closed by a sentinel: some special
+	 * cases (one-symbol alphabets, runs of equal symbols, only sentinels) and
+	 * random words with small alphabets.
+	 */
+	/* package */static List<int[]> createWords() {
+		List<int[]> words = new ArrayList<int[]>();
+		words.add(new int[] { -1 });
+		words.add(new int[] { 0, -1 });
+		words.add(new int[] { 0, 0, 0, 0, 0, -1 });
+		words.add(new int[] { -1, -2, -3, -4, -5 });
+		words.add(new int[] { 0, 0, -1, 0, 0, -2, 0, 0, -3 });
+		words.add(new int[] { 0, 1, 0, 1, 0, 1, 0, 1, -1 });
+		words.add(new int[] { 2, 1, 0, 2, 1, 0, 2, 1, -1 });
+
+		int[] run = new int[200];
+		run[run.length - 1] = -1;
+		words.add(run);
+
+		Random random = new Random(17);
+		for (int i = 0; i < 500; ++i) {
+			int length = 1 + random.nextInt(i < 250 ? 20 : 300);
+			int alphabetSize = 1 + random.nextInt(5);
+			int[] symbols = new int[length];
+			int numSentinels = 0;
+			for (int j = 0; j < length; ++j) {
+				if (j == length - 1 || random.nextInt(30) == 0) {
+					symbols[j] = -1 - numSentinels++;
+				} else if (j > 0 && symbols[j - 1] >= 0
+						&& random.nextInt(3) == 0) {
+					// runs of equal symbols
+					symbols[j] = symbols[j - 1];
+				} else {
+					symbols[j] = random.nextInt(alphabetSize);
+				}
+			}
+			words.add(symbols);
+		}
+		return words;
+	}
+
+	/**
+	 * Checks that the suffix array reports the same clone classes as the
+	 * suffix tree for all minimal lengths.
+	 */
+	private static void checkExactClones(int[] symbols) throws ConQATException {
+		CloneDetectingSuffixTree tree = new CloneDetectingSuffixTree(
+				symbols.clone());
+		CloneDetectingSuffixArray array = new CloneDetectingSuffixArray(
+				symbols.clone());
+		for (int minLength = 1; minLength <= 4; ++minLength) {
+			Set<String> expected = findClones(tree, minLength);
+			Set<String> actual = findClones(array, minLength);
+			if (!expected.equals(actual)) {
+				throw new AssertionError("Different clones for "
+						+ Arrays.toString(symbols) + " and min length "
+						+ minLength + ":\n" + expected + "\n" + actual);
+			}
+		}
+	}
+
+	/**
+	 * Returns the clone classes found by the detector, each described by its
+	 * length and sorted positions.
+	 */
+	/* package */static Set<String> findClones(ICloneDetector detector,
+			int minLength) throws ConQATException {
+		final Set<String> result = new TreeSet<String>();
+		detector.findClones(minLength, new ICloneReporter() {
+			private final List<Integer> positions = new ArrayList<Integer>();
+			private int length;
+
+			@Override
+			public void startCloneClass(int length) {
+				this.length = length;
+				positions.clear();
+			}
+
+			@Override
+			public Clone addClone(int position, int length) {
+				if (length != this.length) {
+					throw new AssertionError("Clone length " + length
+							+ " differs from class length " + this.length);
+				}
+				positions.add(position);
+				return null;
+			}
+
+			@Override
+			public boolean completeCloneClass() {
+				Collections.sort(positions);
+				if (!result.add(length + ":" + positions)) {
+					throw new AssertionError("Clone class reported twice: "
+							+ length + ":" + positions);
+				}
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Checks the {@link ISuffixIndex} contract for the tree and the suffix
+	 * array and that both yield the same nodes in the same order.
+	 */
+	private static void checkStructure(int[] symbols) {
+		List<String> treeNodes = traverse(
+				new CloneDetectingSuffixTree(symbols.clone()), symbols);
+		List<String> arrayNodes = traverse(new CloneDetectingSuffixArray(
+				symbols.clone()), symbols);
+		if (!treeNodes.equals(arrayNodes)) {
+			throw new AssertionError("Different nodes for "
+					+ Arrays.toString(symbols) + ":\n" + treeNodes + "\n"
+					+ arrayNodes);
+		}
+	}
+
+	/**
+	 * Traverses the index depth-first, checking each node (see
+	 * {@link #checkNode(ISuffixIndex, int[], long, int, List)}), and returns
+	 * descriptions of the nodes in order of the traversal. The children of
+	 * the root must partition all leaves.
+	 */
+	/* package */static List<String> traverse(ISuffixIndex index, int[] symbols) {
+		int[] distinct = symbols.clone();
+		Arrays.sort(distinct);
+		List<String> nodes = new ArrayList<String>();
+		int leaf = 0;
+		for (int i = 0; i < distinct.length; ++i) {
+			if (i > 0 && distinct[i] == distinct[i - 1]) {
+				continue;
+			}
+			long child = index.getRootChild(distinct[i]);
+			check(child >= 0, "Missing root child", symbols);
+			check(index.getLeafFirst(child) == leaf,
+					"Root children do not partition the leaves", symbols);
+			checkNode(index, symbols, child, 0, nodes);
+			leaf = index.getLeafEnd(child);
+		}
+		check(leaf == symbols.length, "Leaves missing below the root",
+				symbols);
+		return nodes;
+	}
+
+	/**
+	 * Checks the given node and its subtree: the label of the edge matches the
+	 * word at the suffix of every leaf below, leaves end with the word or
+	 * their first sentinel, inner nodes have at least two children ordered by
+	 * the first symbol of their edge, and the leaves of the children
+	 * partition the leaves of the node.
+	 */
+	private static void checkNode(ISuffixIndex index, int[] symbols,
+			long node, int parentDepth, List<String> nodes) {
+		int depth = index.getDepth(node);
+		int edgeBegin = index.getEdgeBegin(node);
+		int edgeLength = index.getEdgeLength(node);
+		int leafFirst = index.getLeafFirst(node);
+		int leafEnd = index.getLeafEnd(node);
+		check(edgeLength > 0 && depth == parentDepth + edgeLength,
+				"Invalid depth", symbols);
+		check(leafFirst < leafEnd, "Node without leaves", symbols);
+		for (int leaf = leafFirst; leaf < leafEnd; ++leaf) {
+			int suffix = index.getLeafSuffix(leaf);
+			check(suffix + depth <= symbols.length, "Edge exceeds the word",
+					symbols);
+			for (int k = 0; k < edgeLength; ++k) {
+				check(symbols[suffix + parentDepth + k] == symbols[edgeBegin
+						+ k], "Edge label does not match a leaf", symbols);
+			}
+		}
+
+		long edge = index.getFirstEdge(node);
+		if (edge < 0) {
+			int suffix = index.getLeafSuffix(leafFirst);
+			check(leafEnd - leafFirst == 1, "Invalid leaf", symbols);
+			check(depth == symbols.length - suffix
+					|| isFirstSentinel(symbols, suffix, suffix + depth - 1),
+					"Leaf neither ends with the word nor a sentinel", symbols);
+			nodes.add(leafFirst + ":" + suffix);
+			return;
+		}
+		nodes.add(depth + "@" + leafFirst + "-" + leafEnd);
+
+		int numChildren = 0;
+		int leaf = leafFirst;
+		int previousSymbol = Integer.MIN_VALUE;
+		for (; edge >= 0; edge = index.getNextEdge(node, edge)) {
+			long child = index.getEdgeTarget(edge);
+			int symbol = symbols[index.getEdgeBegin(child)];
+			check(numChildren == 0 || symbol > previousSymbol,
+					"Children not ordered", symbols);
+			check(index.getLeafFirst(child) == leaf,
+					"Children do not partition the leaves", symbols);
+			checkNode(index, symbols, child, depth, nodes);
+			leaf = index.getLeafEnd(child);
+			previousSymbol = symbol;
+			++numChildren;
+		}
+		check(numChildren >= 2, "Unary node", symbols);
+		check(leaf == leafEnd, "Children do not partition the leaves",
+				symbols);
+	}
+
+	/**
+	 * Returns whether the given end is the first sentinel at or after the
+	 * given start. Leaves of a tree inserted before it was extended (see
+	 * {@link CloneDetectingSuffixTree#append(List, int[])}) end there.
+	 */
+	private static boolean isFirstSentinel(int[] symbols, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (symbols[i] < 0) {
+				return false;
+			}
+		}
+		return symbols[end] < 0;
+	}
+
+	/** Throws an {@link AssertionError} if the condition is false. */
+	private static void check(boolean condition, String message, int[] symbols) {
+		if (!condition) {
+			throw new AssertionError(message + ": " + Arrays.toString(symbols));
+		}
+	}
+
+	/**
+	 * Checks that the approximate search yields the same clones using the
+	 * tree and the suffix array for a random word with long approximate
+	 * repetitions.
+	 */
+	private static void checkApproximateClones(Random random)
+			throws ConQATException {
+		int[] symbols = createApproximateWord(random, 3000);
+		List<PhpToken> tokens = createTokens(symbols);
+		String treeClones = findApproximateClones(tokens, symbols,
+				new CloneDetectingSuffixTree(tokens, symbols), 1);
+		String arrayClones = findApproximateClones(tokens, symbols,
+				new CloneDetectingSuffixArray(symbols), 1);
+		if (treeClones.isEmpty() || !treeClones.equals(arrayClones)) {
+			throw new AssertionError("Different approximate clones:\n"
+					+ treeClones + "\n" + arrayClones);
+		}
+	}
+
+	/**
+	 * Returns a random word of the given length of files closed by
+	 * sentinels, which mostly repeat a template with some changes, so there
+	 * are many approximate clones.
+	 */
+	/* package */static int[] createApproximateWord(Random random, int length) {
+		int[] template = new int[300];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(20);
+		}
+		int[] symbols = new int[length];
+		int numSentinels = 0;
+		for (int i = 0; i < symbols.length; ++i) {
+			if (i == symbols.length - 1 || random.nextInt(300) == 0) {
+				symbols[i] = -1 - numSentinels++;
+			} else if (random.nextInt(15) == 0) {
+				symbols[i] = random.nextInt(20);
+			} else {
+				symbols[i] = template[(i * 7 / 8) % template.length];
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Returns tokens for the given symbols, using a {@link Sentinel} for each
+	 * negative symbol.
+	 */
+	/* package */static List<PhpToken> createTokens(int[] symbols) {
+		List<PhpToken> tokens = new ArrayList<PhpToken>();
+		for (int i = 0; i < symbols.length; ++i) {
+			if (symbols[i] < 0) {
+				tokens.add(new Sentinel(0, "_", i, "_", "_"));
+			} else {
+				tokens.add(new PhpToken(0, "T", i, "f", "t" + symbols[i]));
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns a description of the approximate clones registered when
+	 * searching with the given number of threads.
+	 */
+	/* package */static String findApproximateClones(List<PhpToken> tokens,
+			int[] symbols, ISuffixIndex index, int parallelism)
+			throws ConQATException {
+		ApproximateCloneDetectingSuffixTree search = new ApproximateCloneDetectingSuffixTree(
+				tokens, symbols, index) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return character instanceof Sentinel;
+			}
+		};
+		search.setParallelism(parallelism);
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			search.findClones(20, 5, 3);
+		} finally {
+			System.setOut(out);
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (CloneInfo clone : search.getRegisteredClones()) {
+			result.append(clone.position).append(':').append(clone.length)
+					.append(' ').append(clone.otherClones).append('\n');
+		}
+		return result.toString();
+	}
+}
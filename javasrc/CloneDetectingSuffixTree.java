@@ -0,0 +1,363 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An extension of the suffix tree for finding exact clones, i.e. repeated
+ * substrings. The leaves of the tree are laid out in depth-first order, so
+ * the occurrences of the word along the path to a node are a contiguous
+ * range of {@link #leafSuffix}.
+ * <p>
+ * This only works correctly if the given word is closed using a sentinel
+ * character, as otherwise some suffixes do not end in a leaf.
+ * <p>
+ * As {@link ISuffixIndex}, the handles of nodes are the node numbers and
+ * those of edges are the indices into {@link #nodeChildNext}.
+ */
+public class CloneDetectingSuffixTree extends SuffixTree implements
+		ICloneDetector, ISuffixIndex {
+
+	/**
+	 * The start positions of the suffixes of all leaves in depth-first order
+	 * (i.e. the order in which the children are stored). So the leaves
+	 * below a node form the range given by {@link #leafFirst} and
+	 * {@link #leafEnd}.
+	 */
+	protected int[] leafSuffix;
+
+	/** The index of the first leaf in {@link #leafSuffix} below each node. */
+	protected IntArray leafFirst;
+
+	/** The index after the last leaf in {@link #leafSuffix} below each node. */
+	protected IntArray leafEnd;
+
+	/** The length of the word along the path from the root to each node. */
+	protected IntArray nodeDepth;
+
+	/**
+	 * Whether the tree was changed since the leaf layout was calculated, so
+	 * it has to be calculated again before it is used (see
+	 * {@link #ensureLeaves()}). This is volatile, as the tree may be read by
+	 * several threads searching clones at once (see
+	 * {@link ApproximateCloneDetectingSuffixTree#setParallelism(int)}).
+	 */
+	private volatile boolean leavesOutdated = false;
+
+	/**
+	 * Create a new suffix tree from a given word. The word given as parameter
+	 * is used internally and should not be modified anymore, so copy it before
+	 * if required.
+	 */
+	public CloneDetectingSuffixTree(List<?> word) {
+		this(word, null);
+	}
+
+	/**
+	 * Create a new suffix tree from a word given as interned symbols (see
+	 * {@link SuffixTree#SuffixTree(int[])}).
+	 */
+	public CloneDetectingSuffixTree(int[] symbols) {
+		this(new SymbolList(symbols), symbols);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols are already known (see
+	 * {@link SuffixTree#SuffixTree(List, int[])}).
+	 */
+	public CloneDetectingSuffixTree(List<?> word, int[] symbols) {
+		this(word, symbols, false);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols are already known, optionally keeping all per-node arrays
+	 * off-heap (see {@link SuffixTree#SuffixTree(List, int[], boolean, boolean)}
+	 * ).
+	 */
+	public CloneDetectingSuffixTree(List<?> word, int[] symbols,
+			boolean offHeap) {
+		this(word, symbols, false, offHeap);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols are already known, optionally starting with small node arrays
+	 * which grow as required (see
+	 * {@link SuffixTree#SuffixTree(List, int[], boolean, boolean)}).
+	 */
+	public CloneDetectingSuffixTree(List<?> word, int[] symbols,
+			boolean growable, boolean offHeap) {
+		super(word, symbols, growable, offHeap);
+		updateLeaves();
+	}
+
+	/**
+	 * Loads a tree written by {@link #write(DataOutputStream)} (see
+	 * {@link SuffixTreeFile#load(java.nio.file.Path, List, int[])}).
+	 */
+	/* package */CloneDetectingSuffixTree(SuffixTreeFile.Reader in,
+			List<?> word, int[] symbols) throws IOException {
+		super(in, word, symbols);
+		leafSuffix = in.readInts(in.readInt());
+		leafFirst = in.mapIntArray(numNodes);
+		leafEnd = in.mapIntArray(numNodes);
+		nodeDepth = in.mapIntArray(numNodes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void write(DataOutputStream out) throws IOException {
+		ensureLeaves();
+		super.write(out);
+		out.writeInt(leafSuffix.length);
+		for (int suffix : leafSuffix) {
+			out.writeInt(suffix);
+		}
+		leafFirst.write(out, numNodes);
+		leafEnd.write(out, numNodes);
+		nodeDepth.write(out, numNodes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The leaf layout is not updated but calculated again when it is used
+	 * next (see {@link #ensureLeaves()}). This takes time linear in the size
+	 * of the whole tree (not only of the appended part), so it is paid once
+	 * for consecutive appends but for each append if the tree is queried in
+	 * between.
+	 */
+	@Override
+	public void append(List<?> extendedWord, int[] newSymbols) {
+		super.append(extendedWord, newSymbols);
+		invalidateLeaves();
+	}
+
+	/**
+	 * Marks the leaf layout as outdated after the tree was changed, so it is
+	 * calculated again when it is used next.
+	 */
+	protected void invalidateLeaves() {
+		leavesOutdated = true;
+	}
+
+	/**
+	 * Makes sure the child lists and the leaf layout are up to date (see
+	 * {@link #invalidateLeaves()}). This has to be called before the leaf
+	 * layout is used. If several threads read the tree, the first one
+	 * calculates the layout while the others wait, and resetting the volatile
+	 * {@link #leavesOutdated} afterwards publishes the new layout to all
+	 * threads.
+	 */
+	protected void ensureLeaves() {
+		if (leavesOutdated) {
+			synchronized (this) {
+				if (leavesOutdated) {
+					updateLeaves();
+					leavesOutdated = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the child lists and the leaf layout (see
+	 * {@link #initLeaves()}) again after the tree was changed. This takes
+	 * linear time in the size of the tree.
+	 */
+	private void updateLeaves() {
+		ensureChildLists();
+		leafFirst = createIntArray(numNodes);
+		leafEnd = createIntArray(numNodes);
+		nodeDepth = createIntArray(numNodes);
+		initLeaves();
+	}
+
+	/**
+	 * Initializes the {@link #leafSuffix}, {@link #leafFirst},
+	 * {@link #leafEnd} and {@link #nodeDepth} arrays by a depth-first
+	 * traversal using an explicit stack. A node is pushed twice: once for
+	 * entering it (as is) and once for leaving it after all children (as its
+	 * bitwise complement).
+	 */
+	protected void initLeaves() {
+		leafSuffix = new int[16];
+		int numLeaves = 0;
+		int[] stack = new int[16];
+		int size = 0;
+		stack[size++] = 0;
+		while (size > 0) {
+			int node = stack[--size];
+			if (node < 0) {
+				leafEnd.set(~node, numLeaves);
+				continue;
+			}
+
+			leafFirst.set(node, numLeaves);
+			if (nodeChildFirst.get(node) < 0) {
+				// leaves inserted before the tree was extended end at their
+				// sentinel and not at the end of the word
+				int suffix = nodeWordEnd.get(node) - nodeDepth.get(node);
+				if (isLeafIncluded(suffix)) {
+					if (numLeaves == leafSuffix.length) {
+						leafSuffix = Arrays.copyOf(leafSuffix, 2 * numLeaves);
+					}
+					leafSuffix[numLeaves++] = suffix;
+				}
+				leafEnd.set(node, numLeaves);
+				continue;
+			}
+
+			// push the children in reverse order, so they are visited in
+			// order
+			int firstChild = ++size;
+			for (int e = nodeChildFirst.get(node); e >= 0; e = nodeChildNext
+					.get(e)) {
+				if (size + 1 >= stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				int child = nodeChildNode.get(e);
+				nodeDepth.set(child, nodeDepth.get(node)
+						+ nodeWordEnd.get(child) - nodeWordBegin.get(child));
+				stack[size++] = child;
+			}
+			stack[firstChild - 1] = ~node;
+			for (int i = firstChild, j = size - 1; i < j; ++i, --j) {
+				int tmp = stack[i];
+				stack[i] = stack[j];
+				stack[j] = tmp;
+			}
+		}
+		leafSuffix = Arrays.copyOf(leafSuffix, numLeaves);
+	}
+
+	/**
+	 * Returns whether the leaf of the suffix starting at the given position is
+	 * included in the leaf layout by {@link #initLeaves()}. Excluded leaves
+	 * get an empty range, so they are neither counted nor reported. This
+	 * includes all leaves, but allows subclasses to hide parts of the word.
+	 * Note that this is already called from the constructor.
+	 */
+	protected boolean isLeafIncluded(int suffix) {
+		return true;
+	}
+
+	/**
+	 * Returns the number of leaves reachable from the given node (1 for
+	 * leaves).
+	 */
+	protected int getLeafCount(int node) {
+		ensureLeaves();
+		return leafEnd.get(node) - leafFirst.get(node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRootChild(int symbol) {
+		return nextNode.get(0, symbol);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFirstEdge(long node) {
+		ensureLeaves();
+		return nodeChildFirst.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getNextEdge(long node, long edge) {
+		return nodeChildNext.get((int) edge);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getEdgeTarget(long edge) {
+		return nodeChildNode.get((int) edge);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getEdgeBegin(long node) {
+		return nodeWordBegin.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getEdgeLength(long node) {
+		return nodeWordEnd.get((int) node) - nodeWordBegin.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDepth(long node) {
+		ensureLeaves();
+		return nodeDepth.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafFirst(long node) {
+		ensureLeaves();
+		return leafFirst.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafEnd(long node) {
+		ensureLeaves();
+		return leafEnd.get((int) node);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getLeafSuffix(int leaf) {
+		ensureLeaves();
+		return leafSuffix[leaf];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The clone classes are the inner nodes of the tree, as the word along
+	 * the path to an inner node can not be extended to the right without
+	 * losing an occurrence. Of these, only the nodes whose leaves are not all
+	 * preceded by the same character are reported.
+	 */
+	@Override
+	public void findClones(int minLength, ICloneReporter reporter)
+			throws ConQATException {
+		ensureLeaves();
+		int[] changes = MaximalRepeats.countLeftChanges(symbols, leafSuffix,
+				leafSuffix.length);
+		for (int node = 1; node < numNodes; ++node) {
+			if (nodeChildFirst.get(node) < 0 || nodeDepth.get(node) < minLength
+					|| !MaximalRepeats.isLeftMaximal(changes,
+							leafFirst.get(node), leafEnd.get(node))) {
+				continue;
+			}
+			MaximalRepeats.reportCloneClass(reporter, leafSuffix,
+					leafFirst.get(node), leafEnd.get(node),
+					nodeDepth.get(node));
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link CloneDetectingSuffixTree#append(List, int[])}: a tree
+ * extended part by part must equal the tree built for the whole word at once.
+ * Run the main method; a failed check throws an {@link AssertionError}.
+ */
+class CloneDetectingSuffixTreeAppendTest {
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("suffixtree", ".bin");
+		try {
+			for (int[] symbols : CloneDetectingSuffixArrayTest.createWords()) {
+				checkAppend(symbols, false, null);
+				checkAppend(symbols, true, null);
+			}
+			List<int[]> words = CloneDetectingSuffixArrayTest.createWords();
+			for (int i = 0; i < words.size(); i += 10) {
+				checkAppend(words.get(i), false, file);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+		for (int seed = 0; seed < 10; ++seed) {
+			checkParallelSearch(new Random(seed));
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Builds a tree for the first part of the word (up to its first sentinel)
+	 * and appends the remaining parts (each up to the next sentinel), which
+	 * must yield the same nodes and clones as the tree of the whole word.
+	 * 
+	 * @param queryBetween
+	 *            whether the tree is compared after each append or only after
+	 *            appending all parts.
+	 * @param file
+	 *            if not null, the first tree is written to this file and
+	 *            loaded before appending.
+	 */
+	private static void checkAppend(int[] symbols, boolean queryBetween,
+			Path file) throws Exception {
+		List<int[]> parts = splitAtSentinels(symbols);
+		CloneDetectingSuffixTree tree = new CloneDetectingSuffixTree(parts
+				.get(0));
+		if (file != null) {
+			SuffixTreeFile.write(tree, file);
+			tree = SuffixTreeFile.load(file, null, null);
+		}
+		int length = parts.get(0).length;
+		for (int i = 1; i < parts.size(); ++i) {
+			tree.append(parts.get(i));
+			length += parts.get(i).length;
+			if (queryBetween || i == parts.size() - 1) {
+				compare(tree, Arrays.copyOf(symbols, length));
+			}
+		}
+		if (parts.size() == 1) {
+			compare(tree, symbols);
+		}
+	}
+
+	/** Splits the word after each sentinel. */
+	private static List<int[]> splitAtSentinels(int[] symbols) {
+		List<int[]> parts = new ArrayList<int[]>();
+		int start = 0;
+		for (int i = 0; i < symbols.length; ++i) {
+			if (symbols[i] < 0) {
+				parts.add(Arrays.copyOfRange(symbols, start, i + 1));
+				start = i + 1;
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Checks that the tree yields the same clones and nodes as the tree built
+	 * for the given word. The clones are compared first, as this uses the leaf
+	 * layout without the accessors of {@link ISuffixIndex}.
+	 */
+	private static void compare(CloneDetectingSuffixTree tree, int[] symbols)
+			throws Exception {
+		CloneDetectingSuffixTree expected = new CloneDetectingSuffixTree(
+				symbols.clone());
+		for (int minLength = 1; minLength <= 4; ++minLength) {
+			if (!CloneDetectingSuffixArrayTest.findClones(expected, minLength)
+					.equals(CloneDetectingSuffixArrayTest.findClones(tree,
+							minLength))) {
+				throw new AssertionError("Different clones after appending to "
+						+ Arrays.toString(symbols) + " for min length "
+						+ minLength);
+			}
+		}
+		if (!CloneDetectingSuffixArrayTest.traverse(expected, symbols).equals(
+				CloneDetectingSuffixArrayTest.traverse(tree, symbols))) {
+			throw new AssertionError("Different nodes after appending to "
+					+ Arrays.toString(symbols));
+		}
+	}
+
+	/**
+	 * Checks that the approximate search with several threads on an extended
+	 * tree, whose leaf layout is only calculated when the threads first read
+	 * it, yields the same clones as the sequential search on the tree of the
+	 * whole word.
+	 */
+	private static void checkParallelSearch(Random random)
+			throws ConQATException {
+		int[] symbols = CloneDetectingSuffixArrayTest
+				.createApproximateWord(random, 3000);
+		List<PhpToken> tokens = CloneDetectingSuffixArrayTest
+				.createTokens(symbols);
+		List<int[]> parts = splitAtSentinels(symbols);
+		CloneDetectingSuffixTree tree = new CloneDetectingSuffixTree(parts
+				.get(0));
+		for (int i = 1; i < parts.size(); ++i) {
+			tree.append(parts.get(i));
+		}
+
+		String expected = CloneDetectingSuffixArrayTest.findApproximateClones(
+				tokens, symbols, new CloneDetectingSuffixTree(symbols.clone()),
+				1);
+		String actual = CloneDetectingSuffixArrayTest.findApproximateClones(
+				tokens, symbols, tree, 4);
+		if (!expected.equals(actual)) {
+			throw new AssertionError("Different approximate clones after "
+					+ "appending:\n" + expected + "\n" + actual);
+		}
+	}
+}
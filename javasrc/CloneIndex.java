@@ -0,0 +1,838 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the chunks of all files, i.e. of the hashes of all windows of
+ * {@link #chunkLength} consecutive tokens, which can be used for finding exact
+ * clones without holding the whole word in memory (see B. Hummel et al.:
+ * "Index-Based Code Clone Detection: Incremental, Distributed, Scalable").
+ * <p>
+ * For each chunk an entry of its hash and a reference to its file and
+ * position is stored, sorted by hash. Clones are runs of consecutive chunks
+ * of one file, whose hashes are found at consecutive positions elsewhere.
+ * Adding, replacing or removing a file does not touch the other files: the
+ * entries of an added file are sorted and kept in runs of sorted entries
+ * (see {@link #runStarts}), while entries of removed files are only skipped
+ * until the index is written again.
+ * <p>
+ * An index can be written to a file (see {@link #write(Path)}) and opened
+ * again (see {@link #open(Path)}). Opening only decodes the file names; the
+ * chunks and the sorted entries are memory mapped and read on demand, so
+ * the index does not have to fit into the heap.
+ */
+public class CloneIndex {
+
+	/** The magic number at the start of each file ("CIDX"). */
+	private static final int MAGIC = 0x43494458;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/** Size of the header in bytes. */
+	private static final int HEADER_SIZE = 20;
+
+	/** The factor of the polynomial rolling hash used for the chunks. */
+	private static final long PRIME = 0x100000001B3L;
+
+	/** The number of tokens per chunk. */
+	private final int chunkLength;
+
+	/**
+	 * The factor of the first token of a chunk in its hash, i.e.
+	 * {@link #PRIME} to the power of {@link #chunkLength} - 1.
+	 */
+	private final long leadingFactor;
+
+	/** The chunks of the files indexed by file id (null if removed). */
+	private final List<FileChunks> files = new ArrayList<FileChunks>();
+
+	/** Maps the names of the files to their ids. */
+	private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+
+	/** The hashes of the entries read from a file, sorted ascending. */
+	private LongArray baseHashes = new LongArray(0, false);
+
+	/**
+	 * The references of the entries read from a file (see
+	 * {@link #ref(int, int)}), sorted ascending for equal hashes.
+	 */
+	private LongArray baseRefs = new LongArray(0, false);
+
+	/** The hashes of the entries added since (see {@link #runStarts}). */
+	private LongArray addedHashes = new LongArray(16, false);
+
+	/** The references of the entries added since. */
+	private LongArray addedRefs = new LongArray(16, false);
+
+	/** The number of entries added since. */
+	private int numAdded = 0;
+
+	/**
+	 * The start of each run of the added entries. Each run is sorted like the
+	 * {@link #baseHashes} and contains the entries of consecutively added
+	 * files, so the files of a run have smaller ids than those of the next
+	 * run. Each run is more than twice as large as the next one (see
+	 * {@link #mergeRuns()}), so there are only logarithmically many runs and
+	 * each entry is merged a logarithmic number of times.
+	 */
+	private int[] runStarts = new int[16];
+
+	/** The number of runs of added entries. */
+	private int numRuns = 0;
+
+	/** Buffer used for collecting the references of equal chunks. */
+	private long[] refBuffer = new long[16];
+
+	/**
+	 * Creates an empty index.
+	 * 
+	 * @param chunkLength
+	 *            the number of tokens per chunk, which is the minimal length
+	 *            of the clones found.
+	 */
+	public CloneIndex(int chunkLength) {
+		if (chunkLength < 1) {
+			throw new IllegalArgumentException("Chunk length must be positive: "
+					+ chunkLength);
+		}
+		this.chunkLength = chunkLength;
+		long factor = 1;
+		for (int i = 1; i < chunkLength; ++i) {
+			factor *= PRIME;
+		}
+		leadingFactor = factor;
+	}
+
+	/**
+	 * Opens an index written by {@link #write(Path)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read or is not a clone index.
+	 */
+	public static CloneIndex open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(
+								Channels.newInputStream(channel), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a clone index file: " + file);
+			}
+			CloneIndex index = new CloneIndex(in.readInt());
+			String[] names = new String[in.readInt()];
+			int numEntries = in.readInt();
+			int[] numChunks = new int[names.length];
+			long position = HEADER_SIZE;
+			for (int i = 0; i < names.length; ++i) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				names[i] = new String(bytes, StandardCharsets.UTF_8);
+				numChunks[i] = in.readInt();
+				position += 8 + bytes.length;
+			}
+			if (channel.size() < position + 32L * numEntries) {
+				throw new IOException("Truncated clone index file: " + file);
+			}
+
+			LongArray hashes = LongArray.map(channel, position, numEntries);
+			position += 8L * numEntries;
+			IntArray startLines = IntArray.map(channel, position, numEntries);
+			position += 4L * numEntries;
+			IntArray endLines = IntArray.map(channel, position, numEntries);
+			position += 4L * numEntries;
+			index.baseHashes = LongArray.map(channel, position, numEntries);
+			position += 8L * numEntries;
+			index.baseRefs = LongArray.map(channel, position, numEntries);
+
+			int offset = 0;
+			for (int i = 0; i < names.length; ++i) {
+				index.fileIds.put(names[i], i);
+				index.files.add(new FileChunks(names[i], hashes, startLines,
+						endLines, offset, numChunks[i]));
+				offset += numChunks[i];
+			}
+			return index;
+		}
+	}
+
+	/** Returns the number of tokens per chunk. */
+	public int getChunkLength() {
+		return chunkLength;
+	}
+
+	/**
+	 * Adds the given tokens of a file (without sentinels) to the index,
+	 * replacing a file of the same name. This takes O(n log n) time for the n
+	 * tokens of the file, plus the amortized time of merging its entries with
+	 * those added before (see {@link #runStarts}).
+	 */
+	public void addFile(String name, List<PhpToken> tokens) {
+		removeFile(name);
+
+		int numChunks = Math.max(0, tokens.size() - chunkLength + 1);
+		LongArray hashes = new LongArray(numChunks, false);
+		IntArray startLines = new IntArray(numChunks, false);
+		IntArray endLines = new IntArray(numChunks, false);
+		long hash = 0;
+		for (int i = 0; i < tokens.size(); ++i) {
+			if (i >= chunkLength) {
+				hash -= leadingFactor
+						* tokens.get(i - chunkLength).getContentHash();
+			}
+			hash = hash * PRIME + tokens.get(i).getContentHash();
+			int start = i - chunkLength + 1;
+			if (start >= 0) {
+				hashes.set(start, hash);
+				startLines.set(start, tokens.get(start).line);
+				endLines.set(start, tokens.get(i).line);
+			}
+		}
+
+		int file = files.size();
+		files.add(new FileChunks(name, hashes, startLines, endLines, 0,
+				numChunks));
+		fileIds.put(name, file);
+		if (numAdded + numChunks > addedHashes.length()) {
+			int capacity = Math.max(numAdded + numChunks,
+					2 * addedHashes.length());
+			addedHashes = addedHashes.copyOf(capacity);
+			addedRefs = addedRefs.copyOf(capacity);
+		}
+		int start = numAdded;
+		for (int i = 0; i < numChunks; ++i) {
+			addedHashes.set(numAdded, hashes.get(i));
+			addedRefs.set(numAdded++, ref(file, i));
+		}
+		if (numChunks > 0) {
+			sortRun(start);
+			if (numRuns == runStarts.length) {
+				runStarts = Arrays.copyOf(runStarts, 2 * numRuns);
+			}
+			runStarts[numRuns++] = start;
+			mergeRuns();
+		}
+	}
+
+	/**
+	 * Adds the files of the given tokens (see {@link #addFile(String, List)}
+	 * ), which are split at sentinels and wherever the file of the tokens
+	 * changes.
+	 */
+	public void addFiles(List<PhpToken> tokens) {
+		int start = 0;
+		for (int i = 0; i <= tokens.size(); ++i) {
+			if (i < tokens.size() && !(tokens.get(i) instanceof Sentinel)
+					&& tokens.get(i).file.equals(tokens.get(start).file)) {
+				continue;
+			}
+			if (i > start) {
+				addFile(tokens.get(start).file, tokens.subList(start, i));
+			}
+			start = i;
+			if (i < tokens.size() && tokens.get(i) instanceof Sentinel) {
+				++start;
+			}
+		}
+	}
+
+	/**
+	 * Removes the file of the given name from the index.
+	 * 
+	 * @return whether the file was contained.
+	 */
+	public boolean removeFile(String name) {
+		Integer file = fileIds.remove(name);
+		if (file == null) {
+			return false;
+		}
+		files.set(file, null);
+		return true;
+	}
+
+	/**
+	 * Writes the index to the given file, leaving out all entries of removed
+	 * files. The file is replaced atomically, so it may also be the one the
+	 * index was opened from.
+	 */
+	public void write(Path file) throws IOException {
+		List<FileChunks> remaining = new ArrayList<FileChunks>();
+		int[] newIds = new int[files.size()];
+		for (int i = 0; i < files.size(); ++i) {
+			newIds[i] = -1;
+			if (files.get(i) != null) {
+				newIds[i] = remaining.size();
+				remaining.add(files.get(i));
+			}
+		}
+		List<EntryCursor> cursors = new ArrayList<EntryCursor>();
+		cursors.add(new EntryCursor(baseHashes, baseRefs, 0, baseHashes
+				.length(), newIds));
+		for (int run = 0; run < numRuns; ++run) {
+			cursors.add(new EntryCursor(addedHashes, addedRefs,
+					runStarts[run], getRunEnd(run), newIds));
+		}
+		writeIndex(file, chunkLength, remaining, cursors);
+	}
+
+	/**
+	 * Merges the given index files (e.g. written for disjoint parts of the
+	 * files by separate processes) into one index file. The entries are
+	 * streamed from the memory mapped inputs, so the merged index does not
+	 * have to fit into the heap.
+	 * 
+	 * @throws IOException
+	 *             if the indexes differ in their chunk length or contain files
+	 *             of the same name.
+	 */
+	public static void merge(List<Path> indexFiles, Path file)
+			throws IOException {
+		List<FileChunks> files = new ArrayList<FileChunks>();
+		List<EntryCursor> cursors = new ArrayList<EntryCursor>();
+		Set<String> names = new HashSet<String>();
+		int chunkLength = 0;
+		for (Path indexFile : indexFiles) {
+			CloneIndex index = open(indexFile);
+			if (chunkLength != 0 && chunkLength != index.chunkLength) {
+				throw new IOException("Different chunk length in "
+						+ indexFile);
+			}
+			chunkLength = index.chunkLength;
+			int[] newIds = new int[index.files.size()];
+			for (int i = 0; i < newIds.length; ++i) {
+				FileChunks chunks = index.files.get(i);
+				if (!names.add(chunks.name)) {
+					throw new IOException("Duplicate file " + chunks.name
+							+ " in " + indexFile);
+				}
+				newIds[i] = files.size();
+				files.add(chunks);
+			}
+			cursors.add(new EntryCursor(index.baseHashes, index.baseRefs, 0,
+					index.baseHashes.length(), newIds));
+		}
+		writeIndex(file, Math.max(1, chunkLength), files, cursors);
+	}
+
+	/**
+	 * Writes an index file of the given files and the (merged) entries of
+	 * the given cursors. The file is written to a temporary file first and
+	 * then moved into place atomically.
+	 */
+	private static void writeIndex(Path file, int chunkLength,
+			List<FileChunks> files, List<EntryCursor> cursors)
+			throws IOException {
+		long numEntries = 0;
+		for (FileChunks chunks : files) {
+			numEntries += chunks.numChunks;
+		}
+		if (numEntries > Integer.MAX_VALUE) {
+			throw new IOException("Too many chunks for a clone index file.");
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(chunkLength);
+			out.writeInt(files.size());
+			out.writeInt((int) numEntries);
+			for (FileChunks chunks : files) {
+				byte[] bytes = chunks.name.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(chunks.numChunks);
+			}
+			for (FileChunks chunks : files) {
+				for (int i = 0; i < chunks.numChunks; ++i) {
+					out.writeLong(chunks.getHash(i));
+				}
+			}
+			for (FileChunks chunks : files) {
+				for (int i = 0; i < chunks.numChunks; ++i) {
+					out.writeInt(chunks.getStartLine(i));
+				}
+			}
+			for (FileChunks chunks : files) {
+				for (int i = 0; i < chunks.numChunks; ++i) {
+					out.writeInt(chunks.getEndLine(i));
+				}
+			}
+			writeMergedEntries(out, cursors, false);
+			writeMergedEntries(out, cursors, true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes either the hashes or the (new) references of the entries of the
+	 * given cursors, merged in ascending order. As the new ids of each cursor
+	 * preserve the order of its files, the result is sorted again.
+	 */
+	private static void writeMergedEntries(DataOutputStream out,
+			List<EntryCursor> cursors, boolean writeRefs) throws IOException {
+		for (EntryCursor cursor : cursors) {
+			cursor.reset();
+		}
+		while (true) {
+			EntryCursor next = null;
+			for (EntryCursor cursor : cursors) {
+				if (cursor.hasEntry()
+						&& (next == null || isLess(cursor.getHash(),
+								cursor.getNewRef(), next.getHash(),
+								next.getNewRef()))) {
+					next = cursor;
+				}
+			}
+			if (next == null) {
+				return;
+			}
+			if (writeRefs) {
+				out.writeLong(next.getNewRef());
+			} else {
+				out.writeLong(next.getHash());
+			}
+			next.advance();
+		}
+	}
+
+	/**
+	 * Sorts the added entries from the given start on, which are the entries
+	 * of a single file.
+	 */
+	private void sortRun(final int start) {
+		SortableDataUtils.sort(new ISortableData() {
+			@Override
+			public int size() {
+				return numAdded - start;
+			}
+
+			@Override
+			public boolean isLess(int i, int j) {
+				return CloneIndex.isLess(addedHashes.get(start + i),
+						addedRefs.get(start + i), addedHashes.get(start + j),
+						addedRefs.get(start + j));
+			}
+
+			@Override
+			public void swap(int i, int j) {
+				long hash = addedHashes.get(start + i);
+				addedHashes.set(start + i, addedHashes.get(start + j));
+				addedHashes.set(start + j, hash);
+				long ref = addedRefs.get(start + i);
+				addedRefs.set(start + i, addedRefs.get(start + j));
+				addedRefs.set(start + j, ref);
+			}
+		});
+	}
+
+	/**
+	 * Merges the last two runs of added entries as long as the last run is at
+	 * least half as large as the one before (see {@link #runStarts}).
+	 */
+	private void mergeRuns() {
+		while (numRuns >= 2
+				&& getRunSize(numRuns - 2) <= 2 * getRunSize(numRuns - 1)) {
+			mergeLastRuns();
+		}
+	}
+
+	/** Merges the last two runs of added entries into one. */
+	private void mergeLastRuns() {
+		int start = runStarts[numRuns - 2];
+		int middle = runStarts[numRuns - 1];
+		long[] hashes = new long[numAdded - start];
+		long[] refs = new long[numAdded - start];
+		for (int i = start, j = middle, k = 0; k < hashes.length; ++k) {
+			if (j == numAdded
+					|| (i < middle && isLess(addedHashes.get(i),
+							addedRefs.get(i), addedHashes.get(j),
+							addedRefs.get(j)))) {
+				hashes[k] = addedHashes.get(i);
+				refs[k] = addedRefs.get(i++);
+			} else {
+				hashes[k] = addedHashes.get(j);
+				refs[k] = addedRefs.get(j++);
+			}
+		}
+		for (int k = 0; k < hashes.length; ++k) {
+			addedHashes.set(start + k, hashes[k]);
+			addedRefs.set(start + k, refs[k]);
+		}
+		--numRuns;
+	}
+
+	/** Returns the number of entries of the given run of added entries. */
+	private int getRunSize(int run) {
+		return getRunEnd(run) - runStarts[run];
+	}
+
+	/** Returns the end of the given run of added entries. */
+	private int getRunEnd(int run) {
+		if (run + 1 < numRuns) {
+			return runStarts[run + 1];
+		}
+		return numAdded;
+	}
+
+	/** Returns whether the first entry is ordered before the second one. */
+	private static boolean isLess(long hash1, long ref1, long hash2, long ref2) {
+		return hash1 < hash2 || (hash1 == hash2 && ref1 < ref2);
+	}
+
+	/**
+	 * Reports all exact clones of at least the given length (which must not
+	 * be smaller than the {@link #chunkLength}). Each clone class is a
+	 * maximal repeat of chunks, i.e. it can be extended neither to the left
+	 * nor to the right for all of its instances. Its instances are ordered by
+	 * file and position.
+	 */
+	public void findClones(int minLength, IFileCloneReporter reporter)
+			throws ConQATException {
+		findClones(minLength, reporter, 0, 1);
+	}
+
+	/**
+	 * Reports the given part of the clones of
+	 * {@link #findClones(int, IFileCloneReporter)} if they are divided into
+	 * the given number of parts. Each clone class belongs to exactly one part
+	 * (depending on the file of its first instance), so the parts can be
+	 * searched independently, e.g. by separate processes sharing the index
+	 * file.
+	 */
+	public void findClones(int minLength, IFileCloneReporter reporter,
+			int part, int numParts) throws ConQATException {
+		if (part < 0 || part >= numParts) {
+			throw new IllegalArgumentException("Invalid part " + part + " of "
+					+ numParts);
+		}
+		if (minLength < chunkLength) {
+			throw new IllegalArgumentException("Clones shorter than the "
+					+ "chunk length can not be found: " + minLength);
+		}
+		for (int file = part; file < files.size(); file += numParts) {
+			if (files.get(file) != null) {
+				findClones(file, minLength - chunkLength + 1, reporter);
+			}
+		}
+	}
+
+	/**
+	 * Reports the clone classes whose first instance is in the given file.
+	 * For each chunk this collects the references of all equal chunks and
+	 * the number of consecutive chunks they stay equal (the run), which is
+	 * calculated from the end of the file.
+	 */
+	private void findClones(int file, int minChunks,
+			IFileCloneReporter reporter) throws ConQATException {
+		FileChunks chunks = files.get(file);
+		long[][] refs = new long[chunks.numChunks + 1][];
+		int[][] runs = new int[chunks.numChunks + 1][];
+		refs[chunks.numChunks] = new long[0];
+		for (int i = chunks.numChunks - 1; i >= 0; --i) {
+			refs[i] = collectEqualChunks(chunks.getHash(i), ref(file, i));
+			runs[i] = new int[refs[i].length];
+			long[] next = refs[i + 1];
+			for (int j = 0, k = 0; j < refs[i].length; ++j) {
+				long target = refs[i][j] + 1;
+				while (k < next.length && next[k] < target) {
+					++k;
+				}
+				if (k < next.length && next[k] == target) {
+					runs[i][j] = runs[i + 1][k] + 1;
+				} else {
+					runs[i][j] = 1;
+				}
+			}
+		}
+
+		for (int i = 0; i < chunks.numChunks; ++i) {
+			long[] previous = null;
+			if (i > 0) {
+				previous = refs[i - 1];
+			}
+			reportClones(file, i, refs[i], runs[i], previous, minChunks,
+					reporter);
+		}
+	}
+
+	/**
+	 * Reports the clone classes starting at the given chunk. The instances
+	 * are considered by decreasing run, so each distinct run gives a clone
+	 * class containing all instances with at least this run. A class is only
+	 * reported from its first instance and only if it is left-maximal, i.e.
+	 * the chunk before some instance differs from the one before the given
+	 * chunk.
+	 * 
+	 * @param previous
+	 *            the references equal to the chunk before or null if this is
+	 *            the first chunk of its file.
+	 */
+	private void reportClones(int file, int chunk, long[] refs, int[] runs,
+			long[] previous, int minChunks, IFileCloneReporter reporter)
+			throws ConQATException {
+		long self = ref(file, chunk);
+		long[] order = new long[refs.length];
+		for (int i = 0; i < refs.length; ++i) {
+			order[i] = (long) runs[i] << 32 | i;
+		}
+		Arrays.sort(order);
+
+		boolean leftMaximal = previous == null;
+		for (int end = refs.length; end > 0;) {
+			int run = (int) (order[end - 1] >>> 32);
+			if (run < minChunks) {
+				return;
+			}
+			int first = end;
+			while (first > 0 && (int) (order[first - 1] >>> 32) == run) {
+				long ref = refs[(int) order[--first]];
+				if (ref < self) {
+					// reported from the first instance
+					return;
+				}
+				leftMaximal = leftMaximal || getChunk(ref) == 0
+						|| Arrays.binarySearch(previous, ref - 1) < 0;
+			}
+			end = first;
+			if (leftMaximal) {
+				long[] instances = new long[refs.length - first + 1];
+				instances[0] = self;
+				for (int i = first; i < refs.length; ++i) {
+					instances[i - first + 1] = refs[(int) order[i]];
+				}
+				Arrays.sort(instances);
+				reportCloneClass(instances, run, reporter);
+			}
+		}
+	}
+
+	/** Reports the given instances as clone class of the given run. */
+	private void reportCloneClass(long[] instances, int run,
+			IFileCloneReporter reporter) throws ConQATException {
+		reporter.startCloneClass(run + chunkLength - 1);
+		for (long instance : instances) {
+			FileChunks chunks = files.get(getFile(instance));
+			int chunk = getChunk(instance);
+			reporter.addClone(chunks.name, chunk, chunks.getStartLine(chunk),
+					chunks.getEndLine(chunk + run - 1));
+		}
+		reporter.completeCloneClass();
+	}
+
+	/**
+	 * Returns the references of all chunks of remaining files with the given
+	 * hash in ascending order, except for the given one. As the files of the
+	 * base entries and of each run have smaller ids than those of the next
+	 * run, the references can simply be concatenated.
+	 */
+	private long[] collectEqualChunks(long hash, long self) {
+		int count = collectEqualChunks(baseHashes, baseRefs, 0,
+				baseHashes.length(), hash, self, 0);
+		for (int run = 0; run < numRuns; ++run) {
+			count = collectEqualChunks(addedHashes, addedRefs,
+					runStarts[run], getRunEnd(run), hash, self, count);
+		}
+		return Arrays.copyOf(refBuffer, count);
+	}
+
+	/**
+	 * Appends the references of the given range of sorted entries with the
+	 * given hash to the {@link #refBuffer} (see
+	 * {@link #collectEqualChunks(long, long)}) and returns the new number of
+	 * references in the buffer.
+	 */
+	private int collectEqualChunks(LongArray hashes, LongArray refs,
+			int start, int end, long hash, long self, int count) {
+		// find the first entry with the hash
+		int low = start;
+		int high = end;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (hashes.get(mid) < hash) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		for (int i = low; i < end && hashes.get(i) == hash; ++i) {
+			long ref = refs.get(i);
+			if (ref == self || files.get(getFile(ref)) == null) {
+				continue;
+			}
+			if (count == refBuffer.length) {
+				refBuffer = Arrays.copyOf(refBuffer, 2 * count);
+			}
+			refBuffer[count++] = ref;
+		}
+		return count;
+	}
+
+	/** Returns the reference to the given chunk of a file. */
+	private static long ref(int file, int chunk) {
+		return (long) file << 32 | chunk;
+	}
+
+	/** Returns the file of a reference. */
+	private static int getFile(long ref) {
+		return (int) (ref >>> 32);
+	}
+
+	/** Returns the chunk of a reference. */
+	private static int getChunk(long ref) {
+		return (int) ref;
+	}
+
+	/**
+	 * A cursor over a sorted range of a table of entries, which maps the
+	 * references to new file ids (skipping entries of files without a new
+	 * id).
+	 */
+	private static class EntryCursor {
+
+		/** The hashes of the entries. */
+		private final LongArray hashes;
+
+		/** The references of the entries. */
+		private final LongArray refs;
+
+		/** The index of the first entry. */
+		private final int start;
+
+		/** The index after the last entry. */
+		private final int end;
+
+		/** The new ids of the files, which are negative for skipped files. */
+		private final int[] newIds;
+
+		/** The index of the current entry. */
+		private int index;
+
+		/** Constructor. */
+		public EntryCursor(LongArray hashes, LongArray refs, int start,
+				int end, int[] newIds) {
+			this.hashes = hashes;
+			this.refs = refs;
+			this.start = start;
+			this.end = end;
+			this.newIds = newIds;
+		}
+
+		/** Moves the cursor to the first entry. */
+		public void reset() {
+			index = start - 1;
+			advance();
+		}
+
+		/** Moves the cursor to the next entry which is not skipped. */
+		public void advance() {
+			do {
+				++index;
+			} while (index < end && newIds[getFile(refs.get(index))] < 0);
+		}
+
+		/** Returns whether the cursor points to an entry. */
+		public boolean hasEntry() {
+			return index < end;
+		}
+
+		/** Returns the hash of the current entry. */
+		public long getHash() {
+			return hashes.get(index);
+		}
+
+		/** Returns the reference of the current entry using the new id. */
+		public long getNewRef() {
+			long ref = refs.get(index);
+			return ref(newIds[getFile(ref)], getChunk(ref));
+		}
+	}
+
+	/**
+	 * The chunks of a file, which are stored in a range of arrays (shared by
+	 * all files read from an index file).
+	 */
+	private static class FileChunks {
+
+		/** The name of the file. */
+		private final String name;
+
+		/** The hashes of the chunks. */
+		private final LongArray hashes;
+
+		/** The lines of the first token of the chunks. */
+		private final IntArray startLines;
+
+		/** The lines of the last token of the chunks. */
+		private final IntArray endLines;
+
+		/** The index of the first chunk in the arrays. */
+		private final int offset;
+
+		/** The number of chunks. */
+		private final int numChunks;
+
+		/** Constructor. */
+		public FileChunks(String name, LongArray hashes, IntArray startLines,
+				IntArray endLines, int offset, int numChunks) {
+			this.name = name;
+			this.hashes = hashes;
+			this.startLines = startLines;
+			this.endLines = endLines;
+			this.offset = offset;
+			this.numChunks = numChunks;
+		}
+
+		/** Returns the hash of the given chunk. */
+		public long getHash(int chunk) {
+			return hashes.get(offset + chunk);
+		}
+
+		/** Returns the line of the first token of the given chunk. */
+		public int getStartLine(int chunk) {
+			return startLines.get(offset + chunk);
+		}
+
+		/** Returns the line of the last token of the given chunk. */
+		public int getEndLine(int chunk) {
+			return endLines.get(offset + chunk);
+		}
+	}
+}
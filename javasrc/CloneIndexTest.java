@@ -0,0 +1,263 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests for the {@link CloneIndex}, which must report the same clones as the
+ * {@link CloneDetectingSuffixTree} for the files closed by sentinels, after
+ * adding, replacing and removing files, writing and opening the index and
+ * merging index files. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class CloneIndexTest {
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("cloneindex");
+		try {
+			for (int seed = 0; seed < 300; ++seed) {
+				checkChanges(new Random(seed), directory);
+			}
+			for (int seed = 0; seed < 200; ++seed) {
+				checkMerge(new Random(seed), directory);
+			}
+		} finally {
+			try (DirectoryStream<Path> stream = Files
+					.newDirectoryStream(directory)) {
+				for (Path file : stream) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Adds random files to an index, replaces and removes some of them while
+	 * writing and opening the index in between and compares the clones found
+	 * with those of the suffix tree.
+	 */
+	private static void checkChanges(Random random, Path directory)
+			throws Exception {
+		int chunkLength = 1 + random.nextInt(6);
+		int minLength = chunkLength + random.nextInt(5);
+		int[] template = createTemplate(random);
+		int maxLength = random.nextBoolean() ? 20 : 200;
+
+		CloneIndex index = new CloneIndex(chunkLength);
+		List<int[]> files = new ArrayList<int[]>();
+		int numFiles = 1 + random.nextInt(10);
+		for (int i = 0; i < numFiles; ++i) {
+			files.add(createFile(random, template, i, maxLength));
+			index.addFile("f" + i, createTokens(files.get(i)));
+		}
+
+		Path indexFile = directory.resolve("index");
+		for (int i = random.nextInt(numFiles + 1); i > 0; --i) {
+			if (random.nextBoolean()) {
+				index.write(indexFile);
+				index = CloneIndex.open(indexFile);
+			}
+			int file = random.nextInt(numFiles);
+			if (random.nextBoolean()) {
+				if (index.removeFile("f" + file) != (files.get(file) != null)) {
+					throw new AssertionError("Unexpected removal of f" + file);
+				}
+				files.set(file, null);
+			} else {
+				int[] symbols = createFile(random, template, file, maxLength);
+				files.set(file, symbols);
+				index.addFile("f" + file, createTokens(symbols));
+			}
+		}
+		if (random.nextBoolean()) {
+			index.write(indexFile);
+			index = CloneIndex.open(indexFile);
+		}
+
+		compare(files, minLength, findClones(index, minLength, 1));
+	}
+
+	/**
+	 * Distributes random files to several indexes, merges their files and
+	 * compares the clones found in parts of the merged index with those of
+	 * the suffix tree.
+	 */
+	private static void checkMerge(Random random, Path directory)
+			throws Exception {
+		int chunkLength = 1 + random.nextInt(6);
+		int minLength = chunkLength + random.nextInt(5);
+		int[] template = createTemplate(random);
+
+		CloneIndex[] indexes = new CloneIndex[1 + random.nextInt(4)];
+		for (int i = 0; i < indexes.length; ++i) {
+			indexes[i] = new CloneIndex(chunkLength);
+		}
+		List<int[]> files = new ArrayList<int[]>();
+		int numFiles = 1 + random.nextInt(12);
+		for (int i = 0; i < numFiles; ++i) {
+			files.add(createFile(random, template, i, 100));
+			indexes[random.nextInt(indexes.length)].addFile("f" + i,
+					createTokens(files.get(i)));
+		}
+		int removed = random.nextInt(numFiles);
+		for (CloneIndex index : indexes) {
+			if (index.removeFile("f" + removed)) {
+				files.set(removed, null);
+			}
+		}
+
+		List<Path> indexFiles = new ArrayList<Path>();
+		for (int i = 0; i < indexes.length; ++i) {
+			indexFiles.add(directory.resolve("part" + i));
+			indexes[i].write(indexFiles.get(i));
+		}
+		Path merged = directory.resolve("merged");
+		CloneIndex.merge(indexFiles, merged);
+
+		compare(files, minLength, findClones(CloneIndex.open(merged),
+				minLength, 1 + random.nextInt(4)));
+	}
+
+	/** Returns a random template the files are derived from. */
+	private static int[] createTemplate(Random random) {
+		int[] template = new int[60];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(4);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns the symbols of a random file, which mostly repeats the template
+	 * from an offset depending on the given number.
+	 */
+	private static int[] createFile(Random random, int[] template,
+			int number, int maxLength) {
+		int[] symbols = new int[random.nextInt(maxLength)];
+		for (int i = 0; i < symbols.length; ++i) {
+			symbols[i] = random.nextInt(3) == 0 ? random.nextInt(5)
+					: template[(i + number) % template.length];
+		}
+		return symbols;
+	}
+
+	/** Returns tokens of the given symbols, each on the line of its index. */
+	private static List<PhpToken> createTokens(int[] symbols) {
+		List<PhpToken> tokens = new ArrayList<PhpToken>();
+		for (int i = 0; i < symbols.length; ++i) {
+			tokens.add(new PhpToken(0, "T", i, "f", "t" + symbols[i]));
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns the clone classes found by the index (in all of the given
+	 * number of parts), each described by its length and sorted instances.
+	 */
+	private static Set<String> findClones(CloneIndex index, int minLength,
+			int numParts) throws ConQATException {
+		final Set<String> result = new TreeSet<String>();
+		for (int part = 0; part < numParts; ++part) {
+			index.findClones(minLength, new IFileCloneReporter() {
+				private final List<String> instances = new ArrayList<String>();
+				private int length;
+
+				@Override
+				public void startCloneClass(int length) {
+					this.length = length;
+					instances.clear();
+				}
+
+				@Override
+				public void addClone(String file, int position,
+						int startLine, int endLine) {
+					if (startLine != position
+							|| endLine != position + length - 1) {
+						throw new AssertionError("Wrong lines " + startLine
+								+ "-" + endLine + " for " + file + ":"
+								+ position);
+					}
+					instances.add(file + ":" + position);
+				}
+
+				@Override
+				public void completeCloneClass() {
+					Collections.sort(instances);
+					if (!result.add(length + ":" + instances)) {
+						throw new AssertionError("Clone class reported twice: "
+								+ length + ":" + instances);
+					}
+				}
+			}, part, numParts);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that the given clones equal those the suffix tree finds for the
+	 * given files (removed ones are null), each closed by a sentinel.
+	 */
+	private static void compare(List<int[]> files, int minLength,
+			Set<String> actual) throws ConQATException {
+		List<Integer> symbols = new ArrayList<Integer>();
+		List<String> positions = new ArrayList<String>();
+		for (int file = 0; file < files.size(); ++file) {
+			if (files.get(file) == null) {
+				continue;
+			}
+			for (int i = 0; i <= files.get(file).length; ++i) {
+				positions.add("f" + file + ":" + i);
+				if (i < files.get(file).length) {
+					symbols.add(files.get(file)[i]);
+				} else {
+					symbols.add(-1 - file);
+				}
+			}
+		}
+		int[] word = new int[symbols.size()];
+		for (int i = 0; i < word.length; ++i) {
+			word[i] = symbols.get(i);
+		}
+
+		Set<String> expected = new TreeSet<String>();
+		for (String cloneClass : CloneDetectingSuffixArrayTest.findClones(
+				new CloneDetectingSuffixTree(word), minLength)) {
+			int colon = cloneClass.indexOf(':');
+			List<String> instances = new ArrayList<String>();
+			for (String position : cloneClass.substring(colon + 2,
+					cloneClass.length() - 1).split(", ")) {
+				instances.add(positions.get(Integer.parseInt(position)));
+			}
+			Collections.sort(instances);
+			expected.add(cloneClass.substring(0, colon) + ":" + instances);
+		}
+		if (!expected.equals(actual)) {
+			throw new AssertionError("Different clones for min length "
+					+ minLength + ":\n" + expected + "\n" + actual);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+/**
+ * Stores information on a clone found by the
+ * {@link ApproximateCloneDetectingSuffixTree}.
+ */
+/* package */class CloneInfo {
+
+	/** Length of the clone in tokens. */
+	public final int length;
+
+	/** Position in word list */
+	public final int position;
+
+	/** Number of occurrences of the clone. */
+	public final int occurrences;
+
+	/** The first token of the clone. */
+	public final PhpToken token;
+
+	/** Related clones */
+	public final PairList<Integer, Integer> otherClones;
+
+	/** Constructor. */
+	public CloneInfo(int length, int position, int occurrences,
+			PhpToken token, PairList<Integer, Integer> otherClones) {
+		this.length = length;
+		this.position = position;
+		this.occurrences = occurrences;
+		this.token = token;
+		this.otherClones = otherClones;
+	}
+
+	/**
+	 * Returns whether this clone info dominates the given one, i.e. whether
+	 * both {@link #length} and {@link #occurrences} s not smaller.
+	 * 
+	 * @param later
+	 *            The amount the given clone starts later than the "this"
+	 *            clone.
+	 */
+	public boolean dominates(CloneInfo ci, int later) {
+		return length - later >= ci.length && occurrences >= ci.occurrences;
+	}
+}
@@ -0,0 +1,191 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent storage for the clones found by the
+ * {@link ApproximateCloneDetectingSuffixTree}, so a later run can search
+ * incrementally (see
+ * {@link ApproximateCloneDetectingSuffixTree#findClones(int, int, int, List, List)}
+ * ).
+ * <p>
+ * As positions in the word change whenever files are added, removed or
+ * changed, each instance is stored by its file name, its offset in the
+ * tokens of the file and its length. When reading, the instances are mapped
+ * to positions in the current word. Instances in files which no longer
+ * exist or became too short get the position -1, so the incremental search
+ * discards their clones and searches their other instances again.
+ */
+public class CloneInfoFile {
+
+	/** The magic number at the start of each file ("CLNS"). */
+	private static final int MAGIC = 0x434C4E53;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/**
+	 * Writes the given clones, which were found in the given tokens, to a
+	 * file.
+	 */
+	public static void write(List<CloneInfo> clones, List<PhpToken> tokens,
+			Path file) throws IOException {
+		FileRanges ranges = new FileRanges(tokens);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(clones.size());
+			for (CloneInfo clone : clones) {
+				out.writeInt(clone.occurrences);
+				out.writeInt(clone.otherClones.size() + 1);
+				writeInstance(out, ranges, tokens, clone.position,
+						clone.length);
+				for (int i = 0; i < clone.otherClones.size(); ++i) {
+					writeInstance(out, ranges, tokens,
+							clone.otherClones.getFirst(i),
+							clone.otherClones.getSecond(i));
+				}
+			}
+		}
+	}
+
+	/** Writes the file, offset and length of an instance. */
+	private static void writeInstance(DataOutputStream out,
+			FileRanges ranges, List<PhpToken> tokens, int position, int length)
+			throws IOException {
+		String name = tokens.get(position).file;
+		out.writeUTF(name);
+		out.writeInt(position - ranges.getStart(name));
+		out.writeInt(length);
+	}
+
+	/**
+	 * Reads the clones stored in the given file as positions in the given
+	 * tokens (see the class comment).
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read or is not a clone file.
+	 */
+	public static List<CloneInfo> read(Path file, List<PhpToken> tokens)
+			throws IOException {
+		FileRanges ranges = new FileRanges(tokens);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a clone file: " + file);
+			}
+			int numClones = in.readInt();
+			if (numClones < 0) {
+				throw new IOException("Corrupt clone file: " + file);
+			}
+			List<CloneInfo> clones = new ArrayList<CloneInfo>();
+			for (int i = 0; i < numClones; ++i) {
+				int occurrences = in.readInt();
+				int numInstances = in.readInt();
+				if (numInstances < 1) {
+					throw new IOException("Corrupt clone file: " + file);
+				}
+				int position = readInstance(in, ranges);
+				int length = in.readInt();
+				PairList<Integer, Integer> otherClones = new PairList<Integer, Integer>();
+				for (int j = 1; j < numInstances; ++j) {
+					int otherPosition = readInstance(in, ranges);
+					otherClones.add(otherPosition, in.readInt());
+				}
+				PhpToken token = null;
+				if (position >= 0 && position < tokens.size()) {
+					token = tokens.get(position);
+				}
+				clones.add(new CloneInfo(length, position, occurrences, token,
+						otherClones));
+			}
+			return clones;
+		}
+	}
+
+	/**
+	 * Reads the file and offset of an instance and returns its position in
+	 * the current tokens or -1 if the file does not exist anymore. The length
+	 * is checked by the search, as the instance must not cross a sentinel.
+	 */
+	private static int readInstance(DataInputStream in, FileRanges ranges)
+			throws IOException {
+		String name = in.readUTF();
+		int offset = in.readInt();
+		int start = ranges.getStart(name);
+		if (start < 0 || offset < 0 || offset >= ranges.getLength(name)) {
+			return -1;
+		}
+		return start + offset;
+	}
+
+	/**
+	 * The range of positions of the tokens of each file, which is the first
+	 * run of consecutive tokens of the file in the word.
+	 */
+	private static class FileRanges {
+
+		/** The start and length of each file. */
+		private final Map<String, int[]> ranges = new HashMap<String, int[]>();
+
+		/** Constructor. */
+		public FileRanges(List<PhpToken> tokens) {
+			String previous = null;
+			for (int i = 0; i < tokens.size(); ++i) {
+				PhpToken token = tokens.get(i);
+				if (token instanceof Sentinel) {
+					previous = null;
+					continue;
+				}
+				int[] range = ranges.get(token.file);
+				if (range == null) {
+					ranges.put(token.file, new int[] { i, 1 });
+				} else if (token.file.equals(previous)
+						&& range[0] + range[1] == i) {
+					++range[1];
+				}
+				previous = token.file;
+			}
+		}
+
+		/** Returns the start of the given file or -1 if it does not exist. */
+		public int getStart(String name) {
+			int[] range = ranges.get(name);
+			if (range == null) {
+				return -1;
+			}
+			return range[0];
+		}
+
+		/** Returns the number of tokens of the given file. */
+		public int getLength(String name) {
+			return ranges.get(name)[1];
+		}
+	}
+}
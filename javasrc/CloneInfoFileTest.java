@@ -0,0 +1,286 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests for the {@link CloneInfoFile} and the incremental search of the
+ * {@link ApproximateCloneDetectingSuffixTree} using it: the clones of a
+ * first version of some files are stored, some files are changed, added or
+ * removed, and searching only the changed files using the stored clones must
+ * find the same clones as searching the new version completely. This covers
+ * an unchanged clone, a clone with an edited instance and a new clone in a
+ * changed file. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class CloneInfoFileTest {
+
+	/** The length of the clones placed in the files. */
+	private static final int CLONE_LENGTH = 60;
+
+	public static void main(String[] args) throws Exception {
+		for (int seed = 0; seed < 5; ++seed) {
+			checkIncrementalSearch(new Random(seed));
+		}
+		checkMissingFile();
+		System.out.println("OK");
+	}
+
+	/**
+	 * Searches a first version of the files, stores the clones and compares
+	 * the incremental search of the second version to the full one.
+	 */
+	private static void checkIncrementalSearch(Random random) throws Exception {
+		int[] unchanged = createSymbols(random, CLONE_LENGTH);
+		int[] edited = createSymbols(random, CLONE_LENGTH);
+		int[] added = createSymbols(random, CLONE_LENGTH);
+
+		Map<String, int[]> files = new LinkedHashMap<String, int[]>();
+		files.put("removed.php", createSymbols(random, 200));
+		files.put("a.php", concat(createSymbols(random, 300), unchanged,
+				createSymbols(random, 200)));
+		files.put("b.php", concat(createSymbols(random, 100), unchanged,
+				createSymbols(random, 100)));
+		files.put("c.php", concat(createSymbols(random, 150), edited,
+				createSymbols(random, 150)));
+		int[] d = concat(createSymbols(random, 200), edited,
+				createSymbols(random, 100));
+		files.put("d.php", d);
+		files.put("e.php", concat(createSymbols(random, 250), added,
+				createSymbols(random, 80)));
+		PhpTokenWord word1 = createWord(files);
+		ApproximateCloneDetectingSuffixTree search1 = createSearch(word1);
+		runSearch(search1, null, null);
+		List<CloneInfo> clones1 = search1.getRegisteredClones();
+		check(describe(clones1, word1).contains(
+				"[a.php:300:60, b.php:100:60]"), "unchanged clone not found");
+
+		Path clonesFile = Files.createTempFile("clones", ".bin");
+		try {
+			CloneInfoFile.write(clones1, word1.getTokens(), clonesFile);
+			check(describe(CloneInfoFile.read(clonesFile, word1.getTokens()),
+					word1).equals(describe(clones1, word1)),
+					"clones changed by writing and reading");
+
+			// remove a file, edit the instance of a clone (also moving it)
+			// and add a file with a new instance of a clone
+			files.remove("removed.php");
+			int[] newD = concat(createSymbols(random, 5), d);
+			for (int i = 0; i < 3; ++i) {
+				newD[5 + 200 + 10 + 15 * i] = createSymbols(random, 1)[0];
+			}
+			files.put("d.php", newD);
+			files.put("f.php", concat(createSymbols(random, 120), added,
+					createSymbols(random, 50)));
+			PhpTokenWord word2 = createWord(files);
+
+			ApproximateCloneDetectingSuffixTree full = createSearch(word2);
+			runSearch(full, null, null);
+			Set<String> expected = describe(full.getRegisteredClones(), word2);
+			check(expected.contains("[a.php:300:60, b.php:100:60]"),
+					"unchanged clone not found again");
+			check(contains(expected, "c.php:150:", "d.php:205:"),
+					"edited clone not found");
+			check(contains(expected, "e.php:250:60", "f.php:120:60"),
+					"new clone not found");
+
+			ApproximateCloneDetectingSuffixTree incremental = createSearch(word2);
+			runSearch(incremental,
+					getFileRegions(word2, Arrays.asList("d.php", "f.php")),
+					CloneInfoFile.read(clonesFile, word2.getTokens()));
+			Set<String> actual = describe(incremental.getRegisteredClones(),
+					word2);
+			check(expected.equals(actual), "incremental search found "
+					+ actual + " instead of " + expected);
+		} finally {
+			Files.delete(clonesFile);
+		}
+	}
+
+	/**
+	 * Checks that the instances of a stored clone in a file which does not
+	 * exist anymore get the position -1.
+	 */
+	private static void checkMissingFile() throws Exception {
+		Random random = new Random(0);
+		Map<String, int[]> files = new LinkedHashMap<String, int[]>();
+		files.put("a.php", createSymbols(random, 100));
+		files.put("b.php", createSymbols(random, 100));
+		PhpTokenWord word1 = createWord(files);
+		PairList<Integer, Integer> otherClones = new PairList<Integer, Integer>();
+		otherClones.add(101 + 30, 25);
+		List<CloneInfo> clones = Collections.singletonList(new CloneInfo(20,
+				10, 2, word1.getTokens().get(10), otherClones));
+
+		Path clonesFile = Files.createTempFile("clones", ".bin");
+		try {
+			CloneInfoFile.write(clones, word1.getTokens(), clonesFile);
+			files.remove("a.php");
+			PhpTokenWord word2 = createWord(files);
+			CloneInfo clone = CloneInfoFile.read(clonesFile,
+					word2.getTokens()).get(0);
+			check(clone.position == -1 && clone.length == 20,
+					"instance in removed file not dropped");
+			check(clone.otherClones.getFirst(0) == 30
+					&& clone.otherClones.getSecond(0) == 25,
+					"instance not moved");
+		} finally {
+			Files.delete(clonesFile);
+		}
+	}
+
+	/**
+	 * Creates the word of the given files, each followed by a sentinel. The
+	 * line of each token is its offset in its file.
+	 */
+	private static PhpTokenWord createWord(Map<String, int[]> files) {
+		PhpTokenWord word = new PhpTokenWord();
+		for (Map.Entry<String, int[]> file : files.entrySet()) {
+			int[] symbols = file.getValue();
+			for (int i = 0; i < symbols.length; ++i) {
+				word.add(new PhpToken(0, "T", i, file.getKey(), "t"
+						+ symbols[i]));
+			}
+			word.addSentinel();
+		}
+		return word;
+	}
+
+	/** Creates a search on a new suffix tree of the given word. */
+	private static ApproximateCloneDetectingSuffixTree createSearch(
+			PhpTokenWord word) {
+		List<PhpToken> tokens = word.getTokens();
+		int[] symbols = word.getSymbols();
+		return new ApproximateCloneDetectingSuffixTree(tokens, symbols,
+				new CloneDetectingSuffixTree(tokens, symbols)) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return character instanceof Sentinel;
+			}
+		};
+	}
+
+	/** Runs the search without printing the clones. */
+	private static void runSearch(ApproximateCloneDetectingSuffixTree search,
+			List<SimpleRegion> changedRegions, List<CloneInfo> previousClones)
+			throws Exception {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			search.findClones(20, 5, 3, changedRegions, previousClones);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/** Returns the regions of the tokens of the given files. */
+	private static List<SimpleRegion> getFileRegions(PhpTokenWord word,
+			List<String> names) {
+		List<SimpleRegion> regions = new ArrayList<SimpleRegion>();
+		List<PhpToken> tokens = word.getTokens();
+		for (int i = 0; i < tokens.size(); ++i) {
+			if (names.contains(tokens.get(i).file)
+					&& !(tokens.get(i) instanceof Sentinel)) {
+				regions.add(new SimpleRegion(i, i));
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * Describes each clone by the sorted files, offsets and lengths of its
+	 * instances, which do not depend on the positions in the word.
+	 */
+	private static Set<String> describe(List<CloneInfo> clones,
+			PhpTokenWord word) {
+		List<PhpToken> tokens = word.getTokens();
+		Set<String> result = new TreeSet<String>();
+		for (CloneInfo clone : clones) {
+			Set<String> instances = new TreeSet<String>();
+			instances.add(describe(tokens.get(clone.position), clone.length));
+			for (int i = 0; i < clone.otherClones.size(); ++i) {
+				instances.add(describe(
+						tokens.get(clone.otherClones.getFirst(i)),
+						clone.otherClones.getSecond(i)));
+			}
+			result.add(instances.toString());
+		}
+		return result;
+	}
+
+	/** Describes an instance starting at the given token. */
+	private static String describe(PhpToken token, int length) {
+		return token.file + ":" + token.line + ":" + length;
+	}
+
+	/**
+	 * Returns whether one of the described clones contains instances starting
+	 * with both given prefixes.
+	 */
+	private static boolean contains(Set<String> clones, String first,
+			String second) {
+		for (String clone : clones) {
+			if (clone.contains(first) && clone.contains(second)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Creates random symbols, which are unlikely to form other clones. */
+	private static int[] createSymbols(Random random, int length) {
+		int[] symbols = new int[length];
+		for (int i = 0; i < length; ++i) {
+			symbols[i] = random.nextInt(1000000);
+		}
+		return symbols;
+	}
+
+	/** Concatenates the given arrays. */
+	private static int[] concat(int[]... arrays) {
+		int length = 0;
+		for (int[] array : arrays) {
+			length += array.length;
+		}
+		int[] result = new int[length];
+		int offset = 0;
+		for (int[] array : arrays) {
+			System.arraycopy(array, 0, result, offset, array.length);
+			offset += array.length;
+		}
+		return result;
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
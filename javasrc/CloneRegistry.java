@@ -0,0 +1,222 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stores the clones found by the {@link ApproximateCloneDetectingSuffixTree}
+ * indexed by position, which is used to discard clones dominated by clones
+ * registered before (see {@link #register(CloneInfo)}).
+ * <p>
+ * Each registered clone is stored every {@link #INDEX_SPREAD} positions for
+ * each of its instances. These entries are packed into int arrays, one
+ * bucket per {@link #INDEX_SPREAD} positions, each entry holding the
+ * position, the remaining length and the number of occurrences.
+ * <p>
+ * Access is synchronized by locks for ranges of {@link #BUCKETS_PER_STRIPE}
+ * buckets, so clones may be registered concurrently. A registration acquires
+ * the locks of all ranges it touches in ascending order, so it is atomic and
+ * free of deadlocks. Note that which clone is discarded as dominated depends
+ * on the order of registration, so the
+ * {@link ApproximateCloneDetectingSuffixTree} still registers the clones
+ * found in parallel in order of their positions to keep its result
+ * deterministic.
+ */
+/* package */class CloneRegistry {
+
+	/** This is the distance between two entries of a clone in the registry. */
+	public static final int INDEX_SPREAD = 10;
+
+	/** The number of buckets guarded by the same lock. */
+	private static final int BUCKETS_PER_STRIPE = 128;
+
+	/** The number of ints used per entry. */
+	private static final int ENTRY_SIZE = 3;
+
+	/** Offset of the position in an entry. */
+	private static final int POSITION = 0;
+
+	/** Offset of the length in an entry. */
+	private static final int LENGTH = 1;
+
+	/** Offset of the number of occurrences in an entry. */
+	private static final int OCCURRENCES = 2;
+
+	/** The entries of each bucket (may be null for empty buckets). */
+	private final int[][] buckets;
+
+	/** The number of entries of each bucket. */
+	private final int[] bucketSizes;
+
+	/** The locks for the ranges of buckets. */
+	private final ReentrantLock[] locks;
+
+	/**
+	 * The registered clones in order of registration, which is guarded by
+	 * its own monitor.
+	 */
+	private final List<CloneInfo> clones = new ArrayList<CloneInfo>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param size
+	 *            the number of positions, i.e. the length of the word.
+	 */
+	public CloneRegistry(int size) {
+		int numBuckets = size / INDEX_SPREAD + 1;
+		buckets = new int[numBuckets][];
+		bucketSizes = new int[numBuckets];
+		locks = new ReentrantLock[numBuckets / BUCKETS_PER_STRIPE + 1];
+		for (int i = 0; i < locks.length; ++i) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Registers the given clone unless a clone starting at most
+	 * {@link #INDEX_SPREAD} positions before dominates it (see
+	 * {@link CloneInfo#dominates(CloneInfo, int)}). This may be called
+	 * concurrently.
+	 * 
+	 * @return whether the clone was registered.
+	 */
+	public boolean register(CloneInfo clone) {
+		int[] stripes = getStripes(clone);
+		for (int stripe : stripes) {
+			locks[stripe].lock();
+		}
+		try {
+			if (isDominated(clone)) {
+				return false;
+			}
+
+			synchronized (clones) {
+				clones.add(clone);
+			}
+			for (int i = 0; i < clone.length; i += INDEX_SPREAD) {
+				add(clone.position + i, clone.length - i, clone.occurrences);
+			}
+			for (int clone2 = 0; clone2 < clone.otherClones.size(); ++clone2) {
+				int start = clone.otherClones.getFirst(clone2);
+				int otherLength = clone.otherClones.getSecond(clone2);
+				for (int i = 0; i < otherLength; i += INDEX_SPREAD) {
+					add(start + i, otherLength - i, clone.occurrences);
+				}
+			}
+			return true;
+		} finally {
+			for (int stripe : stripes) {
+				locks[stripe].unlock();
+			}
+		}
+	}
+
+	/** Returns whether a clone registered before dominates the given one. */
+	private boolean isDominated(CloneInfo clone) {
+		int first = Math.max(0, clone.position - INDEX_SPREAD + 1);
+		for (int bucket = first / INDEX_SPREAD; bucket <= clone.position
+				/ INDEX_SPREAD; ++bucket) {
+			int[] entries = buckets[bucket];
+			for (int i = 0; i < bucketSizes[bucket]; i += ENTRY_SIZE) {
+				int position = entries[i + POSITION];
+				if (position < first || position > clone.position) {
+					continue;
+				}
+				// see CloneInfo.dominates()
+				int later = clone.position - position;
+				if (entries[i + LENGTH] - later >= clone.length
+						&& entries[i + OCCURRENCES] >= clone.occurrences) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Adds an entry for the given position. */
+	private void add(int position, int length, int occurrences) {
+		int bucket = position / INDEX_SPREAD;
+		int[] entries = buckets[bucket];
+		int size = bucketSizes[bucket];
+		if (entries == null) {
+			entries = buckets[bucket] = new int[2 * ENTRY_SIZE];
+		} else if (size == entries.length) {
+			entries = buckets[bucket] = Arrays.copyOf(entries, 2 * size);
+		}
+		entries[size + POSITION] = position;
+		entries[size + LENGTH] = length;
+		entries[size + OCCURRENCES] = occurrences;
+		bucketSizes[bucket] = size + ENTRY_SIZE;
+	}
+
+	/** Returns the index of the lock guarding the given position. */
+	private static int getStripe(int position) {
+		return position / INDEX_SPREAD / BUCKETS_PER_STRIPE;
+	}
+
+	/**
+	 * Returns the indices of the locks required for registering the given
+	 * clone in ascending order. These guard the positions checked for
+	 * domination and the positions of all instances.
+	 */
+	private static int[] getStripes(CloneInfo clone) {
+		int numOther = clone.otherClones.size();
+		int[] ranges = new int[2 * (numOther + 1)];
+		ranges[0] = getStripe(Math.max(0, clone.position - INDEX_SPREAD + 1));
+		ranges[1] = getStripe(clone.position + Math.max(1, clone.length) - 1);
+		for (int i = 0; i < numOther; ++i) {
+			int start = clone.otherClones.getFirst(i);
+			ranges[2 * i + 2] = getStripe(start);
+			ranges[2 * i + 3] = getStripe(start
+					+ Math.max(1, clone.otherClones.getSecond(i)) - 1);
+		}
+
+		// each pair of entries describes a range of stripes
+		int numStripes = 0;
+		int[] result = new int[ranges.length];
+		for (int i = 0; i < ranges.length; i += 2) {
+			for (int stripe = ranges[i]; stripe <= ranges[i + 1]; ++stripe) {
+				if (numStripes == result.length) {
+					result = Arrays.copyOf(result, 2 * numStripes);
+				}
+				result[numStripes++] = stripe;
+			}
+		}
+		Arrays.sort(result, 0, numStripes);
+
+		int numDistinct = 0;
+		for (int i = 0; i < numStripes; ++i) {
+			if (numDistinct == 0 || result[numDistinct - 1] != result[i]) {
+				result[numDistinct++] = result[i];
+			}
+		}
+		return Arrays.copyOf(result, numDistinct);
+	}
+
+	/**
+	 * Returns the registered clones in order of registration. This must not be
+	 * called concurrently to {@link #register(CloneInfo)}.
+	 */
+	public List<CloneInfo> getClones() {
+		return Collections.unmodifiableList(clones);
+	}
+}
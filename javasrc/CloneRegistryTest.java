@@ -0,0 +1,130 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for the {@link CloneRegistry}, which registers random clones from
+ * several threads at once. As each registration is atomic, the clones
+ * registered must be accepted again when registered sequentially in the same
+ * order, and each rejected clone must be dominated by them. Run the main
+ * method; a failed check throws an {@link AssertionError}.
+ */
+class CloneRegistryTest {
+
+	/** The length of the word the clones are placed in. */
+	private static final int WORD_LENGTH = 50000;
+
+	/** The number of threads registering clones. */
+	private static final int NUM_THREADS = 8;
+
+	public static void main(String[] args) throws Exception {
+		for (int seed = 0; seed < 20; ++seed) {
+			checkConcurrentRegistration(new Random(seed));
+		}
+		System.out.println("OK");
+	}
+
+	/** Registers random clones concurrently and checks the result. */
+	private static void checkConcurrentRegistration(Random random)
+			throws Exception {
+		final List<List<CloneInfo>> clonesPerThread = new ArrayList<List<CloneInfo>>();
+		List<CloneInfo> allClones = new ArrayList<CloneInfo>();
+		for (int i = 0; i < NUM_THREADS; ++i) {
+			List<CloneInfo> clones = new ArrayList<CloneInfo>();
+			for (int j = 0; j < 5000; ++j) {
+				clones.add(createClone(random));
+			}
+			clonesPerThread.add(clones);
+			allClones.addAll(clones);
+		}
+
+		final CloneRegistry registry = new CloneRegistry(WORD_LENGTH);
+		final Map<CloneInfo, Boolean> results = Collections
+				.synchronizedMap(new IdentityHashMap<CloneInfo, Boolean>());
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; ++i) {
+			final List<CloneInfo> clones = clonesPerThread.get(i);
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (CloneInfo clone : clones) {
+						results.put(clone, registry.register(clone));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(60000);
+			if (thread.isAlive()) {
+				throw new AssertionError("Registration did not terminate");
+			}
+		}
+
+		CloneRegistry replay = new CloneRegistry(WORD_LENGTH);
+		int numRegistered = 0;
+		for (CloneInfo clone : registry.getClones()) {
+			if (!results.get(clone) || !replay.register(clone)) {
+				throw new AssertionError("Registered clone at "
+						+ clone.position + " was dominated");
+			}
+			++numRegistered;
+		}
+		for (CloneInfo clone : allClones) {
+			if (!results.get(clone) && replay.register(clone)) {
+				throw new AssertionError("Rejected clone at "
+						+ clone.position + " is not dominated");
+			}
+		}
+		if (numRegistered == 0 || numRegistered == allClones.size()) {
+			throw new AssertionError("Expected some dominated clones");
+		}
+	}
+
+	/**
+	 * Returns a random clone, whose instances may be anywhere in the word, so
+	 * registrations often lock several stripes.
+	 */
+	private static CloneInfo createClone(Random random) {
+		int length = 1 + random.nextInt(60);
+		PairList<Integer, Integer> otherClones = new PairList<Integer, Integer>();
+		int numOther = 1 + random.nextInt(3);
+		for (int i = 0; i < numOther; ++i) {
+			int otherLength = 1 + random.nextInt(60);
+			otherClones.add(random.nextInt(WORD_LENGTH - otherLength),
+					otherLength);
+		}
+		// positions on a coarse grid make clones dominate each other
+		int position = 5 * random.nextInt((WORD_LENGTH - length) / 5);
+		return new CloneInfo(length, position, numOther + 1, null,
+				otherClones);
+	}
+}
@@ -75,16 +75,6 @@ public class GappedCloneDetector extends CloneDetectorBase {
 			protected boolean mayNotMatch(Object character) {
 				return character instanceof SentinelUnit;
 			}
-
-			@Override
-			protected void reportBufferShortage(int leafStart, int leafLength) {
-				getLogger()
-						.debug("Encountered suffix tree node, whose word is too large for the buffer. "
-								+ "This might occur with very long clones. "
-								+ "As a result the clone will be chopped into parts and "
-								+ "potentially some small parts of the clone might get lost. Start at "
-								+ leafStart + "; length " + leafLength);
-			}
 		};
 		getLogger().debug("Suffix tree created. Detecting clones...");
 		GapDetectingCloneConsumer cloneConsumer = new GapDetectingCloneConsumer();
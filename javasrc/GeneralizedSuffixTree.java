@@ -0,0 +1,311 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A generalized suffix tree over a changing set of documents, which is meant
+ * for long-lived clone indexes. Documents are appended as interned symbols
+ * closed by a unique sentinel (see {@link #addDocument(int[])}), so the
+ * leaves of each document end at its sentinel and each leaf belongs to
+ * exactly one document.
+ * <p>
+ * Removing a document only marks it as removed: its leaves are excluded from
+ * the leaf layout (see {@link #isLeafIncluded(int)}) and nodes without any
+ * remaining leaves are skipped when traversing the tree as
+ * {@link ISuffixIndex}. These dead nodes are compacted lazily by building the
+ * tree again from the remaining documents once more than
+ * {@link #MAX_REMOVED_FRACTION} of the word belongs to removed documents.
+ * Document ids stay valid across compactions, while positions in the word
+ * change (see {@link #getDocumentStart(int)}).
+ * <p>
+ * Adding and removing documents only marks the leaf layout as outdated. It
+ * is calculated again by the first query, even if several threads search
+ * the tree at once (see {@link #ensureLeaves()}), but the documents must not
+ * be changed during a search.
+ */
+public class GeneralizedSuffixTree extends CloneDetectingSuffixTree {
+
+	/**
+	 * The maximal fraction of positions belonging to removed documents before
+	 * the tree is compacted.
+	 */
+	private static final double MAX_REMOVED_FRACTION = 0.5;
+
+	/**
+	 * The start position of each document in the word. Compacted removed
+	 * documents get an empty range at the start of the next document, so the
+	 * starts are always ascending.
+	 */
+	private int[] documentStarts = new int[16];
+
+	/** The position after the end of each document (after its sentinel). */
+	private int[] documentEnds = new int[16];
+
+	/** The number of documents added so far (including removed ones). */
+	private int numDocuments = 0;
+
+	/** The ids of the removed documents. */
+	private final BitSet removedDocuments = new BitSet();
+
+	/** The number of positions of the word belonging to removed documents. */
+	private int numRemovedPositions = 0;
+
+	/** Creates an empty tree. */
+	public GeneralizedSuffixTree() {
+		super(new int[0]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The appended symbols become a new document (see
+	 * {@link #addDocument(int[])}), so they must end with a sentinel.
+	 */
+	@Override
+	public void append(List<?> extendedWord, int[] newSymbols) {
+		if (newSymbols == null || newSymbols.length == 0
+				|| newSymbols[newSymbols.length - 1] >= 0) {
+			throw new IllegalArgumentException(
+					"Documents must end with a sentinel.");
+		}
+		int start = symbols.length;
+		super.append(extendedWord, newSymbols);
+		if (numDocuments == documentStarts.length) {
+			documentStarts = Arrays.copyOf(documentStarts, 2 * numDocuments);
+			documentEnds = Arrays.copyOf(documentEnds, 2 * numDocuments);
+		}
+		documentStarts[numDocuments] = start;
+		documentEnds[numDocuments] = symbols.length;
+		++numDocuments;
+	}
+
+	/**
+	 * Adds a document given as interned symbols (see
+	 * {@link SuffixTree#SuffixTree(int[])}). The last symbol must be a
+	 * sentinel, i.e. a negative symbol not used anywhere else. This takes
+	 * time linear in the length of the document, while the leaf layout is
+	 * only calculated again when the tree is queried next (see
+	 * {@link #ensureLeaves()}), which takes time linear in the size of the
+	 * tree. So documents should be added and removed in batches between
+	 * queries.
+	 * 
+	 * @return the id of the new document.
+	 */
+	public int addDocument(int[] documentSymbols) {
+		append(null, documentSymbols);
+		return numDocuments - 1;
+	}
+
+	/**
+	 * Removes the given document, so it is neither reported as clone nor
+	 * matched anymore. This may compact the tree, which takes time linear in
+	 * the remaining documents. Otherwise the leaf layout is calculated again
+	 * when the tree is queried next (see {@link #addDocument(int[])}).
+	 */
+	public void removeDocument(int document) {
+		if (document < 0 || document >= numDocuments
+				|| removedDocuments.get(document)) {
+			throw new IllegalArgumentException("Unknown document: " + document);
+		}
+		removedDocuments.set(document);
+		numRemovedPositions += documentEnds[document]
+				- documentStarts[document];
+		if (numRemovedPositions > MAX_REMOVED_FRACTION * symbols.length) {
+			compact();
+		} else {
+			invalidateLeaves();
+		}
+	}
+
+	/**
+	 * Builds the tree again from the remaining documents, which removes all
+	 * dead nodes.
+	 */
+	private void compact() {
+		int[] remaining = new int[symbols.length - numRemovedPositions];
+		int size = 0;
+		for (int document = 0; document < numDocuments; ++document) {
+			int start = documentStarts[document];
+			int length = documentEnds[document] - start;
+			documentStarts[document] = size;
+			if (!removedDocuments.get(document)) {
+				System.arraycopy(symbols, start, remaining, size, length);
+				size += length;
+			}
+			documentEnds[document] = size;
+		}
+		// make the empty ranges of removed documents start at the next one
+		for (int document = numDocuments - 1; document >= 0; --document) {
+			if (removedDocuments.get(document)) {
+				documentStarts[document] = documentEnds[document];
+			}
+		}
+		numRemovedPositions = 0;
+		rebuild(remaining);
+		invalidateLeaves();
+	}
+
+	/** Returns the number of documents added (including removed ones). */
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+	/** Returns whether the given document was removed. */
+	public boolean isRemoved(int document) {
+		return removedDocuments.get(document);
+	}
+
+	/** Returns the current start position of the given document. */
+	public int getDocumentStart(int document) {
+		return documentStarts[document];
+	}
+
+	/**
+	 * Returns the current end position of the given document (i.e. the
+	 * position after its sentinel).
+	 */
+	public int getDocumentEnd(int document) {
+		return documentEnds[document];
+	}
+
+	/**
+	 * Returns the regions of positions (inclusive) of all documents which were
+	 * not removed. These can be passed to
+	 * {@link ApproximateCloneDetectingSuffixTree#findClones(int, int, int, List, List)}
+	 * to skip the removed documents.
+	 */
+	public List<SimpleRegion> getRemainingRegions() {
+		List<SimpleRegion> regions = new ArrayList<SimpleRegion>();
+		for (int document = 0; document < numDocuments; ++document) {
+			if (!removedDocuments.get(document)) {
+				regions.add(new SimpleRegion(documentStarts[document],
+						documentEnds[document] - 1));
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * Returns the document containing the given position of the word (which
+	 * may be a removed one, if not compacted yet).
+	 */
+	public int getDocument(int position) {
+		// find the last document starting at or before the position
+		int low = 0;
+		int high = numDocuments;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (documentStarts[mid] <= position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Only leaves of documents which were not removed are included.
+	 */
+	@Override
+	protected boolean isLeafIncluded(int suffix) {
+		// called from the constructor of the super class for the empty word
+		if (removedDocuments == null || suffix >= symbols.length) {
+			return false;
+		}
+		return !removedDocuments.get(getDocument(suffix));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As dead nodes remain in the tree until it is compacted, a node is only
+	 * a maximal repeat if at least two of its children have leaves of
+	 * remaining documents.
+	 */
+	@Override
+	public void findClones(int minLength, ICloneReporter reporter)
+			throws ConQATException {
+		ensureLeaves();
+		int[] changes = MaximalRepeats.countLeftChanges(symbols, leafSuffix,
+				leafSuffix.length);
+		for (int node = 1; node < numNodes; ++node) {
+			if (nodeDepth.get(node) < minLength
+					|| !hasLiveChildren(node, 2)
+					|| !MaximalRepeats.isLeftMaximal(changes,
+							leafFirst.get(node), leafEnd.get(node))) {
+				continue;
+			}
+			MaximalRepeats.reportCloneClass(reporter, leafSuffix,
+					leafFirst.get(node), leafEnd.get(node),
+					nodeDepth.get(node));
+		}
+	}
+
+	/**
+	 * Returns whether at least the given number of children of the node have
+	 * leaves of remaining documents.
+	 */
+	private boolean hasLiveChildren(int node, int count) {
+		for (int e = skipDeadEdges(nodeChildFirst.get(node)); e >= 0
+				&& count > 0; e = skipDeadEdges(nodeChildNext.get(e))) {
+			--count;
+		}
+		return count == 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRootChild(int symbol) {
+		int child = nextNode.get(0, symbol);
+		if (child >= 0 && getLeafCount(child) == 0) {
+			return -1;
+		}
+		return child;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getFirstEdge(long node) {
+		ensureLeaves();
+		return skipDeadEdges(nodeChildFirst.get((int) node));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getNextEdge(long node, long edge) {
+		return skipDeadEdges(nodeChildNext.get((int) edge));
+	}
+
+	/**
+	 * Returns the first edge starting from the given one (in the child list)
+	 * leading to a node which has leaves of remaining documents, or -1.
+	 */
+	private int skipDeadEdges(int edge) {
+		while (edge >= 0 && getLeafCount(nodeChildNode.get(edge)) == 0) {
+			edge = nodeChildNext.get(edge);
+		}
+		return edge;
+	}
+}
@@ -0,0 +1,290 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests for the {@link GeneralizedSuffixTree}: after adding and removing
+ * documents it must report the same clones as a
+ * {@link CloneDetectingSuffixTree} built for the remaining documents. Run the
+ * main method; a failed check throws an {@link AssertionError}.
+ */
+class GeneralizedSuffixTreeTest {
+
+	public static void main(String[] args) throws ConQATException {
+		for (int seed = 0; seed < 150; ++seed) {
+			checkChanges(new Random(seed), seed % 2 == 0);
+		}
+		int numCompacted = 0;
+		for (int seed = 0; seed < 10; ++seed) {
+			if (checkParallelMatching(seed)) {
+				++numCompacted;
+			}
+		}
+		if (numCompacted == 0 || numCompacted == 10) {
+			throw new AssertionError("Expected some compacted trees");
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Adds random documents (half of them using {@link SuffixTree#append(int[])}
+	 * ), removes and adds some more and compares the clones with those of a
+	 * tree built from scratch.
+	 * 
+	 * @param queryBetween
+	 *            whether the clones are also compared after each change or
+	 *            only at the end.
+	 */
+	private static void checkChanges(Random random, boolean queryBetween)
+			throws ConQATException {
+		int[] template = new int[60];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(4);
+		}
+		int maxLength = random.nextBoolean() ? 20 : 300;
+
+		GeneralizedSuffixTree tree = new GeneralizedSuffixTree();
+		List<int[]> documents = new ArrayList<int[]>();
+		int numDocuments = 2 + random.nextInt(12);
+		for (int i = 0; i < numDocuments; ++i) {
+			int[] document = new int[random.nextInt(maxLength) + 1];
+			for (int j = 0; j < document.length - 1; ++j) {
+				document[j] = random.nextInt(3) == 0 ? random.nextInt(5)
+						: template[(i + j) % template.length];
+			}
+			document[document.length - 1] = -1 - i;
+			documents.add(document);
+			if (random.nextBoolean()) {
+				tree.append(document.clone());
+			} else if (tree.addDocument(document.clone()) != i) {
+				throw new AssertionError("Unexpected document id");
+			}
+			if (queryBetween) {
+				compare(tree, documents);
+			}
+		}
+
+		int numChanges = random.nextInt(numDocuments);
+		for (int i = 0; i < numChanges; ++i) {
+			int document = random.nextInt(documents.size());
+			if (documents.get(document) == null) {
+				continue;
+			}
+			tree.removeDocument(document);
+			documents.set(document, null);
+			if (random.nextInt(3) == 0) {
+				int[] copy = findDocument(documents, random).clone();
+				copy[copy.length - 1] = -1 - documents.size();
+				documents.add(copy);
+				tree.addDocument(copy.clone());
+			}
+			if (queryBetween) {
+				compare(tree, documents);
+			}
+		}
+		compare(tree, documents);
+	}
+
+	/** Returns a random document which was not removed. */
+	private static int[] findDocument(List<int[]> documents, Random random) {
+		while (true) {
+			int[] document = documents.get(random.nextInt(documents.size()));
+			if (document != null) {
+				return document;
+			}
+		}
+	}
+
+	/**
+	 * Checks that the tree reports the same clones as a tree built for the
+	 * given documents (removed ones are null) and knows the removed documents.
+	 */
+	private static void compare(GeneralizedSuffixTree tree,
+			List<int[]> documents) throws ConQATException {
+		if (tree.getNumDocuments() != documents.size()) {
+			throw new AssertionError("Unexpected number of documents");
+		}
+		List<Integer> symbols = new ArrayList<Integer>();
+		List<String> positions = new ArrayList<String>();
+		for (int document = 0; document < documents.size(); ++document) {
+			int[] documentSymbols = documents.get(document);
+			if (tree.isRemoved(document) != (documentSymbols == null)) {
+				throw new AssertionError("Document " + document
+						+ " not removed as expected");
+			}
+			if (documentSymbols == null) {
+				continue;
+			}
+			for (int i = 0; i < documentSymbols.length; ++i) {
+				symbols.add(documentSymbols[i]);
+				positions.add(document + ":" + i);
+			}
+		}
+		int[] remaining = new int[symbols.size()];
+		for (int i = 0; i < remaining.length; ++i) {
+			remaining[i] = symbols.get(i);
+		}
+
+		List<String> treePositions = new ArrayList<String>();
+		for (int position = 0; position < tree.getDocumentEnd(documents
+				.size() - 1); ++position) {
+			int document = tree.getDocument(position);
+			treePositions.add(document + ":"
+					+ (position - tree.getDocumentStart(document)));
+		}
+
+		for (int minLength = 1; minLength <= 6; minLength += 5) {
+			Set<String> expected = mapPositions(CloneDetectingSuffixArrayTest
+					.findClones(new CloneDetectingSuffixTree(remaining),
+							minLength), positions);
+			Set<String> actual = mapPositions(CloneDetectingSuffixArrayTest
+					.findClones(tree, minLength), treePositions);
+			if (!expected.equals(actual)) {
+				throw new AssertionError("Different clones for "
+						+ documents.size() + " documents and min length "
+						+ minLength + ":\n" + expected + "\n" + actual);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the positions of the clone classes (as returned by
+	 * {@link CloneDetectingSuffixArrayTest#findClones(ICloneDetector, int)})
+	 * by document and offset, so they are independent of the layout of the
+	 * word.
+	 */
+	private static Set<String> mapPositions(Set<String> cloneClasses,
+			List<String> positions) {
+		Set<String> result = new TreeSet<String>();
+		for (String cloneClass : cloneClasses) {
+			int colon = cloneClass.indexOf(':');
+			String[] classPositions = cloneClass.substring(colon + 2,
+					cloneClass.length() - 1).split(", ");
+			List<String> mapped = new ArrayList<String>();
+			for (String position : classPositions) {
+				mapped.add(positions.get(Integer.parseInt(position)));
+			}
+			String[] sorted = mapped.toArray(new String[mapped.size()]);
+			Arrays.sort(sorted);
+			result.add(cloneClass.substring(0, colon) + ":"
+					+ Arrays.toString(sorted));
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that the approximate search with several threads yields the same
+	 * clones as the sequential search after adding and removing documents
+	 * (with and without compaction), when the leaf layout is only calculated
+	 * as the threads first read the tree.
+	 * 
+	 * @return whether the tree was compacted.
+	 */
+	private static boolean checkParallelMatching(int seed)
+			throws ConQATException {
+		String expected = findApproximateClones(createChangedTree(new Random(
+				seed)), 1);
+		GeneralizedSuffixTree tree = createChangedTree(new Random(seed));
+		String actual = findApproximateClones(tree, 8);
+		if (expected.isEmpty() || !expected.equals(actual)) {
+			throw new AssertionError("Different approximate clones:\n"
+					+ expected + "\n" + actual);
+		}
+
+		// compacted removed documents have an empty range
+		for (int document = 0; document < tree.getNumDocuments(); ++document) {
+			if (tree.isRemoved(document)
+					&& tree.getDocumentStart(document) == tree
+							.getDocumentEnd(document)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a tree of random documents, of which some were removed (which
+	 * compacts the tree for some seeds) and some added afterwards.
+	 */
+	private static GeneralizedSuffixTree createChangedTree(Random random) {
+		int[] template = new int[300];
+		for (int i = 0; i < template.length; ++i) {
+			template[i] = random.nextInt(20);
+		}
+		GeneralizedSuffixTree tree = new GeneralizedSuffixTree();
+		int numDocuments = 0;
+		for (int i = 0; i < 40; ++i) {
+			if (i >= 20 && random.nextInt(3) > 0) {
+				int document = random.nextInt(numDocuments);
+				if (!tree.isRemoved(document)) {
+					tree.removeDocument(document);
+				}
+				continue;
+			}
+			int[] document = new int[50 + random.nextInt(200)];
+			int offset = random.nextInt(template.length);
+			for (int j = 0; j < document.length - 1; ++j) {
+				document[j] = random.nextInt(15) == 0 ? random.nextInt(20)
+						: template[(offset + j) % template.length];
+			}
+			document[document.length - 1] = -1 - numDocuments++;
+			tree.addDocument(document);
+		}
+		return tree;
+	}
+
+	/**
+	 * Returns a description of the approximate clones registered when
+	 * searching the remaining documents of the tree with the given number of
+	 * threads.
+	 */
+	private static String findApproximateClones(GeneralizedSuffixTree tree,
+			int parallelism) throws ConQATException {
+		ApproximateCloneDetectingSuffixTree search = new ApproximateCloneDetectingSuffixTree(
+				CloneDetectingSuffixArrayTest.createTokens(tree.symbols),
+				tree.symbols, tree) {
+			@Override
+			protected boolean mayNotMatch(Object character) {
+				return character instanceof Sentinel;
+			}
+		};
+		search.setParallelism(parallelism);
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			search.findClones(20, 5, 3, tree.getRemainingRegions(), null);
+		} finally {
+			System.setOut(out);
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (CloneInfo clone : search.getRegisteredClones()) {
+			result.append(clone.position).append(':').append(clone.length)
+					.append(' ').append(clone.otherClones).append('\n');
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,179 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for growable suffix trees and their {@link SuffixTreeHashTable}: a
+ * table and trees starting at the smallest capacity must grow several times
+ * and still answer like the ones allocated for the maximal number of nodes
+ * up front. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class GrowableSuffixTreeTest {
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(0);
+		for (boolean offHeap : new boolean[] { false, true }) {
+			checkHashTable(random, offHeap);
+			for (int[] symbols : CloneDetectingSuffixArrayTest.createWords()) {
+				checkTree(symbols, offHeap, 0);
+			}
+			checkTree(CloneDetectingSuffixArrayTest.createApproximateWord(
+					random, 5000), offHeap, 3);
+			checkApproximateClones(random, offHeap);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Puts random entries into a growable table and one sized for all
+	 * entries and compares the results of both.
+	 */
+	private static void checkHashTable(Random random, boolean offHeap)
+			throws IOException {
+		int numEntries = 20000;
+		SuffixTreeHashTable growable = new SuffixTreeHashTable(offHeap);
+		SuffixTreeHashTable sized = new SuffixTreeHashTable(numEntries,
+				offHeap);
+		int initialSizeIndex = getSizeIndex(growable);
+		int[][] entries = new int[numEntries][];
+		for (int i = 0; i < numEntries; ++i) {
+			// many entries per node like the root of a suffix tree
+			entries[i] = new int[] { random.nextInt(numEntries / 10),
+					random.nextInt(), i };
+			growable.put(entries[i][0], entries[i][1], entries[i][2]);
+			sized.put(entries[i][0], entries[i][1], entries[i][2]);
+		}
+		check(getSizeIndex(growable) >= initialSizeIndex + 5,
+				"Hash table did not grow");
+		check(getSizeIndex(growable) <= getSizeIndex(sized),
+				"Hash table grew too much");
+
+		// later puts replace the result of the same key
+		for (int[] entry : entries) {
+			int expected = sized.get(entry[0], entry[1]);
+			check(expected >= entry[2]
+					&& growable.get(entry[0], entry[1]) == expected,
+					"Wrong result for (" + entry[0] + ", " + entry[1] + ")");
+		}
+		for (int i = 0; i < 1000; ++i) {
+			int node = numEntries + random.nextInt(1000);
+			check(growable.get(node, random.nextInt()) < 0,
+					"Result for missing key");
+		}
+	}
+
+	/** Returns the size index written by the given table. */
+	private static int getSizeIndex(SuffixTreeHashTable table)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		table.write(new DataOutputStream(bytes));
+		return ByteBuffer.wrap(bytes.toByteArray()).getInt(0);
+	}
+
+	/**
+	 * Builds a growable tree and one with all nodes allocated up front for
+	 * the given word and compares the contained words and clones. The node
+	 * arrays of the growable tree must grow at least the given number of
+	 * times.
+	 */
+	private static void checkTree(int[] symbols, boolean offHeap,
+			int minGrows) throws Exception {
+		SymbolList word = new SymbolList(symbols);
+		CloneDetectingSuffixTree growable = new CloneDetectingSuffixTree(
+				word, symbols.clone(), true, offHeap);
+		CloneDetectingSuffixTree sized = new CloneDetectingSuffixTree(word,
+				symbols.clone(), false, offHeap);
+		check(growable.numNodes == sized.numNodes, "Different node counts");
+		check(getNumGrows(growable) >= minGrows, "Node arrays grew only "
+				+ getNumGrows(growable) + " times");
+
+		// all substrings are contained, modified ones are not
+		Random random = new Random(symbols.length);
+		for (int i = 0; i < 200; ++i) {
+			int start = random.nextInt(symbols.length);
+			int end = start + 1 + random.nextInt(symbols.length - start);
+			int[] find = Arrays.copyOfRange(symbols, start, end);
+			check(growable.containsWord(find), "Substring not contained");
+			find[random.nextInt(find.length)] = Integer.MAX_VALUE;
+			check(!growable.containsWord(find), "Wrong substring contained");
+		}
+
+		for (int minLength = 1; minLength <= 4; ++minLength) {
+			Set<String> expected = CloneDetectingSuffixArrayTest.findClones(
+					sized, minLength);
+			check(expected.equals(CloneDetectingSuffixArrayTest.findClones(
+					growable, minLength)), "Different clones for "
+					+ Arrays.toString(symbols));
+		}
+		check(CloneDetectingSuffixArrayTest.traverse(sized, symbols).equals(
+				CloneDetectingSuffixArrayTest.traverse(growable, symbols)),
+				"Different structure");
+	}
+
+	/**
+	 * Returns how often the node arrays of the given growable tree grew,
+	 * starting at the initial capacity of growable trees and growing by half
+	 * of their size (see {@link SuffixTree#SuffixTree(List, int[], boolean)}).
+	 */
+	private static int getNumGrows(SuffixTree tree) {
+		int capacity = Math.min(2 * tree.symbols.length,
+				16 + tree.symbols.length / 2);
+		int numGrows = 0;
+		while (capacity < tree.nodeWordBegin.length()) {
+			capacity += Math.max(1, capacity / 2);
+			++numGrows;
+		}
+		return numGrows;
+	}
+
+	/**
+	 * Checks that a growable tree yields the same approximate clones as one
+	 * with all nodes allocated up front.
+	 */
+	private static void checkApproximateClones(Random random, boolean offHeap)
+			throws Exception {
+		int[] symbols = CloneDetectingSuffixArrayTest.createApproximateWord(
+				random, 3000);
+		List<PhpToken> tokens = CloneDetectingSuffixArrayTest
+				.createTokens(symbols);
+		String expected = CloneDetectingSuffixArrayTest.findApproximateClones(
+				tokens, symbols, new CloneDetectingSuffixTree(tokens, symbols,
+						false, offHeap), 1);
+		check(!expected.isEmpty(), "No approximate clones found");
+		check(expected.equals(CloneDetectingSuffixArrayTest
+				.findApproximateClones(tokens, symbols,
+						new CloneDetectingSuffixTree(tokens, symbols, true,
+								offHeap), 1)),
+				"Different approximate clones");
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+/**
+ * Interface for index structures over a word which can find the exact clones
+ * in it. Callers may choose between the {@link CloneDetectingSuffixTree} and
+ * the more compact {@link CloneDetectingSuffixArray}, which find the same
+ * clones.
+ */
+public interface ICloneDetector {
+
+	/**
+	 * Reports all clone classes with a length of at least the given minimal
+	 * length. A clone class consists of all positions of a substring which
+	 * occurs at least twice and is maximal, i.e. it can be extended neither
+	 * to the right nor to the left without losing one of its occurrences.
+	 * The clones of each class are reported in ascending order of position.
+	 * 
+	 * @param minLength
+	 *            the minimal length of a clone.
+	 * @param reporter
+	 *            the reporter receiving the clone classes.
+	 */
+	void findClones(int minLength, ICloneReporter reporter)
+			throws ConQATException;
+}
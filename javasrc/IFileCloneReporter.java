@@ -0,0 +1,44 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+/**
+ * The interface for a class accepting clones found by the {@link CloneIndex}.
+ * In contrast to {@link ICloneReporter}, the clones are given relative to
+ * their files, as the index does not store a single word.
+ */
+public interface IFileCloneReporter {
+
+	/** Starts reporting of a new clone class of given length in tokens. */
+	void startCloneClass(int length);
+
+	/**
+	 * Adds a clone to the clone class started with startCloneClass.
+	 * 
+	 * @param position
+	 *            the index of the first token of the clone within the file.
+	 * @param startLine
+	 *            the line of the first token.
+	 * @param endLine
+	 *            the line of the last token.
+	 */
+	void addClone(String file, int position, int startLine, int endLine)
+			throws ConQATException;
+
+	/** Completes a clone class. */
+	void completeCloneClass() throws ConQATException;
+}
@@ -0,0 +1,70 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+/**
+ * Interface for traversing the suffix tree of a word, which may also be
+ * simulated by an index not storing the tree explicitly. This is used for
+ * searching approximate clones (see
+ * {@link ApproximateCloneDetectingSuffixTree}).
+ * <p>
+ * Nodes and edges are identified by handles, whose meaning is up to the
+ * implementation. Each node except for the root is the target of exactly one
+ * edge, whose label starts at {@link #getEdgeBegin(long)} in the word. The
+ * leaves below a node form a range of the leaves numbered in depth-first
+ * order.
+ */
+public interface ISuffixIndex {
+
+	/**
+	 * Returns the child of the root whose edge label starts with the given
+	 * symbol or a negative value if there is none.
+	 */
+	long getRootChild(int symbol);
+
+	/** Returns the first edge leaving the given node or -1 for leaves. */
+	long getFirstEdge(long node);
+
+	/**
+	 * Returns the edge leaving the given node after the given edge or -1 if
+	 * it is the last one.
+	 */
+	long getNextEdge(long node, long edge);
+
+	/** Returns the node the given edge leads to. */
+	long getEdgeTarget(long edge);
+
+	/**
+	 * Returns the position in the word where the label of the edge leading to
+	 * the given node starts.
+	 */
+	int getEdgeBegin(long node);
+
+	/** Returns the length of the label of the edge leading to the node. */
+	int getEdgeLength(long node);
+
+	/** Returns the length of the word along the path to the given node. */
+	int getDepth(long node);
+
+	/** Returns the number of the first leaf below the given node. */
+	int getLeafFirst(long node);
+
+	/** Returns the number after the last leaf below the given node. */
+	int getLeafEnd(long node);
+
+	/** Returns the start position of the suffix of the given leaf. */
+	int getLeafSuffix(int leaf);
+}
@@ -0,0 +1,175 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size array of longs stored either on the Java heap or off-heap in
+ * direct buffers. Off-heap storage is not scanned or moved by the garbage
+ * collector, which matters for the huge node arrays of suffix trees over
+ * large words. As a single buffer is limited to 2 GB, off-heap storage is
+ * split into chunks of 2^{@value #CHUNK_SHIFT} longs (see
+ * {@link BufferChunks}).
+ * <p>
+ * The off-heap memory is released when the array is garbage collected.
+ * Arrays can also be memory mapped read-only from a file (see
+ * {@link #map(FileChannel, long, int)}).
+ */
+/* package */final class LongArray {
+
+	/** The binary logarithm of the number of longs per off-heap chunk. */
+	private static final int CHUNK_SHIFT = 26;
+
+	/** The mask for the index within an off-heap chunk. */
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	/** The number of elements. */
+	private final int length;
+
+	/** The elements if stored on the heap, otherwise null. */
+	private final long[] values;
+
+	/** The chunks of the elements if stored off-heap, otherwise null. */
+	private final LongBuffer[] chunks;
+
+	/**
+	 * Creates a new array of the given length, which is initially filled with
+	 * zeros.
+	 * 
+	 * @param offHeap
+	 *            whether the elements are stored in direct buffers.
+	 */
+	public LongArray(int length, boolean offHeap) {
+		this.length = length;
+		if (!offHeap) {
+			values = new long[length];
+			chunks = null;
+			return;
+		}
+
+		values = null;
+		chunks = asLongBuffers(BufferChunks.allocate(length, 8, CHUNK_SHIFT));
+	}
+
+	/** Creates an array stored in the given off-heap chunks. */
+	private LongArray(int length, LongBuffer[] chunks) {
+		this.length = length;
+		this.values = null;
+		this.chunks = chunks;
+	}
+
+	/** Views the given chunks as long buffers. */
+	private static LongBuffer[] asLongBuffers(ByteBuffer[] bytes) {
+		LongBuffer[] chunks = new LongBuffer[bytes.length];
+		for (int i = 0; i < bytes.length; ++i) {
+			chunks[i] = bytes[i].asLongBuffer();
+		}
+		return chunks;
+	}
+
+	/**
+	 * Memory maps the given number of longs stored in big-endian order (as
+	 * written by {@link #write(DataOutputStream, int)}) at the given position
+	 * of a file. The returned array is read-only and stays valid after the
+	 * channel is closed.
+	 */
+	public static LongArray map(FileChannel channel, long position, int length)
+			throws IOException {
+		return new LongArray(length, asLongBuffers(BufferChunks.map(channel,
+				position, length, 8, CHUNK_SHIFT)));
+	}
+
+	/** Writes the first elements in big-endian order to the given stream. */
+	public void write(DataOutputStream out, int length) throws IOException {
+		for (int i = 0; i < length; ++i) {
+			out.writeLong(get(i));
+		}
+	}
+
+	/** Returns the number of elements. */
+	public int length() {
+		return length;
+	}
+
+	/** Returns whether the elements are stored off-heap. */
+	public boolean isOffHeap() {
+		return values == null;
+	}
+
+	/**
+	 * Returns whether the elements can not be changed, which is the case for
+	 * mapped arrays.
+	 */
+	public boolean isReadOnly() {
+		return values == null && chunks.length > 0 && chunks[0].isReadOnly();
+	}
+
+	/** Returns the element at the given index. */
+	public long get(int index) {
+		if (values != null) {
+			return values[index];
+		}
+		return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+	}
+
+	/** Sets the element at the given index. */
+	public void set(int index, long value) {
+		if (values != null) {
+			values[index] = value;
+		} else {
+			chunks[index >>> CHUNK_SHIFT].put(index & CHUNK_MASK, value);
+		}
+	}
+
+	/** Sets all elements to the given value. */
+	public void fill(long value) {
+		for (int i = 0; i < length; ++i) {
+			set(i, value);
+		}
+	}
+
+	/**
+	 * Returns a copy of this array with the given length, truncating or
+	 * padding with zeros as necessary. The copy is stored in the same way as
+	 * this array.
+	 */
+	public LongArray copyOf(int newLength) {
+		LongArray copy = new LongArray(newLength, isOffHeap());
+		int copyLength = Math.min(length, newLength);
+		if (values != null) {
+			System.arraycopy(values, 0, copy.values, 0, copyLength);
+			return copy;
+		}
+
+		// chunk boundaries are at the same indices in both arrays
+		int numChunks = BufferChunks.getNumChunks(copyLength, CHUNK_SHIFT);
+		for (int i = 0; i < numChunks; ++i) {
+			LongBuffer source = chunks[i].duplicate();
+			source.clear();
+			source.limit(Math.min(source.capacity(), copyLength
+					- (i << CHUNK_SHIFT)));
+			LongBuffer target = copy.chunks[i].duplicate();
+			target.clear();
+			target.put(source);
+		}
+		return copy;
+	}
+}
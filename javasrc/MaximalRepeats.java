@@ -0,0 +1,82 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+/**
+ * Utility methods for reporting maximal repeats, shared by the
+ * implementations of {@link ICloneDetector}. These work on a list of the
+ * start positions of suffixes, where the positions of each repeat form a
+ * contiguous range (as the leaves of a suffix tree node or an interval of a
+ * suffix array).
+ */
+/* package */class MaximalRepeats {
+
+	/**
+	 * Returns an array which gives for each index of the positions the number
+	 * of preceding neighbors with a different character before them. A range
+	 * of positions is left-maximal if this number changes within the range
+	 * (see {@link #isLeftMaximal(int[], int, int)}).
+	 * 
+	 * @param symbols
+	 *            the symbols of the word.
+	 * @param positions
+	 *            the start positions of the suffixes.
+	 * @param count
+	 *            the number of positions.
+	 */
+	public static int[] countLeftChanges(int[] symbols, int[] positions,
+			int count) {
+		int[] changes = new int[count];
+		for (int i = 1; i < count; ++i) {
+			int previous = positions[i - 1];
+			int current = positions[i];
+			changes[i] = changes[i - 1];
+			if (previous == 0 || current == 0
+					|| symbols[previous - 1] != symbols[current - 1]) {
+				++changes[i];
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Returns whether the range of positions from first (inclusive) to end
+	 * (exclusive) can not be extended to the left, i.e. the characters before
+	 * the positions are not all the same.
+	 */
+	public static boolean isLeftMaximal(int[] changes, int first, int end) {
+		return end - first >= 2 && changes[end - 1] != changes[first];
+	}
+
+	/**
+	 * Reports the range of positions from first (inclusive) to end (exclusive)
+	 * as clone class of the given length, ordered by position.
+	 */
+	public static void reportCloneClass(ICloneReporter reporter,
+			int[] positions, int first, int end, int length)
+			throws ConQATException {
+		int[] starts = Arrays.copyOfRange(positions, first, end);
+		Arrays.sort(starts);
+
+		reporter.startCloneClass(length);
+		for (int start : starts) {
+			reporter.addClone(start, length);
+		}
+		reporter.completeCloneClass();
+	}
+}
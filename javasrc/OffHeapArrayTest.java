@@ -0,0 +1,261 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for the {@link IntArray} and {@link LongArray}: arrays stored
+ * off-heap or memory mapped must behave like the ones on the heap, chunks
+ * (see {@link BufferChunks}) must be split correctly, and suffix trees built
+ * on-heap, off-heap or mapped from a {@link SuffixTreeFile} must report the
+ * same clones. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class OffHeapArrayTest {
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(0);
+		for (int length : new int[] { 0, 1, 2, 100, 5000 }) {
+			checkIntArray(random, length);
+			checkLongArray(random, length);
+		}
+		checkChunks();
+		checkTrees(random);
+		System.out.println("OK");
+	}
+
+	/**
+	 * Applies the same random changes to an int array on the heap and one
+	 * off-heap and compares them, their copies and the mapped array.
+	 */
+	private static void checkIntArray(Random random, int length)
+			throws Exception {
+		IntArray heap = new IntArray(length, false);
+		IntArray offHeap = new IntArray(length, true);
+		check(!heap.isOffHeap() && offHeap.isOffHeap()
+				&& !offHeap.isReadOnly(), "Wrong kind of int array");
+		heap.fill(7);
+		offHeap.fill(7);
+		for (int i = 0; i < 2 * length; ++i) {
+			int index = random.nextInt(length);
+			int value = random.nextInt();
+			heap.set(index, value);
+			offHeap.set(index, value);
+		}
+		checkEqual(heap, offHeap);
+		checkEqual(heap.copyOf(length / 2), offHeap.copyOf(length / 2));
+		checkEqual(heap.copyOf(2 * length + 1), offHeap.copyOf(2 * length + 1));
+		check(offHeap.copyOf(length).isOffHeap(), "Copy not off-heap");
+
+		int[] values = new int[length];
+		offHeap.copyTo(values);
+		for (int i = 0; i < length; ++i) {
+			check(values[i] == heap.get(i), "Different int copied at " + i);
+		}
+
+		Path file = Files.createTempFile("ints", ".bin");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file)))) {
+				out.writeInt(42);
+				offHeap.write(out, length);
+			}
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ)) {
+				IntArray mapped = IntArray.map(channel, 4, length);
+				check(length == 0 || mapped.isReadOnly(),
+						"Mapped int array not read-only");
+				checkEqual(heap, mapped);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** Checks that both int arrays hold the same elements. */
+	private static void checkEqual(IntArray expected, IntArray actual) {
+		check(expected.length() == actual.length(), "Different int lengths");
+		for (int i = 0; i < expected.length(); ++i) {
+			check(expected.get(i) == actual.get(i), "Different int at " + i);
+		}
+	}
+
+	/** Like {@link #checkIntArray(Random, int)} for long arrays. */
+	private static void checkLongArray(Random random, int length)
+			throws Exception {
+		LongArray heap = new LongArray(length, false);
+		LongArray offHeap = new LongArray(length, true);
+		check(!heap.isOffHeap() && offHeap.isOffHeap()
+				&& !offHeap.isReadOnly(), "Wrong kind of long array");
+		heap.fill(-7);
+		offHeap.fill(-7);
+		for (int i = 0; i < 2 * length; ++i) {
+			int index = random.nextInt(length);
+			long value = random.nextLong();
+			heap.set(index, value);
+			offHeap.set(index, value);
+		}
+		checkEqual(heap, offHeap);
+		checkEqual(heap.copyOf(length / 2), offHeap.copyOf(length / 2));
+		checkEqual(heap.copyOf(2 * length + 1), offHeap.copyOf(2 * length + 1));
+		check(offHeap.copyOf(length).isOffHeap(), "Copy not off-heap");
+
+		Path file = Files.createTempFile("longs", ".bin");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file)))) {
+				out.writeInt(42);
+				offHeap.write(out, length);
+			}
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ)) {
+				LongArray mapped = LongArray.map(channel, 4, length);
+				check(length == 0 || mapped.isReadOnly(),
+						"Mapped long array not read-only");
+				checkEqual(heap, mapped);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** Checks that both long arrays hold the same elements. */
+	private static void checkEqual(LongArray expected, LongArray actual) {
+		check(expected.length() == actual.length(), "Different long lengths");
+		for (int i = 0; i < expected.length(); ++i) {
+			check(expected.get(i) == actual.get(i), "Different long at " + i);
+		}
+	}
+
+	/**
+	 * Checks the splitting into chunks with a small chunk size, as the chunks
+	 * of the arrays are too large for a test.
+	 */
+	private static void checkChunks() throws Exception {
+		int chunkShift = 3;
+		for (int length : new int[] { 0, 1, 7, 8, 9, 16, 17, 100 }) {
+			int numChunks = (length + 7) / 8;
+			check(BufferChunks.getNumChunks(length, chunkShift) == numChunks,
+					"Wrong number of chunks for " + length);
+			ByteBuffer[] chunks = BufferChunks.allocate(length, 8, chunkShift);
+			check(chunks.length == numChunks, "Wrong chunks for " + length);
+			int total = 0;
+			for (ByteBuffer chunk : chunks) {
+				check(chunk.isDirect() && chunk.capacity() <= 64,
+						"Wrong chunk for " + length);
+				total += chunk.capacity();
+			}
+			check(total == 8 * length, "Wrong total size for " + length);
+		}
+		check(BufferChunks.getNumChunks(Integer.MAX_VALUE, 27) == 16,
+				"Wrong number of chunks for the maximum length");
+
+		// each int is its index, so a chunk must start at a multiple of 8
+		Path file = Files.createTempFile("chunks", ".bin");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file)))) {
+				out.writeLong(-1);
+				for (int i = 0; i < 21; ++i) {
+					out.writeInt(i);
+				}
+			}
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ)) {
+				ByteBuffer[] chunks = BufferChunks.map(channel, 8, 21, 4,
+						chunkShift);
+				check(chunks.length == 3 && chunks[2].capacity() == 4 * 5,
+						"Wrong mapped chunks");
+				for (int i = 0; i < 21; ++i) {
+					check(chunks[i >> chunkShift].asIntBuffer().get(i & 7) == i,
+							"Wrong mapped value at " + i);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Checks that trees built on-heap, off-heap or mapped from a file report
+	 * the same exact and approximate clones.
+	 */
+	private static void checkTrees(Random random) throws Exception {
+		Path file = Files.createTempFile("suffixtree", ".bin");
+		try {
+			List<int[]> words = CloneDetectingSuffixArrayTest.createWords();
+			for (int i = 0; i < words.size(); i += 3) {
+				int[] symbols = words.get(i);
+				CloneDetectingSuffixTree heap = new CloneDetectingSuffixTree(
+						new SymbolList(symbols), symbols.clone(), false);
+				CloneDetectingSuffixTree offHeap = new CloneDetectingSuffixTree(
+						new SymbolList(symbols), symbols.clone(), true);
+				SuffixTreeFile.write(offHeap, file);
+				CloneDetectingSuffixTree mapped = SuffixTreeFile.load(file,
+						null, symbols.clone());
+				for (int minLength = 1; minLength <= 4; ++minLength) {
+					Set<String> expected = CloneDetectingSuffixArrayTest
+							.findClones(heap, minLength);
+					check(expected.equals(CloneDetectingSuffixArrayTest
+							.findClones(offHeap, minLength)),
+							"Different clones off-heap");
+					check(expected.equals(CloneDetectingSuffixArrayTest
+							.findClones(mapped, minLength)),
+							"Different clones when mapped");
+				}
+			}
+
+			int[] symbols = CloneDetectingSuffixArrayTest.createApproximateWord(
+					random, 3000);
+			List<PhpToken> tokens = CloneDetectingSuffixArrayTest
+					.createTokens(symbols);
+			CloneDetectingSuffixTree offHeap = new CloneDetectingSuffixTree(
+					tokens, symbols, true);
+			SuffixTreeFile.write(offHeap, file);
+			CloneDetectingSuffixTree heap = new CloneDetectingSuffixTree(
+					tokens, symbols, false);
+			String expected = CloneDetectingSuffixArrayTest
+					.findApproximateClones(tokens, symbols, heap, 1);
+			check(!expected.isEmpty(), "No approximate clones found");
+			check(expected.equals(CloneDetectingSuffixArrayTest
+					.findApproximateClones(tokens, symbols, offHeap, 1)),
+					"Different approximate clones off-heap");
+			check(expected.equals(CloneDetectingSuffixArrayTest
+					.findApproximateClones(tokens, symbols,
+							SuffixTreeFile.load(file, tokens, symbols), 1)),
+					"Different approximate clones when mapped");
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
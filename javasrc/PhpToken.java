@@ -4,7 +4,16 @@ class PhpToken {
     public int line;
     public String file;
     public String tokenName;
-    public String content;
+
+    /** The content of the token, which defines its equality. */
+    public final String content;
+
+    /**
+     * 64 bit hash of the {@link #content}, calculated once at construction.
+     * This makes {@link #hashCode()} cheap and rejects almost all unequal
+     * tokens in {@link #equals(Object)} without comparing the strings.
+     */
+    private final long contentHash;
 
     public PhpToken(
         int tokenCode,
@@ -18,19 +27,74 @@ class PhpToken {
         this.line = line;
         this.content = content;
         this.file = file;
+        this.contentHash = hash64(content);
+    }
+
+    /**
+     * Constructor for a token whose content hash is already known (see
+     * {@link #hash64(String)}), e.g. because the content is shared between
+     * many tokens.
+     */
+    PhpToken(
+        int tokenCode,
+        String tokenName,
+        int line,
+        String file,
+        String content,
+        long contentHash
+    ) {
+        this.tokenCode = tokenCode;
+        this.tokenName = tokenName;
+        this.line = line;
+        this.content = content;
+        this.file = file;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Calculates a 64 bit hash of the given string (FNV-1a over the chars,
+     * followed by a final mixing step to spread the bits).
+     */
+    public static long hash64(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /** Returns the 64 bit hash of the content. */
+    public long getContentHash() {
+        return contentHash;
     }
 
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
-        return content.hashCode();
-        //return tokenCode;
+        return (int) (contentHash ^ (contentHash >>> 32));
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tokens are equal if their contents are equal. A {@link Sentinel} is
+     * never equal to a normal token.
+     */
     @Override
-    public boolean equals(Object token) {
-        return ((PhpToken) token).hashCode() == this.hashCode();
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof PhpToken) || obj instanceof Sentinel) {
+            return false;
+        }
+        PhpToken token = (PhpToken) obj;
+        return contentHash == token.contentHash
+                && content.equals(token.content);
     }
 
     /** {@inheritDoc} */
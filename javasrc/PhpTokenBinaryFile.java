@@ -0,0 +1,330 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact binary storage for a {@link PhpTokenWord}, which can be loaded much
+ * faster than the JSON written by <code>totokens.php</code>.
+ * <p>
+ * The file starts with a header (magic number, version, number of tokens,
+ * number of strings), followed by a dictionary of all distinct strings
+ * (contents, token names and file names; each stored as length and UTF-8
+ * bytes) and then one column of ints per token attribute: content, token
+ * name, token code, line and file. Strings are stored as indices into the
+ * dictionary and sentinels are marked by a content of {@link #SENTINEL}.
+ * <p>
+ * Opening a file only decodes the dictionary; the columns are memory mapped
+ * in chunks (see {@link IntArray}), so they may exceed 2 GB, and read on
+ * demand. The tokens are exposed as a list view (see
+ * {@link #getTokens()}) and the contents as symbols for the
+ * {@link SuffixTree} (see {@link #getSymbols()}).
+ */
+public class PhpTokenBinaryFile {
+
+	/** The magic number at the start of each file ("PTOK"). */
+	private static final int MAGIC = 0x50544F4B;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/** Size of the header in bytes. */
+	private static final int HEADER_SIZE = 16;
+
+	/** The content index used for sentinels. */
+	private static final int SENTINEL = -1;
+
+	/** The number of columns. */
+	private static final int NUM_COLUMNS = 5;
+
+	/** Column index of the content. */
+	private static final int CONTENT_COLUMN = 0;
+
+	/** Column index of the token name. */
+	private static final int TOKEN_NAME_COLUMN = 1;
+
+	/** Column index of the token code. */
+	private static final int TOKEN_CODE_COLUMN = 2;
+
+	/** Column index of the line. */
+	private static final int LINE_COLUMN = 3;
+
+	/** Column index of the file. */
+	private static final int FILE_COLUMN = 4;
+
+	/** The number of tokens (including sentinels). */
+	private final int size;
+
+	/** The dictionary of strings. */
+	private final String[] strings;
+
+	/** The 64 bit hashes of the {@link #strings}. */
+	private final long[] stringHashes;
+
+	/** The memory mapped columns. */
+	private final IntArray[] columns = new IntArray[NUM_COLUMNS];
+
+	/** The positions of the sentinels in ascending order. */
+	private final int[] sentinelPositions;
+
+	/**
+	 * The sentinels corresponding to {@link #sentinelPositions}. These are
+	 * created once, as sentinels are compared by identity.
+	 */
+	private final Sentinel[] sentinels;
+
+	/** Opens the given file. */
+	private PhpTokenBinaryFile(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(
+								Channels.newInputStream(channel), 1 << 16))) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE || in.readInt() != MAGIC
+					|| in.readInt() != VERSION) {
+				throw new IOException("Not a binary token file: " + file);
+			}
+			size = in.readInt();
+			int numStrings = in.readInt();
+			long columnsSize = 4L * NUM_COLUMNS * size;
+			if (size < 0 || numStrings < 0
+					|| HEADER_SIZE + 4L * numStrings + columnsSize > fileSize) {
+				throw new IOException("Corrupt binary token file: " + file);
+			}
+			strings = new String[numStrings];
+			stringHashes = new long[numStrings];
+
+			long position = HEADER_SIZE;
+			for (int i = 0; i < strings.length; ++i) {
+				int length = in.readInt();
+				position += 4;
+				// the remaining lengths and the columns must still fit
+				if (length < 0
+						|| position + length + 4L * (strings.length - i - 1)
+								+ columnsSize > fileSize) {
+					throw new IOException("Corrupt binary token file: " + file);
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				position += length;
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+				stringHashes[i] = PhpToken.hash64(strings[i]);
+			}
+
+			for (int column = 0; column < NUM_COLUMNS; ++column) {
+				columns[column] = IntArray.map(channel, position, size);
+				position += 4L * size;
+			}
+		}
+
+		// check all string indices once, so getToken() cannot fail later
+		IntArray contents = columns[CONTENT_COLUMN];
+		int numSentinels = 0;
+		for (int i = 0; i < size; ++i) {
+			if (contents.get(i) == SENTINEL) {
+				++numSentinels;
+			} else if (!isStringIndex(contents.get(i))
+					|| !isStringIndex(columns[TOKEN_NAME_COLUMN].get(i))
+					|| !isStringIndex(columns[FILE_COLUMN].get(i))) {
+				throw new IOException("Corrupt binary token file: " + file);
+			}
+		}
+		sentinelPositions = new int[numSentinels];
+		sentinels = new Sentinel[numSentinels];
+		for (int i = 0, k = 0; i < size; ++i) {
+			if (contents.get(i) == SENTINEL) {
+				sentinelPositions[k] = i;
+				sentinels[k++] = new Sentinel(0, "_", 0, "_", "_");
+			}
+		}
+	}
+
+	/** Returns whether the given value is an index into the {@link #strings}. */
+	private boolean isStringIndex(int value) {
+		return value >= 0 && value < strings.length;
+	}
+
+	/**
+	 * Opens the given binary token file.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read or is not a binary token file.
+	 */
+	public static PhpTokenBinaryFile open(Path file) throws IOException {
+		return new PhpTokenBinaryFile(file);
+	}
+
+	/** Returns whether the given file starts with the magic number. */
+	public static boolean isBinaryTokenFile(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) >= 0) {
+				// read until full or end of file
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/** Writes the given word to a binary token file. */
+	public static void write(PhpTokenWord word, Path file) throws IOException {
+		List<PhpToken> tokens = word.getTokens();
+		Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		int[][] columns = new int[NUM_COLUMNS][tokens.size()];
+		for (int i = 0; i < tokens.size(); ++i) {
+			PhpToken token = tokens.get(i);
+			if (token instanceof Sentinel) {
+				columns[CONTENT_COLUMN][i] = SENTINEL;
+				continue;
+			}
+			columns[CONTENT_COLUMN][i] = index(token.content, stringIndices,
+					strings);
+			columns[TOKEN_NAME_COLUMN][i] = index(token.tokenName,
+					stringIndices, strings);
+			columns[TOKEN_CODE_COLUMN][i] = token.tokenCode;
+			columns[LINE_COLUMN][i] = token.line;
+			columns[FILE_COLUMN][i] = index(token.file, stringIndices,
+					strings);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tokens.size());
+			out.writeInt(strings.size());
+			for (String string : strings) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			for (int[] column : columns) {
+				for (int value : column) {
+					out.writeInt(value);
+				}
+			}
+		}
+	}
+
+	/** Returns the dictionary index of the given string, adding it if new. */
+	private static int index(String string, Map<String, Integer> indices,
+			List<String> strings) {
+		Integer index = indices.get(string);
+		if (index == null) {
+			index = strings.size();
+			indices.put(string, index);
+			strings.add(string);
+		}
+		return index;
+	}
+
+	/** Returns the number of tokens (including sentinels). */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the symbols of the tokens. These are the same as the ones
+	 * assigned by {@link PhpTokenWord#getSymbols()}, i.e. contents are
+	 * numbered in order of their first occurrence and sentinels get distinct
+	 * negative symbols.
+	 */
+	public int[] getSymbols() {
+		int[] symbols = new int[size];
+		columns[CONTENT_COLUMN].copyTo(symbols);
+
+		int[] contentSymbols = new int[strings.length];
+		Arrays.fill(contentSymbols, -1);
+		int numSymbols = 0;
+		int numSentinels = 0;
+		for (int i = 0; i < size; ++i) {
+			int content = symbols[i];
+			if (content == SENTINEL) {
+				symbols[i] = -1 - numSentinels++;
+			} else {
+				if (contentSymbols[content] < 0) {
+					contentSymbols[content] = numSymbols++;
+				}
+				symbols[i] = contentSymbols[content];
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Returns the tokens as a read-only list. The tokens are created on each
+	 * access (except for sentinels), so callers should not rely on their
+	 * identity.
+	 */
+	public List<PhpToken> getTokens() {
+		return new TokenList();
+	}
+
+	/** Returns the token at the given position. */
+	private PhpToken getToken(int index) {
+		int content = columns[CONTENT_COLUMN].get(index);
+		if (content == SENTINEL) {
+			return sentinels[Arrays.binarySearch(sentinelPositions, index)];
+		}
+		return new PhpToken(columns[TOKEN_CODE_COLUMN].get(index),
+				strings[columns[TOKEN_NAME_COLUMN].get(index)],
+				columns[LINE_COLUMN].get(index),
+				strings[columns[FILE_COLUMN].get(index)], strings[content],
+				stringHashes[content]);
+	}
+
+	/** List view of the tokens. */
+	private class TokenList extends AbstractList<PhpToken> implements
+			RandomAccess {
+
+		/** {@inheritDoc} */
+		@Override
+		public PhpToken get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return getToken(index);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
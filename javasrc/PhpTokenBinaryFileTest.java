@@ -0,0 +1,176 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the {@link PhpTokenBinaryFile}, which writes random words, checks
+ * that the opened files yield the same tokens and symbols, and that files
+ * with invalid string indices or a truncated end are rejected on opening.
+ * Run the main method; a failed check throws an {@link AssertionError}.
+ */
+class PhpTokenBinaryFileTest {
+
+	/** The number of columns of the file format. */
+	private static final int NUM_COLUMNS = 5;
+
+	public static void main(String[] args) throws IOException {
+		for (int seed = 0; seed < 10; ++seed) {
+			checkRoundTrip(createWord(new Random(seed)));
+		}
+		checkRoundTrip(new PhpTokenWord());
+		checkCorruptFiles(createWord(new Random(42)));
+		System.out.println("OK");
+	}
+
+	/**
+	 * Creates a word of random tokens in several files, each followed by a
+	 * sentinel. The contents include non-ASCII characters.
+	 */
+	private static PhpTokenWord createWord(Random random) {
+		String[] contents = { "$a", "=", ";", "echo", "\"\u00e4\u00df\"",
+				"'\ud83d\ude00'", "", "foo" };
+		PhpTokenWord word = new PhpTokenWord();
+		int numFiles = 1 + random.nextInt(4);
+		for (int file = 0; file < numFiles; ++file) {
+			int length = random.nextInt(200);
+			for (int i = 0; i < length; ++i) {
+				int code = random.nextInt(400);
+				word.add(new PhpToken(code, "T_" + code, 1 + i / 5, "file"
+						+ file + ".php", contents[random
+						.nextInt(contents.length)]));
+			}
+			word.addSentinel();
+		}
+		return word;
+	}
+
+	/** Writes and opens the given word and compares the tokens. */
+	private static void checkRoundTrip(PhpTokenWord word) throws IOException {
+		Path path = Files.createTempFile("tokens", ".bin");
+		try {
+			PhpTokenBinaryFile.write(word, path);
+			check(PhpTokenBinaryFile.isBinaryTokenFile(path),
+					"Written file not recognized");
+			PhpTokenBinaryFile file = PhpTokenBinaryFile.open(path);
+			check(file.size() == word.size(), "Different size");
+			check(Arrays.equals(file.getSymbols(), word.getSymbols()),
+					"Different symbols");
+
+			List<PhpToken> expected = word.getTokens();
+			List<PhpToken> actual = file.getTokens();
+			for (int i = 0; i < expected.size(); ++i) {
+				PhpToken a = expected.get(i);
+				PhpToken b = actual.get(i);
+				if (a instanceof Sentinel) {
+					check(b instanceof Sentinel && b == actual.get(i),
+							"No sentinel at " + i);
+				} else {
+					check(!(b instanceof Sentinel) && a.tokenCode == b.tokenCode
+							&& a.tokenName.equals(b.tokenName)
+							&& a.line == b.line && a.file.equals(b.file)
+							&& a.content.equals(b.content)
+							&& a.getContentHash() == b.getContentHash(),
+							"Different token at " + i);
+				}
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * Checks that files with an invalid string index in any of the string
+	 * columns, or which are truncated, cannot be opened.
+	 */
+	private static void checkCorruptFiles(PhpTokenWord word)
+			throws IOException {
+		int position = 0;
+		while (word.getTokens().get(position) instanceof Sentinel) {
+			++position;
+		}
+		// the content, token name and file columns hold string indices
+		for (int column : new int[] { 0, 1, 4 }) {
+			for (int value : new int[] { -2, 1000, Integer.MAX_VALUE }) {
+				checkCorruptFile(word, column, position, value);
+			}
+		}
+
+		Path path = Files.createTempFile("tokens", ".bin");
+		try {
+			PhpTokenBinaryFile.write(word, path);
+			long size = Files.size(path);
+			try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.WRITE)) {
+				channel.truncate(size - 1);
+			}
+			checkRejected(path, "Truncated file");
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * Writes the word, replaces the value of the given column of the token
+	 * at the given position and checks that the file is rejected.
+	 */
+	private static void checkCorruptFile(PhpTokenWord word, int column,
+			int position, int value) throws IOException {
+		Path path = Files.createTempFile("tokens", ".bin");
+		try {
+			PhpTokenBinaryFile.write(word, path);
+			long columnsStart = Files.size(path) - 4L * NUM_COLUMNS
+					* word.size();
+			try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(4);
+				buffer.putInt(0, value);
+				channel.write(buffer, columnsStart + 4L
+						* (column * word.size() + position));
+			}
+			checkRejected(path, "Value " + value + " in column " + column);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	/** Checks that opening the given file fails with an IOException. */
+	private static void checkRejected(Path path, String message) {
+		try {
+			PhpTokenBinaryFile file = PhpTokenBinaryFile.open(path);
+			file.getTokens().get(0);
+		} catch (IOException e) {
+			return;
+		}
+		throw new AssertionError(message + " was not rejected");
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a {@link PhpTokenWord} from many token files (usually one per source
+ * file, as written by <code>totokens.php</code>). The files are parsed in
+ * parallel and the token contents are interned into a shared concurrent
+ * dictionary. The tokens of the files are then concatenated in the given
+ * order, each file followed by its own {@link Sentinel}.
+ * <p>
+ * The symbols of the resulting word are renumbered in order of first
+ * occurrence, so the result does not depend on the scheduling of the
+ * threads and is the same as adding all tokens to a word sequentially.
+ */
+public class PhpTokenIngester {
+
+	/** The number of threads used. */
+	private final int numThreads;
+
+	/** Shared string instances of all files. */
+	private final Map<String, String> strings = new ConcurrentHashMap<String, String>();
+
+	/** The dictionary mapping token contents to (preliminary) ids. */
+	private final ConcurrentHashMap<String, Integer> contentIds = new ConcurrentHashMap<String, Integer>();
+
+	/** The next id to be assigned in {@link #contentIds}. */
+	private final AtomicInteger nextContentId = new AtomicInteger();
+
+	/** Creates an ingester using one thread per available processor. */
+	public PhpTokenIngester() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Creates an ingester using the given number of threads. */
+	public PhpTokenIngester(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/** Reads the given token files and concatenates them into a word. */
+	public PhpTokenWord ingest(List<Path> files) throws IOException {
+		List<FileTokens> fileTokens = parseAll(files);
+
+		int size = files.size();
+		for (FileTokens tokens : fileTokens) {
+			size += tokens.tokens.size();
+		}
+
+		List<PhpToken> tokens = new ArrayList<PhpToken>(size);
+		int[] symbols = new int[size];
+		String[] contents = new String[nextContentId.get()];
+		int[] contentSymbols = new int[contents.length];
+		Arrays.fill(contentSymbols, -1);
+		int numSymbols = 0;
+		int numSentinels = 0;
+
+		for (FileTokens file : fileTokens) {
+			for (int i = 0; i < file.tokens.size(); ++i) {
+				int id = file.contentIds[i];
+				if (contentSymbols[id] < 0) {
+					contentSymbols[id] = numSymbols++;
+					contents[id] = file.tokens.get(i).content;
+				}
+				symbols[tokens.size()] = contentSymbols[id];
+				tokens.add(file.tokens.get(i));
+			}
+			symbols[tokens.size()] = -1 - numSentinels++;
+			tokens.add(new Sentinel(0, "_", 0, "_", "_"));
+		}
+
+		Map<String, Integer> symbolMap = new HashMap<String, Integer>();
+		for (int id = 0; id < contents.length; ++id) {
+			if (contents[id] != null) {
+				symbolMap.put(contents[id], contentSymbols[id]);
+			}
+		}
+		return new PhpTokenWord(tokens, symbols, symbolMap, numSentinels);
+	}
+
+	/** Parses the given files in parallel and returns the results in order. */
+	private List<FileTokens> parseAll(List<Path> files) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<FileTokens>> futures = new ArrayList<Future<FileTokens>>();
+			for (final Path file : files) {
+				futures.add(executor.submit(new Callable<FileTokens>() {
+					@Override
+					public FileTokens call() throws IOException {
+						return parse(file);
+					}
+				}));
+			}
+
+			List<FileTokens> result = new ArrayList<FileTokens>();
+			for (Future<FileTokens> future : futures) {
+				result.add(future.get());
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading token files.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Parses a single token file and interns the contents of its tokens. */
+	private FileTokens parse(Path file) throws IOException {
+		FileTokens result = new FileTokens();
+		try (PhpTokenJsonReader reader = new PhpTokenJsonReader(file, strings)) {
+			for (PhpToken token = reader.next(); token != null; token = reader
+					.next()) {
+				result.tokens.add(token);
+			}
+		}
+
+		result.contentIds = new int[result.tokens.size()];
+		for (int i = 0; i < result.contentIds.length; ++i) {
+			result.contentIds[i] = internContent(result.tokens.get(i).content);
+		}
+		return result;
+	}
+
+	/** Returns the id of the given content, assigning a new one if needed. */
+	private int internContent(String content) {
+		Integer id = contentIds.get(content);
+		if (id == null) {
+			Integer newId = nextContentId.getAndIncrement();
+			id = contentIds.putIfAbsent(content, newId);
+			if (id == null) {
+				id = newId;
+			}
+		}
+		return id;
+	}
+
+	/** The tokens of a single file along with their content ids. */
+	private static class FileTokens {
+
+		/** The tokens. */
+		private final List<PhpToken> tokens = new ArrayList<PhpToken>();
+
+		/** The ids of the token contents in the shared dictionary. */
+		private int[] contentIds;
+	}
+}
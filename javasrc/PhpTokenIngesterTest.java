@@ -0,0 +1,185 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the {@link PhpTokenIngester}, which reads random token files with
+ * one and with several threads. Both words must have the same tokens in the
+ * same order, the same symbols and the same sentinels as a word built by
+ * reading the files sequentially. Run the main method; a failed check throws
+ * an {@link AssertionError}.
+ */
+class PhpTokenIngesterTest {
+
+	/** The number of threads of the parallel ingester. */
+	private static final int NUM_THREADS = 8;
+
+	public static void main(String[] args) throws IOException {
+		Path directory = Files.createTempDirectory("tokens");
+		try {
+			for (int seed = 0; seed < 10; ++seed) {
+				checkIngest(new Random(seed), directory);
+			}
+			checkMalformedFile(directory);
+		} finally {
+			for (Path file : listFiles(directory)) {
+				Files.delete(file);
+			}
+			Files.delete(directory);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Writes random token files and compares the words ingested with one and
+	 * several threads to the sequentially built word.
+	 */
+	private static void checkIngest(Random random, Path directory)
+			throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		int numFiles = 1 + random.nextInt(40);
+		for (int i = 0; i < numFiles; ++i) {
+			Path file = directory.resolve("tokens" + i + ".json");
+			writeTokenFile(random, "file" + i + ".php", file);
+			files.add(file);
+		}
+
+		PhpTokenWord expected = new PhpTokenWord();
+		for (Path file : files) {
+			try (PhpTokenJsonReader reader = new PhpTokenJsonReader(file)) {
+				for (PhpToken token = reader.next(); token != null; token = reader
+						.next()) {
+					expected.add(token);
+				}
+			}
+			expected.addSentinel();
+		}
+
+		checkSameWord(expected, new PhpTokenIngester(1).ingest(files));
+		PhpTokenWord actual = null;
+		for (int i = 0; i < 3; ++i) {
+			actual = new PhpTokenIngester(NUM_THREADS).ingest(files);
+			checkSameWord(expected, actual);
+		}
+		checkAddedTokens(expected, actual);
+	}
+
+	/**
+	 * Writes a token file with a random number of tokens (possibly none),
+	 * whose contents are shared with other files.
+	 */
+	private static void writeTokenFile(Random random, String name, Path file)
+			throws IOException {
+		StringBuilder json = new StringBuilder("[");
+		int numTokens = random.nextInt(5) == 0 ? 0 : random.nextInt(2000);
+		for (int i = 0; i < numTokens; ++i) {
+			if (i > 0) {
+				json.append(",\n");
+			}
+			int code = random.nextInt(400);
+			json.append("{\"token_code\": ").append(code)
+					.append(", \"token_name\": \"T_").append(code)
+					.append("\", \"line\": ").append(1 + i / 4)
+					.append(", \"file\": \"").append(name)
+					.append("\", \"content\": \"c")
+					.append(random.nextInt(1 + random.nextInt(500)))
+					.append("\"}");
+		}
+		json.append("]");
+		Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Checks that both words have equal tokens, symbols and sentinels. */
+	private static void checkSameWord(PhpTokenWord expected,
+			PhpTokenWord actual) {
+		check(expected.size() == actual.size(), "Different sizes");
+		check(Arrays.equals(expected.getSymbols(), actual.getSymbols()),
+				"Different symbols");
+		for (int i = 0; i < expected.size(); ++i) {
+			PhpToken a = expected.getTokens().get(i);
+			PhpToken b = actual.getTokens().get(i);
+			if (a instanceof Sentinel) {
+				check(b instanceof Sentinel, "No sentinel at " + i);
+			} else {
+				check(!(b instanceof Sentinel) && a.tokenCode == b.tokenCode
+						&& a.tokenName.equals(b.tokenName) && a.line == b.line
+						&& a.file.equals(b.file) && a.content.equals(b.content),
+						"Different token at " + i);
+			}
+		}
+	}
+
+	/**
+	 * Checks that tokens added to both words after ingesting get the same
+	 * symbols.
+	 */
+	private static void checkAddedTokens(PhpTokenWord expected,
+			PhpTokenWord actual) {
+		PhpToken known = new PhpToken(0, "T", 1, "new.php", "c0");
+		PhpToken unknown = new PhpToken(0, "T", 1, "new.php", "unknown");
+		for (PhpTokenWord word : Arrays.asList(expected, actual)) {
+			word.add(known);
+			word.add(unknown);
+			word.addSentinel();
+		}
+		checkSameWord(expected, actual);
+	}
+
+	/** Checks that a malformed file fails the whole ingestion. */
+	private static void checkMalformedFile(Path directory) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		Random random = new Random(0);
+		for (int i = 0; i < 20; ++i) {
+			Path file = directory.resolve("tokens" + i + ".json");
+			writeTokenFile(random, "file" + i + ".php", file);
+			files.add(file);
+		}
+		Files.write(files.get(13),
+				"[{\"content\": \"x\"".getBytes(StandardCharsets.UTF_8));
+		try {
+			new PhpTokenIngester(NUM_THREADS).ingest(files);
+		} catch (IOException e) {
+			return;
+		}
+		throw new AssertionError("Malformed file was accepted");
+	}
+
+	/** Returns the files in the given directory. */
+	private static List<Path> listFiles(Path directory) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (Stream<Path> stream = Files.list(directory)) {
+			stream.forEach(files::add);
+		}
+		return files;
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
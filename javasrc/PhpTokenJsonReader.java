@@ -0,0 +1,381 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming reader for the token files written by <code>totokens.php</code>.
+ * These contain a JSON array of objects with the keys
+ * <code>token_code</code>, <code>token_name</code>, <code>line</code>,
+ * <code>file</code> and <code>content</code>.
+ * <p>
+ * In contrast to parsing the whole file into a DOM, this pulls one token at
+ * a time from a buffered channel, so the memory used is proportional to the
+ * tokens kept by the caller. Strings repeated between tokens (such as the
+ * file name) are shared between the created tokens.
+ */
+public class PhpTokenJsonReader implements Closeable {
+
+	/** The number of characters read from the channel at once. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The underlying reader. */
+	private final Reader reader;
+
+	/** Buffer for characters read from {@link #reader}. */
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	/** The position of the next character in the {@link #buffer}. */
+	private int bufferPosition = 0;
+
+	/** The number of valid characters in the {@link #buffer}. */
+	private int bufferLength = 0;
+
+	/** The number of characters consumed before the current buffer. */
+	private long offset = 0;
+
+	/** Builder reused for parsing strings. */
+	private final StringBuilder stringBuilder = new StringBuilder();
+
+	/**
+	 * Used for sharing equal strings between tokens. Maps each string to its
+	 * shared instance.
+	 */
+	private final Map<String, String> strings;
+
+	/** Whether the opening bracket of the array was read already. */
+	private boolean started = false;
+
+	/** Whether the closing bracket of the array was read already. */
+	private boolean finished = false;
+
+	/** Opens the given token file. */
+	public PhpTokenJsonReader(Path file) throws IOException {
+		this(file, new HashMap<String, String>());
+	}
+
+	/**
+	 * Opens the given token file, sharing strings using the given map. This
+	 * allows strings to be shared between the tokens of multiple files. If
+	 * the map is used by multiple readers concurrently, it has to be thread
+	 * safe.
+	 */
+	public PhpTokenJsonReader(Path file, Map<String, String> strings)
+			throws IOException {
+		this.strings = strings;
+		reader = Channels.newReader(
+				FileChannel.open(file, StandardOpenOption.READ),
+				StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads all remaining tokens and appends them to the given word. Between
+	 * tokens of different files a {@link Sentinel} is inserted, so no clone
+	 * can span multiple files. No sentinel is appended after the last token.
+	 */
+	public void readAll(PhpTokenWord word) throws IOException {
+		String file = null;
+		for (PhpToken token = next(); token != null; token = next()) {
+			if (file != null && !file.equals(token.file)) {
+				word.addSentinel();
+			}
+			file = token.file;
+			word.add(token);
+		}
+	}
+
+	/** Returns the next token or null if all tokens have been read. */
+	public PhpToken next() throws IOException {
+		if (finished) {
+			return null;
+		}
+		if (!started) {
+			expect('[');
+			started = true;
+			if (peekNonWhitespace() == ']') {
+				++bufferPosition;
+				finish();
+				return null;
+			}
+		} else {
+			int c = readNonWhitespace();
+			if (c == ']') {
+				finish();
+				return null;
+			}
+			if (c != ',') {
+				throw error("Expected ',' or ']'");
+			}
+		}
+		return readToken();
+	}
+
+	/**
+	 * Marks the array as finished after its closing bracket, which must be
+	 * the end of the file (apart from whitespace).
+	 */
+	private void finish() throws IOException {
+		if (peekNonWhitespace() >= 0) {
+			throw error("Unexpected content after the token array");
+		}
+		finished = true;
+	}
+
+	/** Reads a single token object. */
+	private PhpToken readToken() throws IOException {
+		int tokenCode = 0;
+		int line = 0;
+		String tokenName = "";
+		String file = "";
+		String content = "";
+
+		expect('{');
+		if (peekNonWhitespace() == '}') {
+			++bufferPosition;
+		} else {
+			while (true) {
+				expect('"');
+				String key = readString();
+				expect(':');
+				if ("token_code".equals(key)) {
+					tokenCode = readInt();
+				} else if ("line".equals(key)) {
+					line = readInt();
+				} else if ("token_name".equals(key)) {
+					tokenName = readSharedString();
+				} else if ("file".equals(key)) {
+					file = readSharedString();
+				} else if ("content".equals(key)) {
+					content = readSharedString();
+				} else {
+					skipValue();
+				}
+
+				int c = readNonWhitespace();
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw error("Expected ',' or '}'");
+				}
+			}
+		}
+		return new PhpToken(tokenCode, tokenName, line, file, content);
+	}
+
+	/** Reads a string value and returns the shared instance of it. */
+	private String readSharedString() throws IOException {
+		expect('"');
+		String value = readString();
+		String shared = strings.putIfAbsent(value, value);
+		if (shared == null) {
+			return value;
+		}
+		return shared;
+	}
+
+	/**
+	 * Reads the remainder of a string, whose opening quote was consumed
+	 * already.
+	 */
+	private String readString() throws IOException {
+		stringBuilder.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == '"') {
+				return stringBuilder.toString();
+			}
+			if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'u':
+					c = readHexChar();
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					break;
+				default:
+					throw error("Invalid escape sequence");
+				}
+			}
+			stringBuilder.append((char) c);
+		}
+	}
+
+	/** Reads the four hex digits of a unicode escape. */
+	private int readHexChar() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; ++i) {
+			int digit = Character.digit(read(), 16);
+			if (digit < 0) {
+				throw error("Invalid unicode escape");
+			}
+			value = 16 * value + digit;
+		}
+		return value;
+	}
+
+	/** Reads a number value, which is expected to be an integer. */
+	private int readInt() throws IOException {
+		String number = readLiteral();
+		try {
+			return Integer.parseInt(number);
+		} catch (NumberFormatException e) {
+			throw error("Expected integer but found '" + number + "'");
+		}
+	}
+
+	/**
+	 * Reads a literal value (number, true, false or null) up to the next
+	 * structural character.
+	 */
+	private String readLiteral() throws IOException {
+		stringBuilder.setLength(0);
+		int c = peekNonWhitespace();
+		while (c >= 0 && c != ',' && c != '}' && c != ']'
+				&& !Character.isWhitespace(c)) {
+			stringBuilder.append((char) c);
+			++bufferPosition;
+			c = peek();
+		}
+		return stringBuilder.toString();
+	}
+
+	/** Skips over an arbitrary value. */
+	private void skipValue() throws IOException {
+		int c = peekNonWhitespace();
+		if (c == '"') {
+			++bufferPosition;
+			readString();
+		} else if (c == '[' || c == '{') {
+			int close = c == '[' ? ']' : '}';
+			++bufferPosition;
+			if (peekNonWhitespace() == close) {
+				++bufferPosition;
+				return;
+			}
+			while (true) {
+				if (c == '{') {
+					expect('"');
+					readString();
+					expect(':');
+				}
+				skipValue();
+				int next = readNonWhitespace();
+				if (next == close) {
+					return;
+				}
+				if (next != ',') {
+					throw error("Expected ',' or '" + (char) close + "'");
+				}
+			}
+		} else {
+			readLiteral();
+		}
+	}
+
+	/** Reads the next non-whitespace character and checks its value. */
+	private void expect(char expected) throws IOException {
+		if (readNonWhitespace() != expected) {
+			throw error("Expected '" + expected + "'");
+		}
+	}
+
+	/** Reads the next non-whitespace character. */
+	private int readNonWhitespace() throws IOException {
+		int c = peekNonWhitespace();
+		++bufferPosition;
+		return c;
+	}
+
+	/**
+	 * Returns the next non-whitespace character without consuming it, or -1
+	 * at the end of the file.
+	 */
+	private int peekNonWhitespace() throws IOException {
+		int c = peek();
+		while (c >= 0 && Character.isWhitespace(c)) {
+			++bufferPosition;
+			c = peek();
+		}
+		return c;
+	}
+
+	/** Reads the next character, failing at the end of the file. */
+	private int read() throws IOException {
+		int c = peek();
+		if (c < 0) {
+			throw error("Unexpected end of file");
+		}
+		++bufferPosition;
+		return c;
+	}
+
+	/**
+	 * Returns the next character without consuming it, or -1 at the end of
+	 * the file.
+	 */
+	private int peek() throws IOException {
+		if (bufferPosition >= bufferLength) {
+			offset += bufferLength;
+			bufferPosition = 0;
+			bufferLength = Math.max(0, reader.read(buffer));
+			if (bufferLength == 0) {
+				return -1;
+			}
+		}
+		return buffer[bufferPosition];
+	}
+
+	/** Creates an exception for malformed input at the current position. */
+	private IOException error(String message) {
+		return new IOException(message + " at character "
+				+ (offset + bufferPosition) + " of token file.");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
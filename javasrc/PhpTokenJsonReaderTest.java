@@ -0,0 +1,266 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Tests for the {@link PhpTokenJsonReader}: escapes (including surrogate
+ * pairs), skipped nested values and random token files must be read like
+ * with the org.json parser used before, while truncated or malformed files
+ * must fail with an {@link IOException} instead of hanging. Run the main
+ * method with <code>json-20140107.jar</code> on the class path; a failed
+ * check throws an {@link AssertionError}.
+ */
+class PhpTokenJsonReaderTest {
+
+	/**
+	 * Characters used for random contents, including ones to escape and a
+	 * surrogate pair.
+	 */
+	private static final String[] CHARACTERS = { "a", "b", " ", "$", ";",
+			"{", "}", "[", "]", ":", ",", "\"", "\\", "/", "\b", "\f", "\n",
+			"\r", "\t", "\u0001", "\u001f", "\u00e4", "\u00a0", "\u2028",
+			"\ud83d\ude00" };
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("tokens", ".json");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			checkEscapes(file);
+			checkNestedValues(file);
+			Random random = new Random(0);
+			for (int i = 0; i < 20; ++i) {
+				checkSameAsJsonArray(createTokens(random, 300), i % 2 == 0,
+						file);
+			}
+			checkMalformed(file);
+
+			// a hanging reader must fail the test instead of blocking it
+			final Path truncated = file;
+			final String json = createTokens(random, 20).toString();
+			Future<?> future = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					checkTruncated(json, truncated);
+					return null;
+				}
+			});
+			future.get(60, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			Files.delete(file);
+		}
+		System.out.println("OK");
+	}
+
+	/** Checks that all escapes of JSON strings are decoded. */
+	private static void checkEscapes(Path file) throws IOException {
+		write("[{\"content\": \"\\\"\\\\\\/\\b\\f\\n\\r\\t\","
+				+ " \"token_name\": \"\\u0041\\u00e4\\u00E4\\u20ac\","
+				+ " \"file\": \"\\ud83d\\ude00 \u00e4 \ud83d\ude00\"}]", file);
+		PhpToken token = readAll(file).get(0);
+		check("\"\\/\b\f\n\r\t".equals(token.content), "Wrong simple escapes");
+		check("A\u00e4\u00e4\u20ac".equals(token.tokenName),
+				"Wrong unicode escapes");
+		check("\ud83d\ude00 \u00e4 \ud83d\ude00".equals(token.file),
+				"Wrong surrogate pairs");
+		check(token.file.codePointCount(0, token.file.length()) == 5,
+				"Surrogate pairs not combined");
+	}
+
+	/**
+	 * Checks that unknown keys with nested arrays and objects are skipped and
+	 * missing keys get default values.
+	 */
+	private static void checkNestedValues(Path file) throws IOException {
+		write(" [ {\"extra\": [1, [2, {\"a\": [3, \"]}\"]}], {\"b\": {}}, []],"
+				+ " \"token_code\": 379, \"other\": {\"c\": [[[]]], \"d\": null},"
+				+ " \"line\": 12, \"flag\": true, \"content\": \"echo\"},\n"
+				+ "{}, {\"file\": \"b.php\", \"empty\": {} } ]", file);
+		List<PhpToken> tokens = readAll(file);
+		check(tokens.size() == 3, "Wrong number of tokens: " + tokens.size());
+		PhpToken token = tokens.get(0);
+		check(token.tokenCode == 379 && token.line == 12
+				&& "echo".equals(token.content) && "".equals(token.file),
+				"Nested values not skipped");
+		check(tokens.get(1).line == 0 && "".equals(tokens.get(1).content),
+				"Wrong default values");
+		check("b.php".equals(tokens.get(2).file), "Wrong token after {}");
+	}
+
+	/**
+	 * Creates at least half of the given number of random tokens in files of
+	 * 100 tokens as a JSON array.
+	 */
+	private static JSONArray createTokens(Random random, int maxTokens) {
+		JSONArray tokens = new JSONArray();
+		int numTokens = maxTokens / 2 + random.nextInt(maxTokens / 2);
+		for (int i = 0; i < numTokens; ++i) {
+			JSONObject token = new JSONObject();
+			int code = random.nextInt(400);
+			token.put("token_code", code);
+			token.put("token_name", "T_" + code);
+			token.put("line", 1 + i / 3);
+			token.put("file", "file" + (i / 100) + ".php");
+			StringBuilder content = new StringBuilder();
+			for (int length = random.nextInt(8); length > 0; --length) {
+				content.append(CHARACTERS[random.nextInt(CHARACTERS.length)]);
+			}
+			token.put("content", content.toString());
+			tokens.put(token);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Checks that the reader yields the same tokens as the org.json parser,
+	 * and that {@link PhpTokenJsonReader#readAll(PhpTokenWord)} only adds
+	 * sentinels between files.
+	 */
+	private static void checkSameAsJsonArray(JSONArray tokens,
+			boolean indent, Path file) throws IOException {
+		String json = tokens.toString();
+		if (indent) {
+			json = tokens.toString(2);
+		}
+		write(json, file);
+
+		JSONArray expected = new JSONArray(new String(
+				Files.readAllBytes(file), StandardCharsets.UTF_8));
+		List<PhpToken> actual = readAll(file);
+		check(actual.size() == expected.length(), "Different number of tokens");
+		for (int i = 0; i < actual.size(); ++i) {
+			JSONObject object = expected.getJSONObject(i);
+			PhpToken token = actual.get(i);
+			check(token.tokenCode == object.getInt("token_code")
+					&& token.tokenName.equals(object.getString("token_name"))
+					&& token.line == object.getInt("line")
+					&& token.file.equals(object.getString("file"))
+					&& token.content.equals(object.getString("content")),
+					"Different token " + i + " in " + json);
+		}
+
+		PhpTokenWord word = new PhpTokenWord();
+		try (PhpTokenJsonReader reader = new PhpTokenJsonReader(file)) {
+			reader.readAll(word);
+		}
+		List<PhpToken> withSentinels = new ArrayList<PhpToken>();
+		String previousFile = null;
+		for (PhpToken token : actual) {
+			if (previousFile != null && !previousFile.equals(token.file)) {
+				withSentinels.add(null);
+			}
+			previousFile = token.file;
+			withSentinels.add(token);
+		}
+		check(word.size() == withSentinels.size(), "Wrong number of sentinels");
+		for (int i = 0; i < word.size(); ++i) {
+			boolean sentinel = word.getTokens().get(i) instanceof Sentinel;
+			check(sentinel == (withSentinels.get(i) == null),
+					"Wrong sentinel at " + i);
+		}
+	}
+
+	/** Checks that malformed files are rejected. */
+	private static void checkMalformed(Path file) throws IOException {
+		String[] malformed = { "", " ", "{}", "[", "[{]", "[{}", "[{},]",
+				"[{} {}]", "[{}]]", "[1]", "[{\"line\": \"x\"}]",
+				"[{\"line\": 1.5}]", "[{\"token_code\": }]",
+				"[{\"content\" \"x\"}]", "[{\"content\": \"x}]",
+				"[{\"content\": \"\\q\"}]", "[{\"content\": \"\\u12G4\"}]",
+				"[{\"content\": \"\\u12\"}]", "[{\"a\": [1, 2}]",
+				"[{\"a\": {\"b\" 1}}]", "[{content: 1}]" };
+		for (String json : malformed) {
+			write(json, file);
+			checkRejected(file, json);
+		}
+
+		// invalid UTF-8
+		Files.write(file, new byte[] { '[', '{', '"', 'f', 'i', 'l', 'e', '"',
+				':', '"', (byte) 0xC3, '"', '}', ']' });
+		checkRejected(file, "invalid UTF-8");
+	}
+
+	/** Checks that every truncation of the given JSON is rejected. */
+	private static void checkTruncated(String json, Path file)
+			throws IOException {
+		write(json, file);
+		check(readAll(file).size() == new JSONArray(json).length(),
+				"Complete file not read");
+		for (int length = json.length() - 1; length >= 0; --length) {
+			if (Character.isLowSurrogate(json.charAt(length))) {
+				// do not split surrogate pairs
+				continue;
+			}
+			write(json.substring(0, length), file);
+			checkRejected(file, "truncated to " + length + " characters");
+		}
+	}
+
+	/**
+	 * Checks that reading the file fails with an IOException with a
+	 * message.
+	 */
+	private static void checkRejected(Path file, String description) {
+		try {
+			readAll(file);
+		} catch (IOException e) {
+			check(e.getMessage() != null, "No message for " + description);
+			return;
+		}
+		throw new AssertionError("Accepted " + description);
+	}
+
+	/** Reads all tokens of the given file without sentinels. */
+	private static List<PhpToken> readAll(Path file) throws IOException {
+		List<PhpToken> tokens = new ArrayList<PhpToken>();
+		try (PhpTokenJsonReader reader = new PhpTokenJsonReader(file)) {
+			for (PhpToken token = reader.next(); token != null; token = reader
+					.next()) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	/** Writes the given JSON to the file. */
+	private static void write(String json, Path file) throws IOException {
+		Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
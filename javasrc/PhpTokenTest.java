@@ -0,0 +1,146 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the equality of {@link PhpToken}s and the symbols assigned to
+ * them by a {@link PhpTokenWord} and a {@link SuffixTree}: tokens with equal
+ * content are equal and get the same symbol, tokens with different content
+ * (even with the same content hash) are not, and a {@link Sentinel} is equal
+ * to nothing but itself. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class PhpTokenTest {
+
+	public static void main(String[] args) {
+		checkEquality();
+		checkSentinels();
+		Random random = new Random(0);
+		for (int i = 0; i < 10; ++i) {
+			checkSymbols(random);
+		}
+		System.out.println("OK");
+	}
+
+	/** Checks equals() and hashCode() of normal tokens. */
+	private static void checkEquality() {
+		PhpToken a = new PhpToken(309, "T_VARIABLE", 1, "a.php", "$a");
+		PhpToken b = new PhpToken(320, "T_STRING", 7, "b.php",
+				new String("$a"));
+		PhpToken c = new PhpToken(309, "T_VARIABLE", 1, "a.php", "$b");
+		check(a.equals(b) && b.equals(a) && a.hashCode() == b.hashCode(),
+				"Tokens with equal content differ");
+		check(!a.equals(c) && !c.equals(a), "Tokens with other content equal");
+		check(!a.equals(null) && !a.equals("$a"), "Token equals non-token");
+		check(a.getContentHash() == PhpToken.hash64("$a"),
+				"Wrong content hash");
+
+		// the content is compared even if the hashes are equal
+		PhpToken d = new PhpToken(0, "T", 1, "f", "x", 42);
+		PhpToken e = new PhpToken(0, "T", 1, "f", "y", 42);
+		PhpToken f = new PhpToken(0, "T", 1, "f", "x", 42);
+		check(!d.equals(e) && d.equals(f), "Content not compared");
+	}
+
+	/** Checks that sentinels are only equal to themselves. */
+	private static void checkSentinels() {
+		Sentinel s1 = new Sentinel(0, "_", 0, "_", "_");
+		Sentinel s2 = new Sentinel(0, "_", 0, "_", "_");
+		PhpToken sameContent = new PhpToken(0, "sentinel", 0, "no_file",
+				s1.content);
+		check(s1.equals(s1), "Sentinel not equal to itself");
+		check(!s1.equals(s2) && !s2.equals(s1), "Sentinels equal");
+		check(!s1.equals(sameContent) && !sameContent.equals(s1),
+				"Sentinel equals a token with its content");
+
+		PhpTokenWord word = new PhpTokenWord();
+		word.add(sameContent);
+		word.addSentinel();
+		word.add(s1);
+		word.add(s2);
+		word.add(sameContent);
+		word.addSentinel();
+		int[] symbols = word.getSymbols();
+		check(symbols[0] == 0 && symbols[4] == 0, "Wrong symbol of token");
+		check(symbols[1] == -1 && symbols[2] == -2 && symbols[3] == -3
+				&& symbols[5] == -4, "Sentinels do not have unique symbols");
+
+		SuffixTree tree = new SuffixTree(word.getTokens());
+		int[] interned = tree.symbols;
+		check(interned[0] == interned[4], "Tree interned equal tokens apart");
+		for (int i : new int[] { 1, 2, 3, 5 }) {
+			for (int j = 0; j < interned.length; ++j) {
+				check(i == j || interned[i] != interned[j],
+						"Tree interned sentinel " + i + " like " + j);
+			}
+		}
+	}
+
+	/**
+	 * Adds random tokens to a word and checks that the symbols of two tokens
+	 * are equal if and only if the tokens are equal.
+	 */
+	private static void checkSymbols(Random random) {
+		String[] contents = { "$a", "$b", "=", ";", "(", ")", "echo", "if",
+				"\"x\"", "1", "" };
+		PhpTokenWord word = new PhpTokenWord();
+		for (int i = 0; i < 500; ++i) {
+			if (random.nextInt(20) == 0) {
+				word.addSentinel();
+			} else {
+				// new strings, so equality does not rely on identity
+				word.add(new PhpToken(random.nextInt(400), "T", i, "f",
+						new String(contents[random.nextInt(contents.length)])));
+			}
+		}
+
+		List<PhpToken> tokens = word.getTokens();
+		int[] symbols = word.getSymbols();
+		Map<PhpToken, Integer> firstSymbols = new HashMap<PhpToken, Integer>();
+		List<Integer> sentinelSymbols = new ArrayList<Integer>();
+		for (int i = 0; i < tokens.size(); ++i) {
+			for (int j = 0; j < tokens.size(); ++j) {
+				boolean equal = tokens.get(i).equals(tokens.get(j));
+				check(equal == (symbols[i] == symbols[j]), "Symbols of " + i
+						+ " and " + j + " do not match equality");
+			}
+			if (tokens.get(i) instanceof Sentinel) {
+				sentinelSymbols.add(symbols[i]);
+			} else {
+				Integer symbol = firstSymbols.get(tokens.get(i));
+				check(symbol == null || symbol == symbols[i],
+						"Hash lookup failed for " + i);
+				firstSymbols.put(tokens.get(i), symbols[i]);
+			}
+		}
+		for (int k = 0; k < sentinelSymbols.size(); ++k) {
+			check(sentinelSymbols.get(k) == -1 - k, "Wrong sentinel symbol");
+		}
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The word used as input for the suffix tree, built from a sequence of
+ * {@link PhpToken}s. Along with the tokens it stores their interned symbols
+ * (see {@link SuffixTree#symbols}), which are assigned while the tokens are
+ * added, so the tree does not have to intern the tokens again. Tokens with
+ * equal content get the same symbol, while each {@link Sentinel} gets its own
+ * negative symbol.
+ */
+public class PhpTokenWord {
+
+	/** The tokens added so far. */
+	private final List<PhpToken> tokens;
+
+	/** The symbols of the {@link #tokens}. Only the first entries are used. */
+	private int[] symbols;
+
+	/** Maps token contents to their symbols. */
+	private final Map<String, Integer> contentSymbols;
+
+	/** The number of sentinels added so far. */
+	private int numSentinels;
+
+	/** Creates an empty word. */
+	public PhpTokenWord() {
+		this(new ArrayList<PhpToken>(), new int[1024],
+				new HashMap<String, Integer>(), 0);
+	}
+
+	/**
+	 * Creates a word from already interned tokens. The symbols must have been
+	 * assigned as done by {@link #add(PhpToken)} and {@link #addSentinel()},
+	 * and the arguments are used internally (not copied).
+	 * 
+	 * @param symbols
+	 *            the symbols of the tokens. This may be longer than the list
+	 *            of tokens.
+	 */
+	/* package */PhpTokenWord(List<PhpToken> tokens, int[] symbols,
+			Map<String, Integer> contentSymbols, int numSentinels) {
+		this.tokens = tokens;
+		this.symbols = symbols;
+		this.contentSymbols = contentSymbols;
+		this.numSentinels = numSentinels;
+	}
+
+	/**
+	 * Appends a token. A {@link Sentinel} gets a new unique symbol (like
+	 * {@link #addSentinel()}), as it is never equal to another token.
+	 */
+	public void add(PhpToken token) {
+		if (token instanceof Sentinel) {
+			append(token, -1 - numSentinels++);
+			return;
+		}
+		Integer symbol = contentSymbols.get(token.content);
+		if (symbol == null) {
+			symbol = contentSymbols.size();
+			contentSymbols.put(token.content, symbol);
+		}
+		append(token, symbol);
+	}
+
+	/** Appends a new unique {@link Sentinel}. */
+	public void addSentinel() {
+		append(new Sentinel(0, "_", 0, "_", "_"), -1 - numSentinels++);
+	}
+
+	/** Appends a token with the given symbol. */
+	private void append(PhpToken token, int symbol) {
+		int size = tokens.size();
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, Math.max(16, 2 * size));
+		}
+		symbols[size] = symbol;
+		tokens.add(token);
+	}
+
+	/** Returns the number of tokens (including sentinels). */
+	public int size() {
+		return tokens.size();
+	}
+
+	/** Returns the tokens. */
+	public List<PhpToken> getTokens() {
+		return tokens;
+	}
+
+	/** Returns the symbols of the tokens as an array of length {@link #size()}. */
+	public int[] getSymbols() {
+		return Arrays.copyOf(symbols, tokens.size());
+	}
+}
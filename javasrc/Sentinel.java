@@ -10,13 +10,7 @@ class Sentinel extends PhpToken {
         String file,
         String content
     ) {
-        super(tokenCode, tokenName, line, file, content);
-
-        this.tokenCode = 0;
-        this.tokenName = "sentinel";
-        this.line = 0;
-        this.content = "sentinel";
-        this.file = "no_file";
+        super(0, "sentinel", 0, "no_file", "sentinel");
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,269 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Finds the exact clones of many token files using several worker processes
+ * on the same machine. Each process only holds a part of the data, so the
+ * heaps stay small (and garbage collection pauses short), while all cores
+ * are used.
+ * <p>
+ * The detection works in two phases:
+ * <ol>
+ * <li>The token files are divided into shards of similar size. Each worker
+ * reads one shard and writes a {@link CloneIndex} of its files.</li>
+ * <li>The coordinator merges the shard indexes by their chunk fingerprints
+ * (see {@link CloneIndex#merge(List, Path)}), so clones between different
+ * shards are found as well. Each worker then opens the merged index (which
+ * is memory mapped and thus shared via the page cache) and prints one part
+ * of the clone classes. As every clone class belongs to exactly one part,
+ * the coordinator only has to concatenate the outputs.</li>
+ * </ol>
+ * A suffix tree per shard is not used here, as it could not find the clones
+ * between shards without building trees over all pairs of shards.
+ */
+public class ShardedCloneDetection {
+
+	/** The chunk length and minimal length of the clones reported. */
+	private static final int CHUNK_LENGTH = 26;
+
+	/** The number of worker processes. */
+	private final int numShards;
+
+	/** The maximal heap of each worker (e.g. "512m") or null for the default. */
+	private final String workerHeap;
+
+	/** Constructor. */
+	public ShardedCloneDetection(int numShards, String workerHeap) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("Number of shards must be "
+					+ "positive: " + numShards);
+		}
+		this.numShards = numShards;
+		this.workerHeap = workerHeap;
+	}
+
+	/**
+	 * Prints the exact clones of the given token files (or directories
+	 * containing them) to {@link System#out} in the same format as
+	 * {@link ApproximateCloneDetectingSuffixTree#printIndexClones(CloneIndex, int, int)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if a file could not be read or a worker failed.
+	 */
+	public void run(List<Path> paths) throws IOException {
+		List<List<Path>> shards = createShards(ApproximateCloneDetectingSuffixTree
+				.listTokenFiles(paths));
+		Path directory = Files.createTempDirectory("clones");
+		try {
+			List<Process> workers = new ArrayList<Process>();
+			List<Path> indexFiles = new ArrayList<Path>();
+			for (int i = 0; i < shards.size(); ++i) {
+				Path listFile = directory.resolve("shard" + i + ".txt");
+				List<String> lines = new ArrayList<String>();
+				for (Path file : shards.get(i)) {
+					lines.add(file.toAbsolutePath().toString());
+				}
+				Files.write(listFile, lines, StandardCharsets.UTF_8);
+				Path indexFile = directory.resolve("shard" + i + ".idx");
+				indexFiles.add(indexFile);
+				workers.add(startWorker(null, "--index-shard",
+						listFile.toString(), indexFile.toString()));
+			}
+			waitFor(workers, "indexing");
+
+			Path mergedFile = directory.resolve("merged.idx");
+			CloneIndex.merge(indexFiles, mergedFile);
+
+			workers.clear();
+			List<Path> outputs = new ArrayList<Path>();
+			for (int i = 0; i < shards.size(); ++i) {
+				Path output = directory.resolve("part" + i + ".txt");
+				outputs.add(output);
+				workers.add(startWorker(output, "--find-clones",
+						mergedFile.toString(), Integer.toString(i),
+						Integer.toString(shards.size())));
+			}
+			waitFor(workers, "finding clones");
+
+			for (Path output : outputs) {
+				Files.copy(output, System.out);
+			}
+			System.out.flush();
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+						.forEach(File::delete);
+			}
+		}
+	}
+
+	/**
+	 * Divides the given files into at most {@link #numShards} shards of
+	 * similar size, assigning the largest files first to the smallest shard.
+	 */
+	private List<List<Path>> createShards(List<Path> files) throws IOException {
+		final List<Long> sizes = new ArrayList<Long>();
+		for (Path file : files) {
+			sizes.add(Files.size(file));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < files.size(); ++i) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Long.compare(sizes.get(j), sizes.get(i));
+			}
+		});
+
+		int count = Math.max(1, Math.min(numShards, files.size()));
+		List<List<Path>> shards = new ArrayList<List<Path>>();
+		long[] shardSizes = new long[count];
+		for (int i = 0; i < count; ++i) {
+			shards.add(new ArrayList<Path>());
+		}
+		for (int i : order) {
+			int smallest = 0;
+			for (int j = 1; j < count; ++j) {
+				if (shardSizes[j] < shardSizes[smallest]) {
+					smallest = j;
+				}
+			}
+			shards.get(smallest).add(files.get(i));
+			shardSizes[smallest] += sizes.get(i);
+		}
+		return shards;
+	}
+
+	/**
+	 * Starts a worker process running {@link #main(String[])} with the given
+	 * arguments.
+	 * 
+	 * @param output
+	 *            the file the output of the worker is written to or null to
+	 *            inherit the output of this process.
+	 */
+	private Process startWorker(Path output, String... args)
+			throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+				.toString());
+		if (workerHeap != null) {
+			command.add("-Xmx" + workerHeap);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardedCloneDetection.class.getName());
+		Collections.addAll(command, args);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(Redirect.INHERIT);
+		if (output == null) {
+			builder.redirectOutput(Redirect.INHERIT);
+		} else {
+			builder.redirectOutput(output.toFile());
+		}
+		return builder.start();
+	}
+
+	/**
+	 * Waits for all given workers (one per shard) to finish. If one fails or
+	 * waiting is interrupted, the remaining workers are destroyed and the
+	 * outputs of the workers are discarded.
+	 * 
+	 * @param phase
+	 *            the phase the workers run in, used for error messages.
+	 * @throws IOException
+	 *             naming the shard and phase of the first failed worker.
+	 */
+	private static void waitFor(List<Process> workers, String phase)
+			throws IOException {
+		try {
+			for (int i = 0; i < workers.size(); ++i) {
+				int exitCode = workers.get(i).waitFor();
+				if (exitCode != 0) {
+					throw new IOException("Worker for shard " + i + " of "
+							+ workers.size() + " failed while " + phase
+							+ " with exit code " + exitCode
+							+ " (see its error output above)");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for "
+					+ "workers");
+		} finally {
+			for (Process worker : workers) {
+				worker.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Entry point of the worker processes started by {@link #run(List)}.
+	 * 
+	 * Usage:
+	 *   ShardedCloneDetection --index-shard list-file index-file
+	 *   ShardedCloneDetection --find-clones index-file part parts
+	 * 
+	 * With --index-shard the token files listed in the list file (one per
+	 * line) are read and a CloneIndex of them is written to the index file.
+	 * With --find-clones the given part of the clones of the index file is
+	 * printed.
+	 */
+	public static void main(String[] args) throws ConQATException,
+			IOException {
+		if (args.length == 3 && "--index-shard".equals(args[0])) {
+			List<Path> files = new ArrayList<Path>();
+			for (String line : Files.readAllLines(Paths.get(args[1]),
+					StandardCharsets.UTF_8)) {
+				files.add(Paths.get(line));
+			}
+			// the parallelism comes from the processes
+			PhpTokenWord word = new PhpTokenIngester(1).ingest(files);
+			CloneIndex index = new CloneIndex(CHUNK_LENGTH);
+			index.addFiles(word.getTokens());
+			index.write(Paths.get(args[2]));
+		} else if (args.length == 4 && "--find-clones".equals(args[0])) {
+			CloneIndex index = CloneIndex.open(Paths.get(args[1]));
+			ApproximateCloneDetectingSuffixTree.printIndexClones(index,
+					Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+		} else {
+			System.err.println("Usage: ShardedCloneDetection "
+					+ "--index-shard list-file index-file | "
+					+ "--find-clones index-file part parts");
+			System.exit(1);
+		}
+	}
+}
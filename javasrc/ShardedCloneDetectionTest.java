@@ -0,0 +1,195 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the {@link ShardedCloneDetection}, which writes random token
+ * files sharing some code and checks that the clone classes printed using
+ * several worker processes are the same as the ones printed from a single
+ * {@link CloneIndex} of all files. A malformed file must fail the detection
+ * naming the shard. Run the main method with the compiled classes on the
+ * class path of the JVM, as the workers are started with it; a failed check
+ * throws an {@link AssertionError}.
+ */
+class ShardedCloneDetectionTest {
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("tokens");
+		try {
+			List<Path> files = writeTokenFiles(new Random(0), directory);
+			String expected = printSingleIndexClones(files);
+			check(expected.contains("Clone class"), "No clones found");
+			for (int numShards : new int[] { 1, 3 }) {
+				String actual = printShardedClones(numShards, directory);
+				check(sortCloneClasses(expected).equals(
+						sortCloneClasses(actual)), "Different clones with "
+						+ numShards + " shards:\n" + expected + "\n" + actual);
+			}
+			checkFailedWorker(directory);
+		} finally {
+			try (Stream<Path> files = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Writes token files of random tokens, into which copies of a few common
+	 * fragments are inserted.
+	 */
+	private static List<Path> writeTokenFiles(Random random, Path directory)
+			throws IOException {
+		int[][] fragments = new int[5][];
+		for (int i = 0; i < fragments.length; ++i) {
+			fragments[i] = createSymbols(random, 30 + random.nextInt(50));
+		}
+		List<Path> files = new ArrayList<Path>();
+		for (int i = 0; i < 12; ++i) {
+			List<Integer> symbols = new ArrayList<Integer>();
+			for (int j = random.nextInt(4); j >= 0; --j) {
+				for (int symbol : createSymbols(random, random.nextInt(100))) {
+					symbols.add(symbol);
+				}
+				for (int symbol : fragments[random.nextInt(fragments.length)]) {
+					symbols.add(symbol);
+				}
+			}
+			Path file = directory.resolve("tokens" + i + ".json");
+			writeTokenFile(symbols, "file" + i + ".php", file);
+			files.add(file);
+		}
+		return files;
+	}
+
+	/** Creates random symbols, which are unlikely to form other clones. */
+	private static int[] createSymbols(Random random, int length) {
+		int[] symbols = new int[length];
+		for (int i = 0; i < length; ++i) {
+			symbols[i] = random.nextInt(1000000);
+		}
+		return symbols;
+	}
+
+	/** Writes a token file with one token per line for the given symbols. */
+	private static void writeTokenFile(List<Integer> symbols, String name,
+			Path file) throws IOException {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < symbols.size(); ++i) {
+			if (i > 0) {
+				json.append(",\n");
+			}
+			json.append("{\"token_code\": 1, \"token_name\": \"T\", \"line\": ")
+					.append(i + 1).append(", \"file\": \"").append(name)
+					.append("\", \"content\": \"c").append(symbols.get(i))
+					.append("\"}");
+		}
+		json.append("]");
+		Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Prints the clones of a single index of all given files. */
+	private static String printSingleIndexClones(List<Path> files)
+			throws Exception {
+		CloneIndex index = new CloneIndex(26);
+		index.addFiles(new PhpTokenIngester(1).ingest(files).getTokens());
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true, "UTF-8"));
+		try {
+			ApproximateCloneDetectingSuffixTree.printIndexClones(index, 0, 1);
+		} finally {
+			System.setOut(out);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/** Prints the clones of the given directory using the given shards. */
+	private static String printShardedClones(int numShards, Path directory)
+			throws IOException {
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true, "UTF-8"));
+		try {
+			new ShardedCloneDetection(numShards, "64m").run(Collections
+					.singletonList(directory));
+		} finally {
+			System.setOut(out);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the clone classes of the given output in sorted order, each with
+	 * its sorted clones. The parts of the sharded detection are printed one
+	 * after the other and the order of the clones within a class depends on
+	 * the order the files were indexed in.
+	 */
+	private static List<String> sortCloneClasses(String output) {
+		List<String> cloneClasses = new ArrayList<String>();
+		for (String cloneClass : output.trim().split("\n\n")) {
+			List<String> lines = new ArrayList<String>();
+			for (String line : cloneClass.split("\n")) {
+				lines.add(line.replaceFirst("^  - ", "    "));
+			}
+			Collections.sort(lines.subList(1, lines.size()));
+			cloneClasses.add(String.join("\n", lines));
+		}
+		Collections.sort(cloneClasses);
+		return cloneClasses;
+	}
+
+	/**
+	 * Checks that a worker failing on a malformed file fails the detection
+	 * with an exception naming the shard.
+	 */
+	private static void checkFailedWorker(Path directory) throws IOException {
+		Files.write(directory.resolve("tokens5.json"),
+				"[{\"content\": ".getBytes(StandardCharsets.UTF_8));
+		try {
+			System.err.println("Expecting a failed worker:");
+			printShardedClones(3, directory);
+		} catch (IOException e) {
+			check(e.getMessage().contains("shard")
+					&& e.getMessage().contains("indexing"),
+					"Failed worker not described: " + e.getMessage());
+			return;
+		}
+		throw new AssertionError("Failed worker not reported");
+	}
+
+	/** Throws an {@link AssertionError} if the condition does not hold. */
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
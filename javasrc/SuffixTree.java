@@ -15,7 +15,12 @@
 | limitations under the License.                                           |
 +-------------------------------------------------------------------------*/
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Efficient linear time constructible suffix tree using Ukkonen's online
@@ -48,11 +53,46 @@ import java.util.List;
  */
 public class SuffixTree {
 
-	/** Infinity in this context. */
-	protected final int INFTY;
+	/** The initial node capacity used for growable trees. */
+	private static final int MIN_NODE_CAPACITY = 16;
+
+	/**
+	 * Infinity in this context, which is the length of the word inserted so
+	 * far. Leaves created before the tree was extended (see
+	 * {@link #append(List, int[])}) keep the old value, so their suffixes end
+	 * at the sentinel which closed the word back then.
+	 */
+	protected int INFTY;
 
 	/** The word we are working on. */
-	protected final List<?> word;
+	protected List<?> word;
+
+	/**
+	 * The word as interned symbols, i.e. for each position of {@link #word} a
+	 * number, where equal characters are mapped to the same number. The
+	 * construction only works on this array, so no calls to
+	 * {@link Object#equals(Object)} or {@link Object#hashCode()} are required.
+	 */
+	protected int[] symbols;
+
+	/**
+	 * Maps the characters of {@link #word} to their symbols. This is only
+	 * required for {@link #containsWord(List)} and hence created lazily if the
+	 * symbols were not interned by us.
+	 */
+	private Map<Object, Integer> symbolIds;
+
+	/**
+	 * Whether the {@link #symbols} were interned by us (and not given by the
+	 * caller), in which case further characters are interned in the same way.
+	 */
+	private final boolean internedSymbols;
+
+	/**
+	 * Whether the node arrays are stored off-heap (see
+	 * {@link #createIntArray(int)}).
+	 */
+	private final boolean offHeap;
 
 	/** The number of nodes created so far. */
 	protected int numNodes = 0;
@@ -62,48 +102,48 @@ public class SuffixTree {
 	 * {@link #word} labeling the transition <b>to</b> this node. This
 	 * corresponds to the <em>k</em> for a transition used in Ukkonen's paper.
 	 */
-	protected final int[] nodeWordBegin;
+	protected IntArray nodeWordBegin;
 
 	/**
 	 * For each node this holds the index of the one after the last character of
 	 * {@link #word} labeling the transition <b>to</b> this node. This
 	 * corresponds to the <em>p</em> for a transition used in Ukkonen's paper.
 	 */
-	protected final int[] nodeWordEnd;
+	protected IntArray nodeWordEnd;
 
 	/** For each node its suffix link (called function <em>f</em> by Ukkonen). */
-	protected final int[] suffixLink;
+	protected IntArray suffixLink;
 
 	/**
 	 * The next node function realized as a hash table. This corresponds to the
 	 * <em>g</em> function used in Ukkonen's paper.
 	 */
-	protected final SuffixTreeHashTable nextNode;
+	protected SuffixTreeHashTable nextNode;
 
 	/**
 	 * An array giving for each node the index where the first child will be
 	 * stored (or -1 if it has no children). It is initially empty and will be
 	 * filled "on demand" using
-	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(int[], int[], int[])}
+	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(IntArray, IntArray, IntArray)}
 	 * .
 	 */
-	protected int[] nodeChildFirst;
+	protected IntArray nodeChildFirst;
 
 	/**
 	 * This array gives the next index of the child list or -1 if this is the
 	 * last one. It is initially empty and will be filled "on demand" using
-	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(int[], int[], int[])}
+	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(IntArray, IntArray, IntArray)}
 	 * .
 	 */
-	protected int[] nodeChildNext;
+	protected IntArray nodeChildNext;
 
 	/**
 	 * This array stores the actual name (=number) of the mode in the child
 	 * list. It is initially empty and will be filled "on demand" using
-	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(int[], int[], int[])}
+	 * {@link org.conqat.engine.code_clones.detection.suffixtree.SuffixTreeHashTable#extractChildLists(IntArray, IntArray, IntArray)}
 	 * .
 	 */
-	protected int[] nodeChildNode;
+	protected IntArray nodeChildNode;
 
 	/**
 	 * The node we are currently at as a "global" variable (as it is always
@@ -120,7 +160,7 @@ public class SuffixTree {
 
 	/**
 	 * This is the new (or old) explicit state as returned by
-	 * {@link #testAndSplit(int, Object)}. Ukkonen calls this <em>r</em>.
+	 * {@link #testAndSplit(int, int)}. Ukkonen calls this <em>r</em>.
 	 */
 	private int explicitNode;
 
@@ -130,15 +170,83 @@ public class SuffixTree {
 	 * if required.
 	 */
 	public SuffixTree(List<?> word) {
+		this(word, null);
+	}
+
+	/**
+	 * Create a new suffix tree from a word given as interned symbols (i.e.
+	 * equal characters are represented by the same number). Sentinels should
+	 * be represented by distinct negative numbers, so each of them is unique
+	 * within the word. The array is used internally and should not be modified
+	 * anymore.
+	 */
+	public SuffixTree(int[] symbols) {
+		this(new SymbolList(symbols), symbols);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols are already known. The symbols must be consistent with the
+	 * equality of the characters of the word, i.e. two positions have the same
+	 * symbol iff the characters are equal. If the symbols are null, they are
+	 * calculated from the word. Both word and symbols are used internally and
+	 * should not be modified anymore.
+	 */
+	public SuffixTree(List<?> word, int[] symbols) {
+		this(word, symbols, false);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols may already be known (see {@link #SuffixTree(List, int[])}).
+	 * 
+	 * @param growable
+	 *            if this is true, the node arrays and the hash table start
+	 *            small and grow during construction as required. Otherwise
+	 *            storage for the maximal number of nodes is allocated up
+	 *            front, which avoids copying but wastes memory for words with
+	 *            few branching nodes.
+	 */
+	public SuffixTree(List<?> word, int[] symbols, boolean growable) {
+		this(word, symbols, growable, false);
+	}
+
+	/**
+	 * Create a new suffix tree from a given word for which the interned
+	 * symbols may already be known (see {@link #SuffixTree(List, int[])}).
+	 * 
+	 * @param growable
+	 *            see {@link #SuffixTree(List, int[], boolean)}.
+	 * @param offHeap
+	 *            if this is true, the node arrays, the child lists and the hash
+	 *            table are stored outside of the Java heap (see
+	 *            {@link IntArray}), so they are neither scanned nor copied by
+	 *            the garbage collector. This is intended for very large words.
+	 */
+	public SuffixTree(List<?> word, int[] symbols, boolean growable,
+			boolean offHeap) {
 		this.word = word;
-		int size = word.size();
+		this.offHeap = offHeap;
+		internedSymbols = symbols == null;
+		if (internedSymbols) {
+			symbolIds = new HashMap<Object, Integer>();
+			symbols = internSymbols(word, symbolIds);
+		}
+		this.symbols = symbols;
+		int size = symbols.length;
 		INFTY = size;
 
 		int expectedNodes = 2 * size;
-		nodeWordBegin = new int[expectedNodes];
-		nodeWordEnd = new int[expectedNodes];
-		suffixLink = new int[expectedNodes];
-		nextNode = new SuffixTreeHashTable(expectedNodes);
+		if (growable) {
+			expectedNodes = Math.min(expectedNodes, MIN_NODE_CAPACITY + size
+					/ 2);
+			nextNode = new SuffixTreeHashTable(offHeap);
+		} else {
+			nextNode = new SuffixTreeHashTable(expectedNodes, offHeap);
+		}
+		nodeWordBegin = createIntArray(expectedNodes);
+		nodeWordEnd = createIntArray(expectedNodes);
+		suffixLink = createIntArray(expectedNodes);
 
 		createRootNode();
 
@@ -148,12 +256,230 @@ public class SuffixTree {
 		}
 	}
 
+	/**
+	 * Loads a suffix tree written by {@link #write(DataOutputStream)} (see
+	 * {@link SuffixTreeFile}). The node arrays and the hash table are memory
+	 * mapped read-only until the tree is extended (see
+	 * {@link #append(List, int[])}).
+	 * 
+	 * @param word
+	 *            the word the tree was built from or null to use the stored
+	 *            symbols.
+	 * @param symbols
+	 *            the symbols of the word if known. These must equal the stored
+	 *            ones, which guards against using a tree of another word.
+	 */
+	protected SuffixTree(SuffixTreeFile.Reader in, List<?> word, int[] symbols)
+			throws IOException {
+		this.offHeap = true;
+		internedSymbols = false;
+		int[] storedSymbols = in.readInts(in.readInt());
+		if (symbols != null && !Arrays.equals(symbols, storedSymbols)) {
+			throw new IOException(
+					"Suffix tree was built for a different word");
+		}
+		this.symbols = storedSymbols;
+		if (word == null) {
+			word = new SymbolList(storedSymbols);
+		} else if (word.size() != storedSymbols.length) {
+			throw new IOException("Suffix tree was built for a word of length "
+					+ storedSymbols.length + ", not " + word.size());
+		}
+		this.word = word;
+		INFTY = storedSymbols.length;
+
+		numNodes = in.readInt();
+		nodeWordBegin = in.mapIntArray(numNodes);
+		nodeWordEnd = in.mapIntArray(numNodes);
+		suffixLink = in.mapIntArray(numNodes);
+		nodeChildFirst = in.mapIntArray(numNodes);
+		nodeChildNext = in.mapIntArray(numNodes);
+		nodeChildNode = in.mapIntArray(numNodes);
+		nextNode = new SuffixTreeHashTable(in);
+		currentNode = in.readInt();
+		refWordBegin = in.readInt();
+	}
+
+	/**
+	 * Appends characters to the word and inserts them into the tree by
+	 * continuing the online construction, which is much cheaper than building
+	 * a tree for the whole word again. This is only possible if the word
+	 * inserted so far ends with a unique sentinel. The appended characters
+	 * should again end with a new sentinel, as otherwise some suffixes do not
+	 * end in a leaf and the tree can not be extended any further. Trees loaded
+	 * from a {@link SuffixTreeFile} are copied to writable storage first.
+	 * 
+	 * @param extendedWord
+	 *            the word including the appended characters, which replaces
+	 *            the word given before (it may be the same list if that has
+	 *            grown). If this is null, the word becomes the list of symbols.
+	 * @param newSymbols
+	 *            the symbols of the appended characters, which must be
+	 *            consistent with the symbols so far (see
+	 *            {@link #SuffixTree(List, int[])}). This may only be null if
+	 *            the symbols were not given at construction time either, in
+	 *            which case the characters are interned.
+	 * @throws IllegalStateException
+	 *             if the word so far does not end with a unique sentinel.
+	 * @throws IllegalArgumentException
+	 *             if the arguments do not fit the word so far.
+	 */
+	public void append(List<?> extendedWord, int[] newSymbols) {
+		int oldSize = symbols.length;
+		if (currentNode != 0 || refWordBegin != oldSize) {
+			throw new IllegalStateException(
+					"Only a word ending with a unique sentinel can be extended.");
+		}
+		if (newSymbols == null) {
+			if (!internedSymbols || extendedWord == null) {
+				throw new IllegalArgumentException(
+						"Symbols are required for the appended characters.");
+			}
+			newSymbols = internSymbols(
+					extendedWord.subList(oldSize, extendedWord.size()),
+					symbolIds);
+		} else if (internedSymbols) {
+			throw new IllegalArgumentException(
+					"Symbols were interned by the tree and must not be given.");
+		}
+
+		int[] extendedSymbols = Arrays.copyOf(symbols, oldSize
+				+ newSymbols.length);
+		System.arraycopy(newSymbols, 0, extendedSymbols, oldSize,
+				newSymbols.length);
+		if (extendedWord == null) {
+			extendedWord = new SymbolList(extendedSymbols);
+		} else if (extendedWord.size() != extendedSymbols.length) {
+			throw new IllegalArgumentException("Expected a word of length "
+					+ extendedSymbols.length + " but got "
+					+ extendedWord.size());
+		}
+		if (!internedSymbols && symbolIds != null) {
+			// created on demand from the old word, so rebuild on next use
+			symbolIds = null;
+		}
+
+		word = extendedWord;
+		symbols = extendedSymbols;
+		INFTY = extendedSymbols.length;
+		ensureWritable();
+		nodeChildFirst = null;
+		for (int i = oldSize; i < extendedSymbols.length; ++i) {
+			update(i);
+			canonize(i + 1);
+		}
+	}
+
+	/**
+	 * Discards all nodes and builds the tree again for the given word, which
+	 * replaces the word so far. This allows subclasses to compact the tree
+	 * after parts of the word became irrelevant. The node arrays and the hash
+	 * table start small and grow as required.
+	 * 
+	 * @param symbols
+	 *            the symbols of the new word (see {@link #SuffixTree(int[])}).
+	 *            The word becomes the list of these symbols.
+	 */
+	protected void rebuild(int[] symbols) {
+		this.word = new SymbolList(symbols);
+		this.symbols = symbols;
+		symbolIds = null;
+		INFTY = symbols.length;
+
+		int expectedNodes = Math.min(2 * symbols.length, MIN_NODE_CAPACITY
+				+ symbols.length / 2);
+		nextNode = new SuffixTreeHashTable(offHeap);
+		nodeWordBegin = createIntArray(expectedNodes);
+		nodeWordEnd = createIntArray(expectedNodes);
+		suffixLink = createIntArray(expectedNodes);
+		nodeChildFirst = null;
+		currentNode = 0;
+		refWordBegin = 0;
+
+		createRootNode();
+		for (int i = 0; i < symbols.length; ++i) {
+			update(i);
+			canonize(i + 1);
+		}
+	}
+
+	/**
+	 * Appends characters given as interned symbols (see
+	 * {@link #append(List, int[])}). The word becomes the list of symbols.
+	 */
+	public void append(int[] newSymbols) {
+		append(null, newSymbols);
+	}
+
+	/**
+	 * Replaces read-only node arrays (as mapped by {@link SuffixTreeFile}) by
+	 * writable copies.
+	 */
+	private void ensureWritable() {
+		if (nodeWordBegin.isReadOnly()) {
+			nodeWordBegin = nodeWordBegin.copyOf(numNodes);
+			nodeWordEnd = nodeWordEnd.copyOf(numNodes);
+			suffixLink = suffixLink.copyOf(numNodes);
+		}
+		nextNode.ensureWritable();
+	}
+
+	/**
+	 * Maps each character of the word to a symbol, numbering distinct
+	 * characters from 0 in order of their first occurrence. The mapping is
+	 * stored in the given map.
+	 */
+	private static int[] internSymbols(List<?> word, Map<Object, Integer> ids) {
+		int[] result = new int[word.size()];
+		int i = 0;
+		for (Object character : word) {
+			Integer id = ids.get(character);
+			if (id == null) {
+				id = ids.size();
+				ids.put(character, id);
+			}
+			result[i++] = id;
+		}
+		return result;
+	}
+
+	/**
+	 * Creates an array of the given length, which is stored off-heap if this
+	 * was requested for the tree (see
+	 * {@link #SuffixTree(List, int[], boolean, boolean)}).
+	 */
+	protected IntArray createIntArray(int length) {
+		return new IntArray(length, offHeap);
+	}
+
 	/** Creates the root node. */
 	private void createRootNode() {
+		ensureNodeCapacity(1);
 		numNodes = 1;
-		nodeWordBegin[0] = 0;
-		nodeWordEnd[0] = 0;
-		suffixLink[0] = -1;
+		nodeWordBegin.set(0, 0);
+		nodeWordEnd.set(0, 0);
+		suffixLink.set(0, -1);
+	}
+
+	/** Returns the number of a new node, growing the node arrays if needed. */
+	private int createNode() {
+		ensureNodeCapacity(numNodes + 1);
+		return numNodes++;
+	}
+
+	/**
+	 * Makes sure the node arrays can hold at least the given number of nodes.
+	 * The arrays are grown by half of their size to amortize copying.
+	 */
+	private void ensureNodeCapacity(int capacity) {
+		if (capacity <= nodeWordBegin.length()) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, nodeWordBegin.length()
+				+ nodeWordBegin.length() / 2);
+		nodeWordBegin = nodeWordBegin.copyOf(newCapacity);
+		nodeWordEnd = nodeWordEnd.copyOf(newCapacity);
+		suffixLink = suffixLink.copyOf(newCapacity);
 	}
 
 	/**
@@ -163,21 +489,21 @@ public class SuffixTree {
 	 */
 	private void update(int charPos) {
 		int lastNode = 0;
-		while (!testAndSplit(charPos, word.get(charPos))) {
-			int newNode = numNodes++;
-			nodeWordBegin[newNode] = charPos;
-			nodeWordEnd[newNode] = INFTY;
-			nextNode.put(explicitNode, word.get(charPos), newNode);
+		while (!testAndSplit(charPos, symbols[charPos])) {
+			int newNode = createNode();
+			nodeWordBegin.set(newNode, charPos);
+			nodeWordEnd.set(newNode, INFTY);
+			nextNode.put(explicitNode, symbols[charPos], newNode);
 
 			if (lastNode != 0) {
-				suffixLink[lastNode] = explicitNode;
+				suffixLink.set(lastNode, explicitNode);
 			}
 			lastNode = explicitNode;
-			currentNode = suffixLink[currentNode];
+			currentNode = suffixLink.get(currentNode);
 			canonize(charPos);
 		}
 		if (lastNode != 0) {
-			suffixLink[lastNode] = currentNode;
+			suffixLink.set(lastNode, currentNode);
 		}
 	}
 
@@ -191,7 +517,7 @@ public class SuffixTree {
 	 * true if the end-point was reached. The newly created (or reached)
 	 * explicit node is returned in the "global" variable.
 	 */
-	private boolean testAndSplit(int refWordEnd, Object nextCharacter) {
+	private boolean testAndSplit(int refWordEnd, int nextCharacter) {
 		if (currentNode < 0) {
 			// trap state is always end state
 			return true;
@@ -205,21 +531,22 @@ public class SuffixTree {
 			return true;
 		}
 
-		int next = nextNode.get(currentNode, word.get(refWordBegin));
-		if (nextCharacter.equals(word.get(nodeWordBegin[next] + refWordEnd
-				- refWordBegin))) {
+		int next = nextNode.get(currentNode, symbols[refWordBegin]);
+		if (nextCharacter == symbols[nodeWordBegin.get(next) + refWordEnd
+				- refWordBegin]) {
 			return true;
 		}
 
 		// not an end-point and not explicit, so make it explicit.
-		explicitNode = numNodes++;
-		nodeWordBegin[explicitNode] = nodeWordBegin[next];
-		nodeWordEnd[explicitNode] = nodeWordBegin[next] + refWordEnd
-				- refWordBegin;
-		nextNode.put(currentNode, word.get(refWordBegin), explicitNode);
-
-		nodeWordBegin[next] += refWordEnd - refWordBegin;
-		nextNode.put(explicitNode, word.get(nodeWordBegin[next]), next);
+		explicitNode = createNode();
+		nodeWordBegin.set(explicitNode, nodeWordBegin.get(next));
+		nodeWordEnd.set(explicitNode, nodeWordBegin.get(next) + refWordEnd
+				- refWordBegin);
+		nextNode.put(currentNode, symbols[refWordBegin], explicitNode);
+
+		nodeWordBegin.set(next, nodeWordBegin.get(next) + refWordEnd
+				- refWordBegin);
+		nextNode.put(explicitNode, symbols[nodeWordBegin.get(next)], next);
 		return false;
 	}
 
@@ -245,13 +572,13 @@ public class SuffixTree {
 			return;
 		}
 
-		int next = nextNode.get(currentNode, word.get(refWordBegin));
-		while (nodeWordEnd[next] - nodeWordBegin[next] <= refWordEnd
+		int next = nextNode.get(currentNode, symbols[refWordBegin]);
+		while (nodeWordEnd.get(next) - nodeWordBegin.get(next) <= refWordEnd
 				- refWordBegin) {
-			refWordBegin += nodeWordEnd[next] - nodeWordBegin[next];
+			refWordBegin += nodeWordEnd.get(next) - nodeWordBegin.get(next);
 			currentNode = next;
 			if (refWordEnd > refWordBegin) {
-				next = nextNode.get(currentNode, word.get(refWordBegin));
+				next = nextNode.get(currentNode, symbols[refWordBegin]);
                 if (next == -1) {
                     System.exit(12);
                 }
@@ -263,18 +590,45 @@ public class SuffixTree {
 
 	/**
 	 * This method makes sure the child lists are filled (required for
-	 * traversing the tree).
+	 * traversing the tree). The children of each node are ordered by the
+	 * first symbol of their edge (see
+	 * {@link SuffixTreeHashTable#extractChildLists(IntArray, IntArray, IntArray)}
+	 * ), so a depth-first traversal visits the suffixes in lexicographic order
+	 * (as in a suffix array).
 	 */
 	protected void ensureChildLists() {
-		if (nodeChildFirst == null || nodeChildFirst.length < numNodes) {
-			nodeChildFirst = new int[numNodes];
-			nodeChildNext = new int[numNodes];
-			nodeChildNode = new int[numNodes];
+		if (nodeChildFirst == null || nodeChildFirst.length() < numNodes) {
+			nodeChildFirst = createIntArray(numNodes);
+			nodeChildNext = createIntArray(numNodes);
+			nodeChildNode = createIntArray(numNodes);
 			nextNode.extractChildLists(nodeChildFirst, nodeChildNext,
 					nodeChildNode);
 		}
 	}
 
+	/**
+	 * Writes the symbols, the node arrays, the child lists and the hash table
+	 * to the given stream, so the tree can be loaded again without
+	 * construction (see {@link SuffixTreeFile}).
+	 */
+	protected void write(DataOutputStream out) throws IOException {
+		ensureChildLists();
+		out.writeInt(symbols.length);
+		for (int symbol : symbols) {
+			out.writeInt(symbol);
+		}
+		out.writeInt(numNodes);
+		nodeWordBegin.write(out, numNodes);
+		nodeWordEnd.write(out, numNodes);
+		suffixLink.write(out, numNodes);
+		nodeChildFirst.write(out, numNodes);
+		nodeChildNext.write(out, numNodes);
+		nodeChildNode.write(out, numNodes);
+		nextNode.write(out);
+		out.writeInt(currentNode);
+		out.writeInt(refWordBegin);
+	}
+
 	/** Prints some internal numbers to std error. */
 	protected void _dumpDebugInfos() {
 		System.err.println("Number of nodes created: " + numNodes);
@@ -302,10 +656,11 @@ public class SuffixTree {
 			sb.append("  n" + i + ";\n");
 		}
 		for (int i = 0; i < numNodes; ++i) {
-			for (int e = nodeChildFirst[i]; e >= 0; e = nodeChildNext[e]) {
-				sb.append("  n" + i + " -> n" + nodeChildNode[e] + " [label=\"");
+			for (int e = nodeChildFirst.get(i); e >= 0; e = nodeChildNext.get(e)) {
+				int child = nodeChildNode.get(e);
+				sb.append("  n" + i + " -> n" + child + " [label=\"");
 				String sep = "";
-				for (int j = nodeWordBegin[nodeChildNode[e]]; j < nodeWordEnd[nodeChildNode[e]]; ++j) {
+				for (int j = nodeWordBegin.get(child); j < nodeWordEnd.get(child); ++j) {
 					sb.append(sep);
 					sb.append(word.get(j).toString());
 					sep = separationChar;
@@ -315,8 +670,8 @@ public class SuffixTree {
 		}
 		if (includeSuffixLinks) {
 			for (int i = 1; i < numNodes; ++i) {
-				if (nodeChildFirst[i] >= 0) {
-					sb.append("  n" + i + " -> n" + suffixLink[i]
+				if (nodeChildFirst.get(i) >= 0) {
+					sb.append("  n" + i + " -> n" + suffixLink.get(i)
 							+ " [color=red,constraint=false];\n");
 				}
 			}
@@ -330,16 +685,32 @@ public class SuffixTree {
 	 * construction time.
 	 */
 	public boolean containsWord(List<?> find) {
+		Map<Object, Integer> ids = getSymbolIds();
+		int[] findSymbols = new int[find.size()];
+		for (int i = 0; i < findSymbols.length; ++i) {
+			Integer id = ids.get(find.get(i));
+			if (id == null) {
+				return false;
+			}
+			findSymbols[i] = id;
+		}
+		return containsWord(findSymbols);
+	}
+
+	/**
+	 * Returns whether the given word (given as symbols) is contained in the
+	 * string given at construction time.
+	 */
+	public boolean containsWord(int[] find) {
 		int node = 0;
-		int findSize = find.size();
-		for (int i = 0; i < findSize;) {
-			int next = nextNode.get(node, find.get(i));
+		for (int i = 0; i < find.length;) {
+			int next = nextNode.get(node, find[i]);
 			if (next < 0) {
 				return false;
 			}
-			for (int j = nodeWordBegin[next]; j < nodeWordEnd[next]
-					&& i < findSize; ++i, ++j) {
-				if (!word.get(j).equals(find.get(i))) {
+			for (int j = nodeWordBegin.get(next); j < nodeWordEnd.get(next)
+					&& i < find.length; ++i, ++j) {
+				if (symbols[j] != find[i]) {
 					return false;
 				}
 			}
@@ -348,6 +719,20 @@ public class SuffixTree {
 		return true;
 	}
 
+	/**
+	 * Returns the mapping from characters to symbols, which is reconstructed
+	 * from {@link #word} and {@link #symbols} if not known yet.
+	 */
+	private Map<Object, Integer> getSymbolIds() {
+		if (symbolIds == null) {
+			symbolIds = new HashMap<Object, Integer>();
+			for (int i = 0; i < symbols.length; ++i) {
+				symbolIds.put(word.get(i), symbols[i]);
+			}
+		}
+		return symbolIds;
+	}
+
 	/**
 	 * A sentinel character which can be used to produce explicit leaves for all
 	 * suffixes. The sentinel just has to be appended to the list before handing
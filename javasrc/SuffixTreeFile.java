@@ -0,0 +1,155 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Persistent storage for a built {@link CloneDetectingSuffixTree}, so repeated
+ * runs on the same word can skip the construction.
+ * <p>
+ * The file starts with a header (magic number, version) followed by the
+ * fields of the tree in the order they are written by
+ * {@link SuffixTree#write(DataOutputStream)} and its overrides: counts are
+ * stored as single ints and arrays as consecutive big-endian elements. The
+ * symbols and the leaf suffixes are read into the heap, while all per-node
+ * arrays and the hash table are memory mapped read-only and paged in on
+ * demand.
+ */
+public class SuffixTreeFile {
+
+	/** The magic number at the start of each file ("STRE"). */
+	private static final int MAGIC = 0x53545245;
+
+	/**
+	 * The version of the file format. Version 3 stores the child lists sorted
+	 * (see {@link SuffixTree#ensureChildLists()}).
+	 */
+	private static final int VERSION = 3;
+
+	/** Writes the given tree to a file. */
+	public static void write(CloneDetectingSuffixTree tree, Path file)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			tree.write(out);
+		}
+	}
+
+	/**
+	 * Loads a tree from the given file. The word is used for reporting and
+	 * {@link SuffixTree#containsWord(List)} and must be the one the tree was
+	 * built from. If it is null, the word consists of the stored symbols. If
+	 * the symbols of the word are given, they are checked against the stored
+	 * ones.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read, is not a suffix tree file or
+	 *             was built from a different word.
+	 */
+	public static CloneDetectingSuffixTree load(Path file, List<?> word,
+			int[] symbols) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			Reader in = new Reader(channel);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a suffix tree file: " + file);
+			}
+			return new CloneDetectingSuffixTree(in, word, symbols);
+		}
+	}
+
+	/**
+	 * Sequential reader for the fields of a suffix tree file, which maps the
+	 * arrays instead of copying them.
+	 */
+	/* package */static class Reader {
+
+		/** The channel of the file. */
+		private final FileChannel channel;
+
+		/** The position of the next field in the file. */
+		private long position = 0;
+
+		/** Constructor. */
+		private Reader(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/** Reads a single int. */
+		public int readInt() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of suffix tree file");
+				}
+			}
+			position += 4;
+			return buffer.getInt(0);
+		}
+
+		/** Reads an array of the given length into the heap. */
+		public int[] readInts(int length) throws IOException {
+			checkRemaining(length, 4);
+			int[] result = new int[length];
+			mapIntArray(length).copyTo(result);
+			return result;
+		}
+
+		/** Maps an int array of the given length. */
+		public IntArray mapIntArray(int length) throws IOException {
+			checkRemaining(length, 4);
+			IntArray result = IntArray.map(channel, position, length);
+			position += 4L * length;
+			return result;
+		}
+
+		/** Maps a long array of the given length. */
+		public LongArray mapLongArray(int length) throws IOException {
+			checkRemaining(length, 8);
+			LongArray result = LongArray.map(channel, position, length);
+			position += 8L * length;
+			return result;
+		}
+
+		/**
+		 * Makes sure the given length of an array is not negative and the file
+		 * contains its elements of the given size after the current position,
+		 * as mapping beyond its end would grow the file.
+		 */
+		private void checkRemaining(int length, int elementSize)
+				throws IOException {
+			if (length < 0) {
+				throw new IOException("Negative array length " + length
+						+ " in suffix tree file");
+			}
+			if (position + (long) elementSize * length > channel.size()) {
+				throw new IOException("Unexpected end of suffix tree file");
+			}
+		}
+	}
+}
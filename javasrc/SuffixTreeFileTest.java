@@ -0,0 +1,153 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the {@link SuffixTreeFile}: a loaded tree must report the same
+ * clones as the tree written, while truncated files, files with invalid
+ * array lengths and files written for another word must be rejected with an
+ * {@link IOException}. Run the main method; a failed check throws an
+ * {@link AssertionError}.
+ */
+class SuffixTreeFileTest {
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("suffixtree", ".bin");
+		try {
+			List<int[]> words = CloneDetectingSuffixArrayTest.createWords();
+			for (int i = 0; i < words.size(); i += 5) {
+				checkRoundTrip(words.get(i), file);
+			}
+			checkTruncated(new int[] { 2, 1, 0, 2, 1, 0, 2, 1, -1 }, file);
+			checkInvalidLengths(new int[] { 2, 1, 0, 2, 1, 0, 2, 1, -1 }, file);
+			checkDifferentWord(words.get(words.size() - 1), file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+		System.out.println("OK");
+	}
+
+	/** Checks that a written and loaded tree reports the same clones. */
+	private static void checkRoundTrip(int[] symbols, Path file)
+			throws Exception {
+		CloneDetectingSuffixTree tree = new CloneDetectingSuffixTree(
+				symbols.clone());
+		SuffixTreeFile.write(tree, file);
+		CloneDetectingSuffixTree loaded = SuffixTreeFile.load(file, null,
+				symbols.clone());
+		for (int minLength = 1; minLength <= 4; ++minLength) {
+			Set<String> expected = CloneDetectingSuffixArrayTest.findClones(
+					tree, minLength);
+			Set<String> actual = CloneDetectingSuffixArrayTest.findClones(
+					loaded, minLength);
+			if (!expected.equals(actual)) {
+				throw new AssertionError("Different clones after loading "
+						+ Arrays.toString(symbols) + " for min length "
+						+ minLength + ":\n" + expected + "\n" + actual);
+			}
+		}
+	}
+
+	/** Checks that every truncation of a tree file is rejected. */
+	private static void checkTruncated(int[] symbols, Path file)
+			throws IOException {
+		SuffixTreeFile.write(new CloneDetectingSuffixTree(symbols.clone()),
+				file);
+		long size = Files.size(file);
+		for (long length = size - 1; length >= 0; --length) {
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.WRITE)) {
+				channel.truncate(length);
+			}
+			try {
+				SuffixTreeFile.load(file, null, null);
+			} catch (IOException e) {
+				continue;
+			}
+			throw new AssertionError("File truncated to " + length + " of "
+					+ size + " bytes was loaded");
+		}
+	}
+
+	/**
+	 * Checks that a file is rejected if the length of the symbols or the
+	 * number of nodes (which is the length of the node arrays) is negative or
+	 * exceeds the file.
+	 */
+	private static void checkInvalidLengths(int[] symbols, Path file)
+			throws IOException {
+		// after the magic number and version
+		long symbolsLength = 8;
+		long numNodes = symbolsLength + 4 + 4L * symbols.length;
+		for (long offset : new long[] { symbolsLength, numNodes }) {
+			for (int length : new int[] { -1, Integer.MIN_VALUE,
+					Integer.MAX_VALUE }) {
+				SuffixTreeFile.write(new CloneDetectingSuffixTree(
+						symbols.clone()), file);
+				try (FileChannel channel = FileChannel.open(file,
+						StandardOpenOption.WRITE)) {
+					ByteBuffer buffer = ByteBuffer.allocate(4);
+					buffer.putInt(0, length);
+					channel.write(buffer, offset);
+				}
+				try {
+					SuffixTreeFile.load(file, null, null);
+				} catch (IOException e) {
+					continue;
+				}
+				throw new AssertionError("File with length " + length
+						+ " at offset " + offset + " was loaded");
+			}
+		}
+	}
+
+	/**
+	 * Checks that a tree file is rejected for a word with other symbols or
+	 * another length.
+	 */
+	private static void checkDifferentWord(int[] symbols, Path file)
+			throws IOException {
+		SuffixTreeFile.write(new CloneDetectingSuffixTree(symbols.clone()),
+				file);
+
+		int[] otherSymbols = symbols.clone();
+		otherSymbols[0] = otherSymbols[0] < 0 ? 0 : otherSymbols[0] + 1;
+		expectRejected(file, null, otherSymbols);
+		expectRejected(file, null, Arrays.copyOf(symbols, symbols.length - 1));
+		expectRejected(file, new SymbolList(Arrays.copyOf(symbols,
+				symbols.length + 1)), null);
+	}
+
+	/** Checks that loading the file for the given word fails. */
+	private static void expectRejected(Path file, List<?> word, int[] symbols) {
+		try {
+			SuffixTreeFile.load(file, word, symbols);
+		} catch (IOException e) {
+			return;
+		}
+		throw new AssertionError("Tree file was loaded for another word");
+	}
+}
@@ -15,7 +15,8 @@
 | limitations under the License.                                           |
 +-------------------------------------------------------------------------*/
 
-import java.util.Arrays;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * The hash table used for the {@link SuffixTree} class. It is specifically
@@ -23,8 +24,8 @@ import java.util.Arrays;
  * use for any other application.
  * <p>
  * It hashes from (node, character) pairs to the next node, where nodes are
- * represented by integers and the type of characters is determined by the
- * generic parameter.
+ * represented by integers and characters are represented by their interned
+ * symbols (see {@link SuffixTree#symbols}).
  * 
  * @author Benjamin Hummel
  * @author $Author: juergens $
@@ -43,20 +44,39 @@ import java.util.Arrays;
 			1572869, 3145739, 6291469, 12582917, 25165843, 50331653, 100663319,
 			201326611, 402653189, 805306457, 1610612741 };
 
-	/** The size of the hash table. */
-	private final int tableSize;
+	/**
+	 * Marker for unused entries in {@link #keys}. As nodes are non-negative,
+	 * this can not be a valid key.
+	 */
+	private static final long EMPTY_KEY = -1;
 
-	/** Storage space for the node part of the key */
-	private final int[] keyNodes;
+	/**
+	 * The maximal fill factor of the table. If inserting a new entry would
+	 * exceed this, the table is grown to the next allowed size.
+	 */
+	private static final double MAX_FILL_FACTOR = 0.75;
 
-	/** Storage space for the character part of the key. */
-	private final Object[] keyChars;
+	/** The index of the current {@link #tableSize} in {@link #allowedSizes}. */
+	private int sizeIndex = 0;
+
+	/** The size of the hash table. */
+	private int tableSize;
+
+	/**
+	 * Storage space for the keys. Each (node, character) pair is packed into a
+	 * single long (see {@link #packKey(int, int)}), so a probe requires only a
+	 * single comparison. Unused entries are marked by {@link #EMPTY_KEY}.
+	 */
+	private LongArray keys;
 
 	/** Storage space for the result node. */
-	private final int[] resultNodes;
+	private IntArray resultNodes;
+
+	/** Whether the storage is allocated off-heap (see {@link IntArray}). */
+	private final boolean offHeap;
 
-	/** Debug info: number of stored nodes. */
-	private int _numStoredNodes = 0;
+	/** Number of stored nodes. */
+	private int numStoredNodes = 0;
 
 	/** Debug info: number of calls to find so far. */
 	private int _numFind = 0;
@@ -65,43 +85,92 @@ import java.util.Arrays;
 	private int _numColl = 0;
 
 	/**
-	 * Creates a new hash table for the given number of nodes. Trying to add
-	 * more nodes will result in worse performance down to entering an infinite
-	 * loop on some operations.
+	 * Creates a new hash table for the given number of nodes. Adding more
+	 * nodes is possible, but causes the table to be rehashed.
+	 * 
+	 * @param offHeap
+	 *            whether the storage is allocated outside of the Java heap.
 	 */
-	public SuffixTreeHashTable(final int numNodes) {
+	public SuffixTreeHashTable(final int numNodes, boolean offHeap) {
+		this.offHeap = offHeap;
 		int minSize = (int) Math.ceil(1.5 * numNodes);
-		int sizeIndex = 0;
 		while (allowedSizes[sizeIndex] < minSize) {
 			++sizeIndex;
 		}
+		allocate();
+	}
+
+	/**
+	 * Creates a new hash table of the smallest size, which grows as nodes are
+	 * added. This is preferable if the number of nodes is not known in
+	 * advance.
+	 * 
+	 * @param offHeap
+	 *            whether the storage is allocated outside of the Java heap.
+	 */
+	public SuffixTreeHashTable(boolean offHeap) {
+		this.offHeap = offHeap;
+		allocate();
+	}
+
+	/**
+	 * Loads a hash table written by {@link #write(DataOutputStream)}. The
+	 * storage is memory mapped read-only, so no nodes may be added.
+	 */
+	public SuffixTreeHashTable(SuffixTreeFile.Reader in) throws IOException {
+		this.offHeap = true;
+		sizeIndex = in.readInt();
+		if (sizeIndex < 0 || sizeIndex >= allowedSizes.length) {
+			throw new IOException("Invalid hash table size index: "
+					+ sizeIndex);
+		}
 		tableSize = allowedSizes[sizeIndex];
+		numStoredNodes = in.readInt();
+		keys = in.mapLongArray(tableSize);
+		resultNodes = in.mapIntArray(tableSize);
+	}
+
+	/** Writes the size and the storage of the table to the given stream. */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(sizeIndex);
+		out.writeInt(numStoredNodes);
+		keys.write(out, tableSize);
+		resultNodes.write(out, tableSize);
+	}
 
-		keyNodes = new int[tableSize];
-		keyChars = new Object[tableSize];
-		resultNodes = new int[tableSize];
+	/**
+	 * Replaces read-only storage (as mapped by
+	 * {@link #SuffixTreeHashTable(SuffixTreeFile.Reader)}) by writable copies,
+	 * so nodes can be added.
+	 */
+	public void ensureWritable() {
+		if (keys.isReadOnly()) {
+			keys = keys.copyOf(tableSize);
+			resultNodes = resultNodes.copyOf(tableSize);
+		}
+	}
+
+	/** Allocates empty storage for the size given by {@link #sizeIndex}. */
+	private void allocate() {
+		tableSize = allowedSizes[sizeIndex];
+		keys = new LongArray(tableSize, offHeap);
+		keys.fill(EMPTY_KEY);
+		resultNodes = new IntArray(tableSize, offHeap);
 	}
 
 	/**
-	 * Returns the position of the (node,char) key in the hash map or the
-	 * position to insert it into if it is not yet in.
+	 * Returns the position of the packed (node,char) key in the hash map or
+	 * the position to insert it into if it is not yet in.
 	 */
-	private int hashFind(int keyNode, Object keyChar) {
+	private int hashFind(long key, int keyNode, int keyChar) {
 		++_numFind;
-		int hash = keyChar.hashCode();
+		int hash = symbolHash(keyChar);
 		int pos = posMod(primaryHash(keyNode, hash));
 		int secondary = secondaryHash(keyNode, hash);
-		while (keyChars[pos] != null) {
-			if (keyNodes[pos] == keyNode && keyChar.equals(keyChars[pos])) {
-				break;
-			}
+		while (keys.get(pos) != EMPTY_KEY && keys.get(pos) != key) {
 			++_numColl;
 			pos = (pos + secondary) % tableSize;
-            //System.out.print(pos + " ");
 		}
-        //System.out.print(((PhpToken) keyChar).content + " ");
-        //System.out.print(pos + " ");
-        //System.out.print(tableSize + " ");
 		return pos;
 	}
 
@@ -109,29 +178,78 @@ import java.util.Arrays;
 	 * Returns the next node for the given (node, character) key pair or a
 	 * negative value if no next node is stored for this key.
 	 */
-	public int get(int keyNode, Object keyChar) {
-		int pos = hashFind(keyNode, keyChar);
-        //System.out.println(keyChar);
-        //if (pos == 11428) {
-            //System.exit(123);
-        //}
-        //System.out.println(keyChars[11428]);
-
-		if (keyChars[pos] == null) {
+	public int get(int keyNode, int keyChar) {
+		int pos = hashFind(packKey(keyNode, keyChar), keyNode, keyChar);
+		if (keys.get(pos) == EMPTY_KEY) {
 			return -1;
 		}
-		return resultNodes[pos];
+		return resultNodes.get(pos);
 	}
 
 	/** Inserts the given result node for the (node, character) key pair. */
-	public void put(int keyNode, Object keyChar, int resultNode) {
-		int pos = hashFind(keyNode, keyChar);
-		if (keyChars[pos] == null) {
-			++_numStoredNodes;
-			keyChars[pos] = keyChar;
-			keyNodes[pos] = keyNode;
+	public void put(int keyNode, int keyChar, int resultNode) {
+		long key = packKey(keyNode, keyChar);
+		int pos = hashFind(key, keyNode, keyChar);
+		if (keys.get(pos) == EMPTY_KEY) {
+			if (numStoredNodes + 1 > MAX_FILL_FACTOR * tableSize) {
+				grow();
+				pos = hashFind(key, keyNode, keyChar);
+			}
+			++numStoredNodes;
+			keys.set(pos, key);
 		}
-		resultNodes[pos] = resultNode;
+		resultNodes.set(pos, resultNode);
+	}
+
+	/**
+	 * Grows the table to the next allowed size and reinserts all entries.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the largest allowed size is already reached.
+	 */
+	private void grow() {
+		if (sizeIndex + 1 >= allowedSizes.length) {
+			throw new IllegalStateException(
+					"Suffix tree hash table can not grow beyond "
+							+ tableSize + " entries.");
+		}
+
+		LongArray oldKeys = keys;
+		IntArray oldResultNodes = resultNodes;
+		++sizeIndex;
+		allocate();
+
+		for (int i = 0; i < oldKeys.length(); ++i) {
+			long key = oldKeys.get(i);
+			if (key != EMPTY_KEY) {
+				int pos = hashFind(key, keyNode(key), keyChar(key));
+				keys.set(pos, key);
+				resultNodes.set(pos, oldResultNodes.get(i));
+			}
+		}
+	}
+
+	/** Packs a (node, character) pair into a single key. */
+	private static long packKey(int keyNode, int keyChar) {
+		return ((long) keyNode << 32) | (keyChar & 0xFFFFFFFFL);
+	}
+
+	/** Returns the node part of a packed key. */
+	private static int keyNode(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/** Returns the character part of a packed key. */
+	private static int keyChar(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Spreads the bits of a symbol. Interned symbols are small consecutive
+	 * numbers, which would otherwise lead to many collisions.
+	 */
+	private static int symbolHash(int keyChar) {
+		return keyChar * 0x9E3779B9;
 	}
 
 	/** Returns the primary hash value for a (node, character) key pair. */
@@ -169,7 +287,8 @@ import java.util.Arrays;
 	 * entries as a linked list. All arrays are expected to be initially empty
 	 * and of suitable size (i.e. for <em>n</em> nodes it should have size
 	 * <em>n</em> given that nodes are numbered 0 to n-1). Those arrays will be
-	 * filled from this method.
+	 * filled from this method. The children of each node are ordered by the
+	 * character of their entry.
 	 * <p>
 	 * The method is package visible, as it is tighly coupled to the
 	 * {@link SuffixTree} class.
@@ -186,18 +305,52 @@ import java.util.Arrays;
 	 * @throws ArrayIndexOutOfBoundsException
 	 *             if any of the given arrays was too small.
 	 */
-	public void extractChildLists(int[] nodeFirstIndex, int[] nodeNextIndex,
-			int[] nodeChild) {
-		Arrays.fill(nodeFirstIndex, -1);
-		int free = 0;
+	public void extractChildLists(IntArray nodeFirstIndex,
+			IntArray nodeNextIndex, IntArray nodeChild) {
+		nodeFirstIndex.fill(-1);
+		if (numStoredNodes == 0) {
+			return;
+		}
+
+		// counting sort of the entries by character
+		int minChar = Integer.MAX_VALUE;
+		int maxChar = Integer.MIN_VALUE;
+		for (int i = 0; i < tableSize; ++i) {
+			if (keys.get(i) != EMPTY_KEY) {
+				minChar = Math.min(minChar, keyChar(keys.get(i)));
+				maxChar = Math.max(maxChar, keyChar(keys.get(i)));
+			}
+		}
+		boolean offHeap = keys.isOffHeap();
+		IntArray starts = new IntArray(maxChar - minChar + 2, offHeap);
+		for (int i = 0; i < tableSize; ++i) {
+			if (keys.get(i) != EMPTY_KEY) {
+				int index = keyChar(keys.get(i)) - minChar + 1;
+				starts.set(index, starts.get(index) + 1);
+			}
+		}
+		for (int c = 1; c < starts.length(); ++c) {
+			starts.set(c, starts.get(c) + starts.get(c - 1));
+		}
+		IntArray order = new IntArray(numStoredNodes, offHeap);
 		for (int i = 0; i < tableSize; ++i) {
-			if (keyChars[i] != null) {
-				// insert keyNodes[i] -> resultNodes[i]
-				nodeChild[free] = resultNodes[i];
-				nodeNextIndex[free] = nodeFirstIndex[keyNodes[i]];
-				nodeFirstIndex[keyNodes[i]] = free++;
+			if (keys.get(i) != EMPTY_KEY) {
+				int index = keyChar(keys.get(i)) - minChar;
+				order.set(starts.get(index), i);
+				starts.set(index, starts.get(index) + 1);
 			}
 		}
+
+		// prepending in descending order yields ascending child lists
+		int free = 0;
+		for (int k = numStoredNodes - 1; k >= 0; --k) {
+			int i = order.get(k);
+			// insert keyNode(keys[i]) -> resultNodes[i]
+			int node = keyNode(keys.get(i));
+			nodeChild.set(free, resultNodes.get(i));
+			nodeNextIndex.set(free, nodeFirstIndex.get(node));
+			nodeFirstIndex.set(node, free++);
+		}
 	}
 
 	/**
@@ -207,9 +360,9 @@ import java.util.Arrays;
 	public void _printDebugInfo() {
 		System.err.println("STHashMap info: ");
 		System.err.println("  Table size: " + tableSize);
-		System.err.println("  Contained entries: " + _numStoredNodes);
+		System.err.println("  Contained entries: " + numStoredNodes);
 		System.err.println("  Fill factor: "
-				+ ((double) _numStoredNodes / tableSize));
+				+ ((double) numStoredNodes / tableSize));
 		System.err.println("  Number of finds: " + _numFind);
 		System.err.println("  Number of collisions: " + _numColl);
 	}
@@ -0,0 +1,49 @@
+/*-------------------------------------------------------------------------+
+|                                                                          |
+| Copyright 2005-2011 The ConQAT Project                                   |
+|                                                                          |
+| Licensed under the Apache License, Version 2.0 (the "License");          |
+| you may not use this file except in compliance with the License.         |
+| You may obtain a copy of the License at                                  |
+|                                                                          |
+|    http://www.apache.org/licenses/LICENSE-2.0                            |
+|                                                                          |
+| Unless required by applicable law or agreed to in writing, software      |
+| distributed under the License is distributed on an "AS IS" BASIS,        |
+| WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. |
+| See the License for the specific language governing permissions and      |
+| limitations under the License.                                           |
++-------------------------------------------------------------------------*/
+
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list view of an array of interned symbols. This is used as the
+ * {@link SuffixTree#word} if the tree is constructed directly from an int
+ * array, so code working on the list (e.g. for printing) still works.
+ */
+/* package */class SymbolList extends AbstractList<Integer> implements
+		RandomAccess {
+
+	/** The underlying symbols. */
+	private final int[] symbols;
+
+	/** Constructor. */
+	public SymbolList(int[] symbols) {
+		this.symbols = symbols;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Integer get(int index) {
+		return symbols[index];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int size() {
+		return symbols.length;
+	}
+}